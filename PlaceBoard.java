@@ -1,19 +1,53 @@
 package place;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The board is the place that holds the colored tiles.  The server creates
  * the initial Board and then transmits it only once to each client that
  * successfully logs in to the server.
  *
+ * Tiles are not kept as objects.  The board holds each tile's color, owner
+ * and time in flat arrays, and {@link #getTile} hands out a fresh PlaceTile
+ * view only when a particular tile is asked for.  On the wire the colors are
+ * packed two to a byte and owners and times are run-length encoded against a
+ * table of distinct owner names, so a mostly untouched board is little more
+ * than DIM * DIM / 2 bytes.
+ *
  * @author Sean Strout @ RIT CS
  */
 public class PlaceBoard implements Serializable {
     /** The square dimension of the board */
     public final int DIM;
-    /** The grid of tiles */
-    private PlaceTile[][] board;
+    /** Hex digits indexed by color number */
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    /** The colors indexed by color number */
+    private static final PlaceColor[] COLORS = new PlaceColor[PlaceColor.TOTAL_COLORS];
+
+    static {
+        for (PlaceColor color : PlaceColor.values()) {
+            COLORS[color.getNumber()] = color;
+        }
+    }
+
+    /** The color number of each tile, row by row */
+    private transient byte[] colors;
+    /** The owner of each tile, row by row */
+    private transient String[] owners;
+    /** The time each tile was changed, row by row */
+    private transient long[] times;
 
     /**
      * Create a new board of all white tiles.
@@ -22,26 +56,52 @@ public class PlaceBoard implements Serializable {
      */
     public PlaceBoard(int DIM) {
         this.DIM = DIM;
-        this.board = new PlaceTile[DIM][DIM];
-        for (int row=0; row<DIM; ++row) {
-            for (int col=0; col<DIM; ++col) {
-                this.board[row][col] =
-                        new PlaceTile(row, col, "", PlaceColor.WHITE);
-            }
-        }
+        allocate();
+        Arrays.fill(this.colors, (byte) PlaceColor.WHITE.getNumber());
+        Arrays.fill(this.owners, "");
+    }
+
+    /**
+     * Copy a board, so the copy can be sent while the original keeps
+     * changing.
+     *
+     * @param board the board to copy
+     */
+    public PlaceBoard(PlaceBoard board) {
+        this.DIM = board.DIM;
+        this.colors = board.colors.clone();
+        this.owners = board.owners.clone();
+        this.times = board.times.clone();
     }
 
     /**
-     * Get the entire board.
+     * Make the empty tile arrays.
+     */
+    private void allocate() {
+        this.colors = new byte[DIM * DIM];
+        this.owners = new String[DIM * DIM];
+        this.times = new long[DIM * DIM];
+    }
+
+    /**
+     * Get a copy of the entire board as tiles.  Every tile is materialized,
+     * so prefer {@link #getTile} or {@link #getColor} for single tiles.
      *
      * @return the board
      */
     public PlaceTile[][] getBoard() {
-        return this.board;
+        PlaceTile[][] board = new PlaceTile[DIM][DIM];
+        for (int row=0; row<DIM; ++row) {
+            for (int col=0; col<DIM; ++col) {
+                board[row][col] = getTile(row, col);
+            }
+        }
+        return board;
     }
 
     /**
-     * Get a tile on the board
+     * Get a tile on the board.  The tile is a new view of the board's
+     * contents; changing it does not change the board.
      *
      * @param row row
      * @param col column
@@ -49,31 +109,134 @@ public class PlaceBoard implements Serializable {
      * @return the tile
      */
     public PlaceTile getTile(int row, int col){
-        return this.board[row][col];
+        int index = row * DIM + col;
+        return new PlaceTile(row, col, this.owners[index], COLORS[this.colors[index]], this.times[index]);
     }
 
     /**
-     * Change a tile in the board.
+     * Get the color of a tile without making a tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the color
+     */
+    public PlaceColor getColor(int row, int col) {
+        return COLORS[this.colors[row * DIM + col]];
+    }
+
+    /**
+     * Change a tile in the board.  A tile without a color has nothing to
+     * paint, so it leaves the board as it was.
      *
      * @param tile the new tile
      * @rit.pre row and column constitute a valid board coordinate
      */
     public void setTile(PlaceTile tile) {
-        this.board[tile.getRow()][tile.getCol()] = tile;
+        if (tile.getColor() == null) {
+            return;
+        }
+        int index = tile.getRow() * DIM + tile.getCol();
+        this.colors[index] = (byte) tile.getColor().getNumber();
+        this.owners[index] = tile.getOwner() == null ? "" : tile.getOwner();
+        this.times[index] = tile.getTime();
     }
 
     /**
-     * Tells whether the coordinates of the tile are valid or not
+     * Tells whether the tile can be put on the board: it has a color and
+     * its coordinates are valid
      * @param tile the tile
-     * @return are the coordinates within the dimensions of the board?
+     * @return is it a colored tile within the dimensions of the board?
      */
     public boolean isValid(PlaceTile tile) {
-        return tile.getRow() >=0 &&
+        return tile != null &&
+                tile.getColor() != null &&
+                tile.getRow() >=0 &&
                 tile.getRow() < this.DIM &&
                 tile.getCol() >= 0 &&
                 tile.getCol() < this.DIM;
     }
 
+    /**
+     * Tells how many characters rendering a region takes: a newline and then
+     * one hex digit per tile, for each row.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @return the number of characters, or bytes when rendering to a ByteBuffer
+     */
+    public static int renderedLength(int rows, int cols) {
+        return rows * (cols + 1);
+    }
+
+    /**
+     * Write the whole board in the same form as {@link #toString()}.
+     *
+     * @param out where to write
+     * @throws IOException if out cannot be written to
+     */
+    public void render(Appendable out) throws IOException {
+        render(out, 0, 0, this.DIM, this.DIM);
+    }
+
+    /**
+     * Write a region of the board, each row starting with a newline followed by
+     * one hex digit 0-F per tile.  Nothing is allocated per tile, and a Writer
+     * is handed one row at a time.
+     *
+     * @param out where to write
+     * @param row the top row of the region
+     * @param col the left column of the region
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @rit.pre the region lies within the board
+     * @throws IOException if out cannot be written to
+     */
+    public void render(Appendable out, int row, int col, int rows, int cols) throws IOException {
+        if (out instanceof Writer) {
+            Writer writer = (Writer) out;
+            char[] line = new char[cols + 1];
+            line[0] = '\n';
+            for (int r=row; r<row + rows; ++r) {
+                int start = r * DIM + col;
+                for (int c=0; c<cols; ++c) {
+                    line[c + 1] = HEX[this.colors[start + c]];
+                }
+                writer.write(line);
+            }
+            return;
+        }
+        for (int r=row; r<row + rows; ++r) {
+            int start = r * DIM + col;
+            out.append('\n');
+            for (int c=0; c<cols; ++c) {
+                out.append(HEX[this.colors[start + c]]);
+            }
+        }
+    }
+
+    /**
+     * Write a region of the board as ASCII bytes, in the same form as
+     * {@link #render(Appendable, int, int, int, int)}.
+     *
+     * @param out where to write; must have {@link #renderedLength} bytes remaining
+     * @param row the top row of the region
+     * @param col the left column of the region
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @rit.pre the region lies within the board
+     * @throws java.nio.BufferOverflowException if out is too small
+     */
+    public void render(ByteBuffer out, int row, int col, int rows, int cols) {
+        for (int r=row; r<row + rows; ++r) {
+            int start = r * DIM + col;
+            out.put((byte) '\n');
+            for (int c=0; c<cols; ++c) {
+                out.put((byte) HEX[this.colors[start + c]]);
+            }
+        }
+    }
+
     /**
      * Return a string representation of the board.  It displays the tile color as
      * a single character hex value in the range 0-F.
@@ -82,13 +245,103 @@ public class PlaceBoard implements Serializable {
      */
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder("");
-        for (int row=0; row<DIM; ++row) {
-            builder.append("\n");
-            for (int col=0; col<DIM; ++col) {
-                builder.append(this.board[row][col].getColor());
-            }
+        StringBuilder builder = new StringBuilder(renderedLength(DIM, DIM));
+        try {
+            render(builder);
+        } catch (IOException e) {
+            // a StringBuilder never throws
+            throw new UncheckedIOException(e);
         }
         return builder.toString();
     }
+
+    /**
+     * Write the board in its compact form: colors packed two to a byte, then
+     * the distinct owner names, then runs of tiles sharing an owner and time.
+     *
+     * @param out the stream
+     * @throws IOException if the stream cannot be written to
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        int tiles = DIM * DIM;
+        byte[] packed = new byte[(tiles + 1) / 2];
+        for (int i=0; i<tiles; ++i) {
+            packed[i >> 1] |= (byte) (this.colors[i] << ((i & 1) << 2));
+        }
+        out.write(packed);
+
+        Map<String, Integer> names = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        for (String owner : this.owners) {
+            if (!names.containsKey(owner)) {
+                names.put(owner, table.size());
+                table.add(owner);
+            }
+        }
+        out.writeInt(table.size());
+        for (String name : table) {
+            out.writeUTF(name);
+        }
+
+        int start = 0;
+        while (start < tiles) {
+            int end = start + 1;
+            while (end < tiles && this.times[end] == this.times[start]
+                    && this.owners[end].equals(this.owners[start])) {
+                ++end;
+            }
+            out.writeInt(end - start);
+            out.writeInt(names.get(this.owners[start]));
+            out.writeLong(this.times[start]);
+            start = end;
+        }
+    }
+
+    /**
+     * Read a board written by {@link #writeObject}.
+     *
+     * @param in the stream
+     * @throws IOException if the stream cannot be read or is damaged
+     * @throws ClassNotFoundException never, but required by serialization
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (DIM <= 0 || DIM > Math.sqrt(Integer.MAX_VALUE)) {
+            throw new InvalidObjectException("Bad board dimension " + DIM);
+        }
+        allocate();
+        int tiles = DIM * DIM;
+        byte[] packed = new byte[(tiles + 1) / 2];
+        in.readFully(packed);
+        for (int i=0; i<tiles; ++i) {
+            this.colors[i] = (byte) ((packed[i >> 1] >> ((i & 1) << 2)) & 0xF);
+        }
+
+        int names = in.readInt();
+        if (names <= 0 || names > tiles) {
+            throw new InvalidObjectException("Bad owner table size " + names);
+        }
+        String[] table = new String[names];
+        for (int i=0; i<table.length; ++i) {
+            table[i] = in.readUTF();
+        }
+
+        int start = 0;
+        while (start < tiles) {
+            int length = in.readInt();
+            int name = in.readInt();
+            long time = in.readLong();
+            if (length <= 0 || length > tiles - start) {
+                throw new InvalidObjectException("Bad tile run in board");
+            }
+            if (name < 0 || name >= table.length) {
+                throw new InvalidObjectException("Bad owner in board");
+            }
+            String owner = table[name];
+            Arrays.fill(this.owners, start, start + length, owner);
+            Arrays.fill(this.times, start, start + length, time);
+            start += length;
+        }
+    }
 }
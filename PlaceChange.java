@@ -0,0 +1,65 @@
+package place;
+
+import java.io.Serializable;
+
+/**
+ * A tile change after it has been sequenced by a primary server.  Every change
+ * the primary accepts is given the next sequence number, so a replica can
+ * apply them in the same order and tell how far behind the primary it is.
+ */
+public class PlaceChange implements Serializable {
+    /** the position of this change in the primary's change log */
+    private long sequence;
+    /** the time the primary sequenced the change, in milliseconds */
+    private long time;
+    /** the tile that was changed */
+    private PlaceTile tile;
+
+    /**
+     * Create a sequenced change.
+     *
+     * @param sequence the sequence number
+     * @param time the time the primary sequenced the change
+     * @param tile the changed tile
+     */
+    public PlaceChange(long sequence, long time, PlaceTile tile) {
+        this.sequence = sequence;
+        this.time = time;
+        this.tile = tile;
+    }
+
+    /**
+     * Get the sequence number of the change.
+     *
+     * @return the sequence number
+     */
+    public long getSequence() { return this.sequence; }
+
+    /**
+     * Get the time the primary sequenced the change.
+     *
+     * @return the time in milliseconds
+     */
+    public long getTime() { return this.time; }
+
+    /**
+     * Get the changed tile.
+     *
+     * @return the tile
+     */
+    public PlaceTile getTile() { return this.tile; }
+
+    /**
+     * Utility method for debugging only.
+     *
+     * @return the change as a string
+     */
+    @Override
+    public String toString() {
+        return "Change{" +
+                "sequence=" + this.sequence +
+                ", time=" + this.time +
+                ", tile=" + this.tile +
+                '}';
+    }
+}
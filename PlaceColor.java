@@ -39,6 +39,10 @@ public enum PlaceColor implements Serializable {
     private int blue;
     /** The color number, 0-15 */
     private int number;
+    /** The color number as a single hex digit, 0-F */
+    private char hex;
+    /** The hex digit as a string, so toString does not allocate */
+    private String hexString;
 
     /**
      * Create a new color.
@@ -55,6 +59,8 @@ public enum PlaceColor implements Serializable {
         this.green = green;
         this.blue = blue;
         this.number = number;
+        this.hex = "0123456789ABCDEF".charAt(number);
+        this.hexString = String.valueOf(this.hex);
     }
 
     /**
@@ -94,6 +100,13 @@ public enum PlaceColor implements Serializable {
      */
     public int getNumber() { return this.number; }
 
+    /**
+     * The color number as a single hex digit, 0-F.
+     *
+     * @return the hex digit
+     */
+    public char getHex() { return this.hex; }
+
     /**
      * Returns the hex string for the color number, 0-F.
      *
@@ -101,6 +114,6 @@ public enum PlaceColor implements Serializable {
      */
     @Override
     public String toString() {
-        return Integer.toHexString(this.number).toUpperCase();
+        return this.hexString;
     }
 }
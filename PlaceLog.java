@@ -0,0 +1,598 @@
+package place;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The log the server and clients write their diagnostics to.  Logging a line
+ * only fills a slot in a ring buffer made up front; one daemon thread formats
+ * and prints the lines, so a thread holding a lock or serving a tile change
+ * never waits for the console.  A line is a level, the logger's name, a fixed
+ * message and up to three key=value fields, for example
+ * <pre>
+ * 2017-10-19 02:43:30.445 WARN  NetworkServer dropping user user=bob error="java.io.IOException: Broken pipe"
+ * </pre>
+ * Because the message is fixed and the details are in fields, repeats of one
+ * warning or error are easy to spot: after {@link #REPEAT_LIMIT} in a second
+ * the rest are only counted, and the next one logged says how many were left
+ * out.  If the buffer is full a line is dropped rather than waited for, and
+ * the drops are logged once there is room.
+ *
+ * The least level logged is set with -Dplace.logLevel, INFO by default, and
+ * the number of lines the buffer holds with -Dplace.logBuffer.
+ */
+public final class PlaceLog {
+    /**
+     * How much a line matters.
+     */
+    public enum Level {
+        /** detail only wanted while debugging */
+        DEBUG,
+        /** what the program is doing */
+        INFO,
+        /** something went wrong and was dealt with */
+        WARN,
+        /** something went wrong that stops part of the program */
+        ERROR
+    }
+
+    /** the least level logged (-Dplace.logLevel) */
+    private static final Level THRESHOLD = threshold(System.getProperty("place.logLevel", "INFO"));
+    /** lines the buffer holds, a power of two (-Dplace.logBuffer) */
+    private static final int CAPACITY =
+            Integer.highestOneBit(Math.max(64, Integer.getInteger("place.logBuffer", 8192)));
+    /** warnings or errors with the same message logged in a second before the rest are only counted */
+    private static final int REPEAT_LIMIT = 10;
+    /** milliseconds over which repeats are counted */
+    private static final long REPEAT_WINDOW = 1000;
+
+    /** the buffer; the line claimed as number n goes in slot n modulo the capacity */
+    private static final Slot[] SLOTS = new Slot[CAPACITY];
+    /** the number of the next line to claim */
+    private static final AtomicLong TAIL = new AtomicLong();
+    /** the number of the next line to print; only the writer moves it */
+    private static volatile long head;
+    /** lines dropped because the buffer was full */
+    private static final AtomicLong DROPPED = new AtomicLong();
+    /** held while printing, so the writer thread and {@link #flush} take turns */
+    private static final Object PRINTING = new Object();
+    /** reused to build each line; guarded by PRINTING */
+    private static final StringBuilder LINE = new StringBuilder(256);
+    /** formats the time of each line; guarded by PRINTING */
+    private static final SimpleDateFormat TIME = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.ROOT);
+    /** where INFO and DEBUG lines go */
+    private static final PrintStream OUT = System.out;
+    /** where WARN and ERROR lines go */
+    private static final PrintStream ERR = System.err;
+    /** drops already reported; guarded by PRINTING */
+    private static long reportedDrops;
+    /** the thread printing the buffer */
+    private static final Thread WRITER = new Thread(PlaceLog::write, "place-log");
+    /** set while the writer has found the buffer empty and is parked, or about to park */
+    private static volatile boolean waiting;
+
+    static {
+        for (int i = 0; i < CAPACITY; ++i) {
+            SLOTS[i] = new Slot();
+        }
+        WRITER.setDaemon(true);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(PlaceLog::flush));
+    }
+
+    /**
+     * One line waiting to be printed.  The fields are filled in by the thread
+     * that claimed the slot, then published by setting the sequence.
+     */
+    private static final class Slot {
+        /** the number of the line in this slot once it is ready to print */
+        volatile long sequence = -1;
+        /** when it was logged, in milliseconds */
+        long time;
+        /** its level */
+        Level level;
+        /** the logger's name */
+        String logger;
+        /** the fixed message */
+        String message;
+        /** the first field's key, or null */
+        String key1;
+        /** the first field's value */
+        Object value1;
+        /** the second field's key, or null */
+        String key2;
+        /** the second field's value */
+        Object value2;
+        /** the third field's key, or null */
+        String key3;
+        /** the third field's value */
+        Object value3;
+        /** repeats of this message left out before it */
+        long suppressed;
+    }
+
+    /**
+     * Counts one warning or error message in the current second.
+     */
+    private static final class Repeats {
+        /** when the current second started, in milliseconds */
+        private long windowStart;
+        /** lines with the message in the current second */
+        private int count;
+        /** lines left out since the last one logged */
+        private long suppressed;
+
+        /**
+         * Decide whether a line with the message is logged.
+         *
+         * @param now the time, in milliseconds
+         * @return how many were left out before it, or -1 to leave it out
+         */
+        synchronized long admit(long now) {
+            if (now - this.windowStart >= REPEAT_WINDOW) {
+                this.windowStart = now;
+                this.count = 0;
+            }
+            if (++this.count > REPEAT_LIMIT) {
+                ++this.suppressed;
+                return -1;
+            }
+            long left = this.suppressed;
+            this.suppressed = 0;
+            return left;
+        }
+    }
+
+    /** the name printed on this logger's lines */
+    private final String name;
+    /** repeats of each warning and error message */
+    private final ConcurrentHashMap<String, Repeats> repeats = new ConcurrentHashMap<>();
+
+    /**
+     * Create a logger.
+     *
+     * @param name the name printed on its lines
+     */
+    private PlaceLog(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get a logger named after a class.
+     *
+     * @param source the class logging
+     * @return the logger
+     */
+    public static PlaceLog get(Class<?> source) {
+        return new PlaceLog(source.getSimpleName());
+    }
+
+    /**
+     * Print every line logged so far before returning.  Shutdown hooks that
+     * log should call this last, since the writer may not get another turn.
+     */
+    public static void flush() {
+        print();
+    }
+
+    /**
+     * Tell whether lines of a level are logged, to skip building fields that
+     * would be thrown away.
+     *
+     * @param level the level
+     * @return true if it is logged
+     */
+    public boolean isEnabled(Level level) {
+        return level.compareTo(THRESHOLD) >= 0;
+    }
+
+    /**
+     * Log a debugging message.
+     *
+     * @param message the fixed message
+     */
+    public void debug(String message) {
+        log(Level.DEBUG, message, null, null, null, null, null, null);
+    }
+
+    /**
+     * Log a debugging message with a field.
+     *
+     * @param message the fixed message
+     * @param key the field's key
+     * @param value the field's value
+     */
+    public void debug(String message, String key, Object value) {
+        log(Level.DEBUG, message, key, value, null, null, null, null);
+    }
+
+    /**
+     * Log a debugging message with two fields.
+     *
+     * @param message the fixed message
+     * @param key1 the first field's key
+     * @param value1 the first field's value
+     * @param key2 the second field's key
+     * @param value2 the second field's value
+     */
+    public void debug(String message, String key1, Object value1, String key2, Object value2) {
+        log(Level.DEBUG, message, key1, value1, key2, value2, null, null);
+    }
+
+    /**
+     * Log a debugging message with three fields.
+     *
+     * @param message the fixed message
+     * @param key1 the first field's key
+     * @param value1 the first field's value
+     * @param key2 the second field's key
+     * @param value2 the second field's value
+     * @param key3 the third field's key
+     * @param value3 the third field's value
+     */
+    public void debug(String message, String key1, Object value1, String key2, Object value2, String key3,
+                      Object value3) {
+        log(Level.DEBUG, message, key1, value1, key2, value2, key3, value3);
+    }
+
+    /**
+     * Log what the program is doing.
+     *
+     * @param message the fixed message
+     */
+    public void info(String message) {
+        log(Level.INFO, message, null, null, null, null, null, null);
+    }
+
+    /**
+     * Log what the program is doing, with a field.
+     *
+     * @param message the fixed message
+     * @param key the field's key
+     * @param value the field's value
+     */
+    public void info(String message, String key, Object value) {
+        log(Level.INFO, message, key, value, null, null, null, null);
+    }
+
+    /**
+     * Log what the program is doing, with two fields.
+     *
+     * @param message the fixed message
+     * @param key1 the first field's key
+     * @param value1 the first field's value
+     * @param key2 the second field's key
+     * @param value2 the second field's value
+     */
+    public void info(String message, String key1, Object value1, String key2, Object value2) {
+        log(Level.INFO, message, key1, value1, key2, value2, null, null);
+    }
+
+    /**
+     * Log what the program is doing, with three fields.
+     *
+     * @param message the fixed message
+     * @param key1 the first field's key
+     * @param value1 the first field's value
+     * @param key2 the second field's key
+     * @param value2 the second field's value
+     * @param key3 the third field's key
+     * @param value3 the third field's value
+     */
+    public void info(String message, String key1, Object value1, String key2, Object value2, String key3,
+                     Object value3) {
+        log(Level.INFO, message, key1, value1, key2, value2, key3, value3);
+    }
+
+    /**
+     * Log something that went wrong and was dealt with.
+     *
+     * @param message the fixed message
+     */
+    public void warn(String message) {
+        log(Level.WARN, message, null, null, null, null, null, null);
+    }
+
+    /**
+     * Log something that went wrong and was dealt with, with a field.
+     *
+     * @param message the fixed message
+     * @param key the field's key
+     * @param value the field's value
+     */
+    public void warn(String message, String key, Object value) {
+        log(Level.WARN, message, key, value, null, null, null, null);
+    }
+
+    /**
+     * Log something that went wrong and was dealt with, with two fields.
+     *
+     * @param message the fixed message
+     * @param key1 the first field's key
+     * @param value1 the first field's value
+     * @param key2 the second field's key
+     * @param value2 the second field's value
+     */
+    public void warn(String message, String key1, Object value1, String key2, Object value2) {
+        log(Level.WARN, message, key1, value1, key2, value2, null, null);
+    }
+
+    /**
+     * Log something that went wrong and was dealt with, with three fields.
+     *
+     * @param message the fixed message
+     * @param key1 the first field's key
+     * @param value1 the first field's value
+     * @param key2 the second field's key
+     * @param value2 the second field's value
+     * @param key3 the third field's key
+     * @param value3 the third field's value
+     */
+    public void warn(String message, String key1, Object value1, String key2, Object value2, String key3,
+                     Object value3) {
+        log(Level.WARN, message, key1, value1, key2, value2, key3, value3);
+    }
+
+    /**
+     * Log something that went wrong and stops part of the program.  A
+     * Throwable in a field has its stack trace printed.
+     *
+     * @param message the fixed message
+     */
+    public void error(String message) {
+        log(Level.ERROR, message, null, null, null, null, null, null);
+    }
+
+    /**
+     * Log something that went wrong and stops part of the program, with a
+     * field.
+     *
+     * @param message the fixed message
+     * @param key the field's key
+     * @param value the field's value
+     */
+    public void error(String message, String key, Object value) {
+        log(Level.ERROR, message, key, value, null, null, null, null);
+    }
+
+    /**
+     * Log something that went wrong and stops part of the program, with two
+     * fields.
+     *
+     * @param message the fixed message
+     * @param key1 the first field's key
+     * @param value1 the first field's value
+     * @param key2 the second field's key
+     * @param value2 the second field's value
+     */
+    public void error(String message, String key1, Object value1, String key2, Object value2) {
+        log(Level.ERROR, message, key1, value1, key2, value2, null, null);
+    }
+
+    /**
+     * Log something that went wrong and stops part of the program, with three
+     * fields.
+     *
+     * @param message the fixed message
+     * @param key1 the first field's key
+     * @param value1 the first field's value
+     * @param key2 the second field's key
+     * @param value2 the second field's value
+     * @param key3 the third field's key
+     * @param value3 the third field's value
+     */
+    public void error(String message, String key1, Object value1, String key2, Object value2, String key3,
+                      Object value3) {
+        log(Level.ERROR, message, key1, value1, key2, value2, key3, value3);
+    }
+
+    /**
+     * Put a line in the buffer, unless its level is not logged, it is a
+     * repeat over the limit, or the buffer is full.
+     *
+     * @param level the level
+     * @param message the fixed message
+     * @param key1 the first field's key, or null
+     * @param value1 the first field's value
+     * @param key2 the second field's key, or null
+     * @param value2 the second field's value
+     * @param key3 the third field's key, or null
+     * @param value3 the third field's value
+     */
+    private void log(Level level, String message, String key1, Object value1, String key2, Object value2,
+                     String key3, Object value3) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long suppressed = 0;
+        if (level.compareTo(Level.WARN) >= 0) {
+            suppressed = this.repeats.computeIfAbsent(message, m -> new Repeats()).admit(now);
+            if (suppressed < 0) {
+                return;
+            }
+        }
+        long claim;
+        do {
+            claim = TAIL.get();
+            if (claim - head >= CAPACITY) {
+                DROPPED.incrementAndGet();
+                wake();
+                return;
+            }
+        } while (!TAIL.compareAndSet(claim, claim + 1));
+
+        Slot slot = SLOTS[(int) claim & (CAPACITY - 1)];
+        slot.time = now;
+        slot.level = level;
+        slot.logger = this.name;
+        slot.message = message;
+        slot.key1 = key1;
+        slot.value1 = value1;
+        slot.key2 = key2;
+        slot.value2 = value2;
+        slot.key3 = key3;
+        slot.value3 = value3;
+        slot.suppressed = suppressed;
+        slot.sequence = claim;
+        wake();
+    }
+
+    /**
+     * Unpark the writer if it is waiting for lines, so a busy writer is not
+     * unparked for every line.
+     */
+    private static void wake() {
+        if (waiting) {
+            LockSupport.unpark(WRITER);
+        }
+    }
+
+    /**
+     * The writer thread: print whatever is in the buffer, then park until a
+     * line is logged or dropped.  The writer says it is waiting before it
+     * looks at the buffer a last time, and a logger publishes its line or
+     * drop before it looks whether the writer is waiting, so one of them
+     * always sees the other.
+     */
+    private static void write() {
+        while (true) {
+            print();
+            waiting = true;
+            if (idle()) {
+                LockSupport.park();
+            }
+            waiting = false;
+        }
+    }
+
+    /**
+     * Tell whether the writer has nothing to do: the next line is not yet
+     * filled in and there are no drops to report.
+     *
+     * @return true if there is nothing to print
+     */
+    private static boolean idle() {
+        synchronized (PRINTING) {
+            long next = head;
+            return SLOTS[(int) next & (CAPACITY - 1)].sequence != next && DROPPED.get() == reportedDrops;
+        }
+    }
+
+    /**
+     * Print the lines in the buffer in order, stopping at the first one not
+     * yet filled in, then report any drops.
+     */
+    private static void print() {
+        synchronized (PRINTING) {
+            boolean printed = false;
+            long next = head;
+            Slot slot;
+            while ((slot = SLOTS[(int) next & (CAPACITY - 1)]).sequence == next) {
+                print(slot);
+                // let go of the values so the buffer does not keep them alive
+                slot.value1 = slot.value2 = slot.value3 = null;
+                head = ++next;
+                printed = true;
+            }
+            long dropped = DROPPED.get();
+            if (dropped != reportedDrops) {
+                Slot report = new Slot();
+                report.time = System.currentTimeMillis();
+                report.level = Level.WARN;
+                report.logger = "PlaceLog";
+                report.message = "log buffer full";
+                report.key1 = "dropped";
+                report.value1 = dropped - reportedDrops;
+                print(report);
+                reportedDrops = dropped;
+                printed = true;
+            }
+            if (printed) {
+                OUT.flush();
+                ERR.flush();
+            }
+        }
+    }
+
+    /**
+     * Format and print one line.  The caller must hold PRINTING.
+     *
+     * @param slot the line
+     */
+    private static void print(Slot slot) {
+        LINE.setLength(0);
+        LINE.append(TIME.format(new Date(slot.time))).append(' ').append(slot.level);
+        for (int pad = slot.level.name().length(); pad < 5; ++pad) {
+            LINE.append(' ');
+        }
+        LINE.append(' ').append(slot.logger).append(' ').append(slot.message);
+        appendField(slot.key1, slot.value1);
+        appendField(slot.key2, slot.value2);
+        appendField(slot.key3, slot.value3);
+        if (slot.suppressed > 0) {
+            appendField("suppressed", slot.suppressed);
+        }
+        PrintStream stream = slot.level.compareTo(Level.WARN) >= 0 ? ERR : OUT;
+        stream.println(LINE);
+        if (slot.level == Level.ERROR) {
+            for (Object value : new Object[]{slot.value1, slot.value2, slot.value3}) {
+                if (value instanceof Throwable) {
+                    ((Throwable) value).printStackTrace(stream);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a key=value field to the line, quoting the value if it has spaces,
+     * quotes or equals signs.  The caller must hold PRINTING.
+     *
+     * @param key the key, or null for no field
+     * @param value the value
+     */
+    private static void appendField(String key, Object value) {
+        if (key == null) {
+            return;
+        }
+        String text = String.valueOf(value);
+        LINE.append(' ').append(key).append('=');
+        boolean quote = text.isEmpty();
+        for (int i = 0; i < text.length() && !quote; ++i) {
+            char c = text.charAt(i);
+            quote = c <= ' ' || c == '"' || c == '=';
+        }
+        if (!quote) {
+            LINE.append(text);
+            return;
+        }
+        LINE.append('"');
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                LINE.append('\\');
+            }
+            LINE.append(c == '\n' ? ' ' : c);
+        }
+        LINE.append('"');
+    }
+
+    /**
+     * Read the least level to log, falling back to INFO if it is not a level.
+     *
+     * @param property the level's name
+     * @return the level
+     */
+    private static Level threshold(String property) {
+        try {
+            return Level.valueOf(property.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+}
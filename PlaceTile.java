@@ -25,6 +25,12 @@ public class PlaceTile implements Serializable {
      */
     private long time;
 
+    /**
+     * the id the sending client gave its CHANGE_TILE, carried back in the
+     * TILE_CHANGED so the client can find its own change; 0 if none
+     */
+    private long id;
+
     /**
      * Create a tile (with no timestamp).
      *
@@ -96,6 +102,20 @@ public class PlaceTile implements Serializable {
      */
     public void setTime(long time) { this.time = time; }
 
+    /**
+     * Get the id the sending client gave this tile change.
+     *
+     * @return the id, or 0 if none
+     */
+    public long getId() { return this.id; }
+
+    /**
+     * Set the id the server will echo back with this tile change.
+     *
+     * @param id the id
+     */
+    public void setId(long id) { this.id = id; }
+
     public String getOwner() {
         return this.user;
     }
@@ -0,0 +1,64 @@
+package place.bench;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the benchmarks with the settings kept in this file, so results from different changes can be compared with
+ * each other.  The board sizes and request types measured are the {@code @Param} values in each benchmark.
+ *
+ * Usage: java place.bench.BenchmarkSettings [regex [result.json]]
+ */
+public class BenchmarkSettings {
+    /**
+     * The seed every benchmark draws its tiles from.
+     */
+    public static final long SEED = 42;
+    /**
+     * Separate JVMs each benchmark is run in.
+     */
+    private static final int FORKS = 2;
+    /**
+     * Warmup iterations before measuring.
+     */
+    private static final int WARMUP_ITERATIONS = 5;
+    /**
+     * Measured iterations.
+     */
+    private static final int MEASUREMENT_ITERATIONS = 10;
+    /**
+     * How long each iteration runs, in seconds.
+     */
+    private static final int ITERATION_SECONDS = 1;
+
+    /**
+     * Run the benchmarks matching a pattern, all of them by default, and write the results as JSON.
+     *
+     * @param args an optional benchmark pattern and an optional result file
+     * @throws RunnerException if JMH fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "place\\.bench\\..*";
+        String result = args.length > 1 ? args[1] : "bench-result.json";
+        Options options = new OptionsBuilder()
+                .include(include)
+                .forks(FORKS)
+                .warmupIterations(WARMUP_ITERATIONS)
+                .warmupTime(TimeValue.seconds(ITERATION_SECONDS))
+                .measurementIterations(MEASUREMENT_ITERATIONS)
+                .measurementTime(TimeValue.seconds(ITERATION_SECONDS))
+                .timeUnit(TimeUnit.NANOSECONDS)
+                .mode(Mode.AverageTime)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .build();
+        new Runner(options).run();
+    }
+}
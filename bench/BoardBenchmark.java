@@ -0,0 +1,106 @@
+package place.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+
+import java.util.Random;
+
+/**
+ * Measures the board operations every tile change goes through: storing a tile, reading one back, checking one is on
+ * the board, and rendering the whole board as text.  Tiles are drawn from a fixed seed so every run touches the same
+ * cells.
+ */
+@State(Scope.Thread)
+public class BoardBenchmark {
+    /**
+     * How many distinct tiles are cycled through, a power of two.
+     */
+    private static final int TILES = 1024;
+
+    /**
+     * The dimension of the board.
+     */
+    @Param({"64", "512", "4096"})
+    public int dim;
+
+    /**
+     * The board under test.
+     */
+    private PlaceBoard board;
+    /**
+     * Tiles to store, all on the board.
+     */
+    private PlaceTile[] tiles;
+    /**
+     * Tiles to check, half of them off the board.
+     */
+    private PlaceTile[] probes;
+    /**
+     * Which tile the next call uses.
+     */
+    private int next;
+
+    /**
+     * Make the board and the tiles, the same ones on every run.
+     */
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkSettings.SEED);
+        PlaceColor[] colors = PlaceColor.values();
+        this.board = new PlaceBoard(this.dim);
+        this.tiles = new PlaceTile[TILES];
+        this.probes = new PlaceTile[TILES];
+        for (int i = 0; i < TILES; ++i) {
+            this.tiles[i] = new PlaceTile(random.nextInt(this.dim), random.nextInt(this.dim), "user" + (i % 32),
+                    colors[random.nextInt(colors.length)], i);
+            this.board.setTile(this.tiles[i]);
+            this.probes[i] = new PlaceTile(random.nextInt(this.dim * 2) - this.dim / 2,
+                    random.nextInt(this.dim * 2) - this.dim / 2, "probe", PlaceColor.BLACK);
+        }
+    }
+
+    /**
+     * Store a tile.
+     */
+    @Benchmark
+    public void setTile() {
+        this.board.setTile(this.tiles[this.next++ & (TILES - 1)]);
+    }
+
+    /**
+     * Read a tile back as a PlaceTile.
+     *
+     * @return the tile, so it is not optimized away
+     */
+    @Benchmark
+    public PlaceTile getTile() {
+        PlaceTile tile = this.tiles[this.next++ & (TILES - 1)];
+        return this.board.getTile(tile.getRow(), tile.getCol());
+    }
+
+    /**
+     * Check whether a tile is on the board.
+     *
+     * @return the answer, so it is not optimized away
+     */
+    @Benchmark
+    public boolean isValid() {
+        return this.board.isValid(this.probes[this.next++ & (TILES - 1)]);
+    }
+
+    /**
+     * Render the whole board as text.
+     *
+     * @return the text, so it is not optimized away
+     */
+    @Benchmark
+    public String render() {
+        return this.board.toString();
+    }
+}
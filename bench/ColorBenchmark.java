@@ -0,0 +1,34 @@
+package place.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import place.PlaceColor;
+import place.client.network.NetworkClient;
+
+/**
+ * Measures turning the hex digit a user types into a PlaceColor, cycling through all sixteen digits so no single
+ * branch of the lookup is favored.
+ */
+@State(Scope.Thread)
+public class ColorBenchmark {
+    /**
+     * The digits a user can type, one per color.
+     */
+    private static final String[] DIGITS = NetworkClient.color.split("");
+
+    /**
+     * Which digit the next call looks up.
+     */
+    private int next;
+
+    /**
+     * Look up a color.
+     *
+     * @return the color, so it is not optimized away
+     */
+    @Benchmark
+    public PlaceColor whatColor() {
+        return NetworkClient.whatColor(DIGITS[this.next++ & (PlaceColor.TOTAL_COLORS - 1)]);
+    }
+}
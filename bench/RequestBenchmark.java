@@ -0,0 +1,161 @@
+package place.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import place.PlaceBoard;
+import place.PlaceChange;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.LatencyReport;
+import place.network.PlaceRequest;
+import place.network.PlaceRequest.RequestType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Measures writing a PlaceRequest of each type and reading it back, with the kind of payload the server and clients
+ * really send.  Each operation uses a fresh object stream, so the cost includes the class descriptors a new
+ * connection pays for.
+ */
+@State(Scope.Thread)
+public class RequestBenchmark {
+    /**
+     * The dimension of the board sent in BOARD requests.
+     */
+    private static final int BOARD_DIM = 256;
+
+    /**
+     * The type of request.
+     */
+    @Param({"BOARD", "CHANGE_TILE", "ERROR", "LOGIN", "LOGIN_SUCCESS", "TILE_CHANGED", "REPLICATE",
+            "REPLICA_CHANGE", "PING", "PONG", "COOLDOWN", "LATENCY"})
+    public String type;
+
+    /**
+     * The request under test.
+     */
+    private PlaceRequest<?> request;
+    /**
+     * The request already written, for reading back.
+     */
+    private byte[] written;
+    /**
+     * Reused buffer the request is written into.
+     */
+    private ByteArrayOutputStream buffer;
+
+    /**
+     * Build the request and write it once.
+     *
+     * @throws IOException never, writing to memory
+     */
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(BenchmarkSettings.SEED);
+        RequestType requestType = RequestType.valueOf(this.type);
+        PlaceTile tile = new PlaceTile(12, 34, "benchmark", PlaceColor.TEAL, 1_500_000_000_000L);
+        this.request = new PlaceRequest<>(requestType, payload(requestType, tile, random));
+        this.buffer = new ByteArrayOutputStream();
+        this.written = write();
+    }
+
+    /**
+     * Make a payload like the one really sent with a type of request.
+     *
+     * @param type the type of request
+     * @param tile a tile for the types that carry one
+     * @param random where a busy board's tiles come from
+     * @return the payload
+     */
+    private static Serializable payload(RequestType type, PlaceTile tile, Random random) {
+        switch (type) {
+            case BOARD:
+                PlaceBoard board = new PlaceBoard(BOARD_DIM);
+                PlaceColor[] colors = PlaceColor.values();
+                for (int i = 0; i < BOARD_DIM * BOARD_DIM / 4; ++i) {
+                    board.setTile(new PlaceTile(random.nextInt(BOARD_DIM), random.nextInt(BOARD_DIM),
+                            "user" + random.nextInt(64), colors[random.nextInt(colors.length)], i));
+                }
+                return board;
+            case CHANGE_TILE:
+            case TILE_CHANGED:
+                return tile;
+            case ERROR:
+                return "Tile is off the board";
+            case LOGIN:
+            case LOGIN_SUCCESS:
+                return "benchmark";
+            case REPLICATE:
+                return 123_456L;
+            case REPLICA_CHANGE:
+                return new PlaceChange(123_456L, tile.getTime(), tile);
+            case PING:
+            case PONG:
+                return System.nanoTime();
+            case COOLDOWN:
+                return 500;
+            case LATENCY:
+                return new LatencyReport(120, 4_000_000L, 25_000_000L, 60_000_000L);
+            default:
+                throw new IllegalArgumentException(type.toString());
+        }
+    }
+
+    /**
+     * Write the request on a fresh object stream.
+     *
+     * @return the bytes written
+     * @throws IOException never, writing to memory
+     */
+    private byte[] write() throws IOException {
+        this.buffer.reset();
+        ObjectOutputStream out = new ObjectOutputStream(this.buffer);
+        out.writeUnshared(this.request);
+        out.flush();
+        return this.buffer.toByteArray();
+    }
+
+    /**
+     * Write the request.
+     *
+     * @return the bytes, so they are not optimized away
+     * @throws IOException never, writing to memory
+     */
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return write();
+    }
+
+    /**
+     * Read the request back.
+     *
+     * @return the request, so it is not optimized away
+     * @throws IOException never, reading from memory
+     * @throws ClassNotFoundException never, the classes are all present
+     */
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(this.written)).readUnshared();
+    }
+
+    /**
+     * Write the request and read it back.
+     *
+     * @return the request, so it is not optimized away
+     * @throws IOException never, working in memory
+     * @throws ClassNotFoundException never, the classes are all present
+     */
+    @Benchmark
+    public Object roundTrip() throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(write())).readUnshared();
+    }
+}
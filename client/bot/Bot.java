@@ -0,0 +1,349 @@
+package place.client.bot;
+
+import place.PlaceException;
+import place.PlaceTile;
+import place.client.network.NetworkClient;
+import place.network.LatencyHistogram;
+import place.network.PlaceExchange;
+import place.network.PlaceRequest;
+import place.network.PlaceRequest.RequestType;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A headless client that logs in with the same handshake as {@link NetworkClient} and places tiles as often as the
+ * server's cooldown allows.  It keeps no board: it only watches the broadcast for its own tiles, to time how long each
+ * took to come back as TILE_CHANGED.
+ */
+public class Bot {
+    /**
+     * A tile that has been sent but not yet seen in the broadcast.
+     */
+    private static class Sent {
+        /**
+         * The tile.
+         */
+        final PlaceTile tile;
+        /**
+         * When it was sent, from System.nanoTime.
+         */
+        final long nanos;
+
+        /**
+         * Remember a sent tile.
+         *
+         * @param tile the tile
+         * @param nanos when it was sent
+         */
+        Sent(PlaceTile tile, long nanos) {
+            this.tile = tile;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Numbers totalled across every bot.
+     */
+    public static class Totals {
+        /**
+         * Time from connecting to having the board.
+         */
+        public final LatencyHistogram login = new LatencyHistogram();
+        /**
+         * Time from sending a tile to seeing it broadcast.
+         */
+        public final LatencyHistogram placement = new LatencyHistogram();
+        /**
+         * Tiles sent.
+         */
+        public final LongAdder sent = new LongAdder();
+        /**
+         * Tiles seen in the broadcast.
+         */
+        public final LongAdder accepted = new LongAdder();
+        /**
+         * Tiles passed over in the broadcast by a later tile of the same bot, so never accepted.
+         */
+        public final LongAdder lost = new LongAdder();
+        /**
+         * Bots that could not log in.
+         */
+        public final LongAdder failedLogins = new LongAdder();
+        /**
+         * Bots whose connection broke after logging in.
+         */
+        public final LongAdder disconnects = new LongAdder();
+    }
+
+    /**
+     * The bot's number, from 0.
+     */
+    private int number;
+    /**
+     * The bot's username.
+     */
+    private String username;
+    /**
+     * Where the bot places tiles.
+     */
+    private PlacementPattern pattern;
+    /**
+     * The bot's own random numbers.
+     */
+    private Random random;
+    /**
+     * Where the numbers go.
+     */
+    private Totals totals;
+    /**
+     * The connection to the server.
+     */
+    private Socket sock;
+    /**
+     * Requests to the server.
+     */
+    private ObjectOutputStream out;
+    /**
+     * Requests written since the stream to the server was last reset.
+     */
+    private int written;
+    /**
+     * Requests from the server.
+     */
+    private ObjectInputStream in;
+    /**
+     * The dimension of the board.
+     */
+    private int dim;
+    /**
+     * How long the server wants between tiles, in milliseconds.
+     */
+    private volatile int cooldown = 500;
+    /**
+     * Set while the connection is good.
+     */
+    private volatile boolean connected;
+    /**
+     * How many tiles this bot has placed.
+     */
+    private long step;
+    /**
+     * The id given to the last tile sent, which the server echoes back.
+     */
+    private long lastId;
+    /**
+     * Tiles sent and not yet seen, oldest first.
+     */
+    private final ArrayDeque<Sent> pending = new ArrayDeque<>();
+
+    /**
+     * Make a bot that has not connected yet.
+     *
+     * @param number the bot's number, from 0
+     * @param username the bot's username
+     * @param pattern where the bot places tiles, or null if it is only given tiles to place
+     * @param seed the seed for the bot's random numbers
+     * @param totals where the numbers go
+     */
+    public Bot(int number, String username, PlacementPattern pattern, long seed, Totals totals) {
+        this.number = number;
+        this.username = username;
+        this.pattern = pattern;
+        this.random = new Random(seed);
+        this.totals = totals;
+    }
+
+    /**
+     * Connect and log in, timing how long it takes, then start reading the broadcast.
+     *
+     * @param host the server's host
+     * @param port the server's port
+     * @return true if the bot logged in
+     */
+    public boolean connect(String host, int port) {
+        long start = System.nanoTime();
+        try {
+            this.sock = new Socket(host, port);
+            this.out = new ObjectOutputStream(this.sock.getOutputStream());
+            this.out.flush();
+            this.in = new ObjectInputStream(this.sock.getInputStream());
+            this.dim = NetworkClient.login(this.out, this.in, this.username).DIM;
+        } catch (IOException | ClassNotFoundException | PlaceException e) {
+            this.totals.failedLogins.increment();
+            close();
+            return false;
+        }
+        this.totals.login.record(System.nanoTime() - start);
+        this.connected = true;
+        Thread reader = new Thread(this::read, this.username);
+        reader.setDaemon(true);
+        reader.start();
+        return true;
+    }
+
+    /**
+     * Tell the dimension of the board the server sent.
+     *
+     * @return the dimension, once logged in
+     */
+    public int getDIM() {
+        return this.dim;
+    }
+
+    /**
+     * Tell how long the server currently wants between tiles.
+     *
+     * @return the cooldown in milliseconds
+     */
+    public int getCooldown() {
+        return this.cooldown;
+    }
+
+    /**
+     * Tell whether the bot is still connected.
+     *
+     * @return true if the connection is good
+     */
+    public boolean isConnected() {
+        return this.connected;
+    }
+
+    /**
+     * Send the bot's next tile from its pattern.
+     *
+     * @return true if it was sent
+     */
+    public boolean place() {
+        if (!this.connected) {
+            return false;
+        }
+        return place(this.pattern.next(this.number, this.step++, this.random, this.username));
+    }
+
+    /**
+     * Send a particular tile, timing it like any other.
+     *
+     * @param tile the tile, owned by this bot
+     * @return true if it was sent
+     */
+    public boolean place(PlaceTile tile) {
+        if (!this.connected) {
+            return false;
+        }
+        synchronized (this.pending) {
+            tile.setId(++this.lastId);
+            this.pending.addLast(new Sent(tile, System.nanoTime()));
+        }
+        if (!write(new PlaceRequest<>(RequestType.CHANGE_TILE, tile))) {
+            return false;
+        }
+        this.totals.sent.increment();
+        return true;
+    }
+
+    /**
+     * Hang up.
+     */
+    public void close() {
+        this.connected = false;
+        try {
+            if (this.sock != null) {
+                this.sock.close();
+            }
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    /**
+     * Write a request to the server, dropping the connection if that fails.
+     *
+     * @param request the request
+     * @return true if it was written
+     */
+    private synchronized boolean write(PlaceRequest<?> request) {
+        try {
+            this.out.writeUnshared(request);
+            if (++this.written == PlaceExchange.RESET_INTERVAL) {
+                this.out.reset();
+                this.written = 0;
+            }
+            this.out.flush();
+            return true;
+        } catch (IOException e) {
+            disconnected();
+            return false;
+        }
+    }
+
+    /**
+     * Read the server's requests until the connection ends, timing this bot's tiles and answering heartbeats.
+     */
+    private void read() {
+        try {
+            while (this.connected) {
+                PlaceRequest<?> request = (PlaceRequest<?>) this.in.readUnshared();
+                switch (request.getType()) {
+                    case TILE_CHANGED:
+                        PlaceTile tile = (PlaceTile) request.getData();
+                        if (this.username.equals(tile.getOwner())) {
+                            accepted(tile, System.nanoTime());
+                        }
+                        break;
+                    case PING:
+                        write(new PlaceRequest<>(RequestType.PONG, (Long) request.getData()));
+                        break;
+                    case COOLDOWN:
+                        this.cooldown = (Integer) request.getData();
+                        break;
+                    case ERROR:
+                        disconnected();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            disconnected();
+        }
+    }
+
+    /**
+     * Match a broadcast tile with the pending tile it echoes, by id.  Older pending tiles were passed over and will
+     * never come back.
+     *
+     * @param tile the broadcast tile
+     * @param now when it arrived, from System.nanoTime
+     */
+    private void accepted(PlaceTile tile, long now) {
+        synchronized (this.pending) {
+            for (Sent sent : this.pending) {
+                if (sent.tile.getId() == tile.getId()) {
+                    Sent oldest;
+                    while ((oldest = this.pending.pollFirst()) != sent) {
+                        this.totals.lost.increment();
+                    }
+                    this.totals.placement.record(now - sent.nanos);
+                    this.totals.accepted.increment();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The connection broke; count it once.
+     */
+    private synchronized void disconnected() {
+        if (this.connected) {
+            this.totals.disconnects.increment();
+        }
+        close();
+    }
+}
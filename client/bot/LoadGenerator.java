@@ -0,0 +1,207 @@
+package place.client.bot;
+
+import place.PlaceException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load tests a running PlaceServer with headless bots.  The bots log in a few at a time, then each places tiles in
+ * the chosen pattern as fast as the server's cooldown allows, for a set number of seconds.  Progress is printed every
+ * few seconds and a summary at the end: login times, accepted placements per second, and how long placements took to
+ * come back as TILE_CHANGED.
+ *
+ * The seed for the bots' random numbers is the system property place.seed, 42 by default, so runs repeat.
+ *
+ * Usage: java place.client.bot.LoadGenerator host port bots seconds uniform|hotspot|lines|image [imageFile]
+ */
+public class LoadGenerator {
+    /**
+     * How many bots log in at once.
+     */
+    private static final int CONNECTORS = 16;
+    /**
+     * Threads that send every bot's tiles.
+     */
+    private static final int SENDERS = 4;
+    /**
+     * Extra wait after each cooldown, in milliseconds, so clock jitter does not make a bot early.
+     */
+    private static final int PACING_SLACK = 5;
+    /**
+     * How often progress is printed, in seconds.
+     */
+    private static final int REPORT_INTERVAL = 5;
+
+    /**
+     * The seed for the bots' random numbers.
+     */
+    private static final long SEED = Long.getLong("place.seed", 42);
+
+    /**
+     * Sends the bots' tiles.
+     */
+    private ScheduledExecutorService senders;
+    /**
+     * Numbers totalled across every bot.
+     */
+    private Bot.Totals totals = new Bot.Totals();
+    /**
+     * Set when the run is over and bots should stop placing.
+     */
+    private volatile boolean done;
+
+    /**
+     * Log the bots in, run them, and report.
+     *
+     * @param host the server's host
+     * @param port the server's port
+     * @param count how many bots
+     * @param seconds how long to place tiles for
+     * @param patternName the placement pattern
+     * @param imageFile the image for the image pattern, or null
+     * @throws PlaceException if the pattern cannot be made
+     * @throws InterruptedException if interrupted while running
+     */
+    public void run(String host, int port, int count, int seconds, String patternName, String imageFile)
+            throws PlaceException, InterruptedException {
+        // one bot logs in first to learn the board size the patterns need
+        Bot first = new Bot(0, "probe", null, SEED, this.totals);
+        if (!first.connect(host, port)) {
+            throw new PlaceException("Bot could not log in to " + host + ":" + port);
+        }
+        int dim = first.getDIM();
+        first.close();
+        this.totals = new Bot.Totals();
+        PlacementPattern pattern = pattern(patternName, dim, count, imageFile);
+
+        System.out.println("Logging in " + count + " bots to " + host + ":" + port + " (board " + dim + "x" + dim
+                + ", pattern " + patternName + ")");
+        List<Bot> bots = new ArrayList<>();
+        ExecutorService connectors = Executors.newFixedThreadPool(CONNECTORS);
+        for (int i = 0; i < count; ++i) {
+            Bot bot = new Bot(i, "bot" + i, pattern, SEED + i, this.totals);
+            bots.add(bot);
+            connectors.submit(() -> bot.connect(host, port));
+        }
+        connectors.shutdown();
+        connectors.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        System.out.println("Logged in " + (count - this.totals.failedLogins.sum()) + ", failed "
+                + this.totals.failedLogins.sum() + ", login " + this.totals.login);
+
+        this.senders = Executors.newScheduledThreadPool(SENDERS);
+        Random stagger = new Random(SEED);
+        for (Bot bot : bots) {
+            if (bot.isConnected()) {
+                this.senders.schedule(() -> place(bot), stagger.nextInt(bot.getCooldown() + 1),
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+
+        long start = System.nanoTime();
+        long lastAccepted = 0;
+        for (int elapsed = REPORT_INTERVAL; elapsed <= seconds; elapsed += REPORT_INTERVAL) {
+            Thread.sleep(REPORT_INTERVAL * 1000L);
+            long accepted = this.totals.accepted.sum();
+            System.out.printf("%4ds  accepted %.1f/s  latency %s%n", elapsed,
+                    (accepted - lastAccepted) / (double) REPORT_INTERVAL, this.totals.placement);
+            lastAccepted = accepted;
+        }
+        Thread.sleep(Math.max(0, seconds * 1000L - (System.nanoTime() - start) / 1_000_000));
+        this.done = true;
+        double ran = (System.nanoTime() - start) / 1e9;
+        // give tiles still in flight a moment to come back
+        Thread.sleep(1000);
+        this.senders.shutdownNow();
+        for (Bot bot : bots) {
+            bot.close();
+        }
+        report(ran);
+    }
+
+    /**
+     * Place a bot's next tile and schedule the one after, a cooldown later.
+     *
+     * @param bot the bot
+     */
+    private void place(Bot bot) {
+        if (this.done || !bot.place()) {
+            return;
+        }
+        this.senders.schedule(() -> place(bot), bot.getCooldown() + PACING_SLACK, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Print the summary of the run.
+     *
+     * @param seconds how long the bots placed tiles for
+     */
+    private void report(double seconds) {
+        long sent = this.totals.sent.sum();
+        long accepted = this.totals.accepted.sum();
+        System.out.println("Load test done after " + String.format("%.1f", seconds) + " s");
+        System.out.println("  login      " + this.totals.login);
+        System.out.println("  sent       " + sent + " (" + String.format("%.1f", sent / seconds) + "/s)");
+        System.out.println("  accepted   " + accepted + " (" + String.format("%.1f", accepted / seconds) + "/s), lost "
+                + this.totals.lost.sum() + ", unanswered " + Math.max(0, sent - accepted - this.totals.lost.sum()));
+        System.out.println("  latency    " + this.totals.placement);
+        System.out.println("  failed logins " + this.totals.failedLogins.sum() + ", disconnects "
+                + this.totals.disconnects.sum());
+    }
+
+    /**
+     * Make the placement pattern named on the command line.
+     *
+     * @param name the pattern's name
+     * @param dim the dimension of the board
+     * @param bots how many bots
+     * @param imageFile the image for the image pattern, or null
+     * @return the pattern
+     * @throws PlaceException if the name is unknown or the image cannot be read
+     */
+    private static PlacementPattern pattern(String name, int dim, int bots, String imageFile) throws PlaceException {
+        switch (name) {
+            case "uniform":
+                return PlacementPattern.uniform(dim);
+            case "hotspot":
+                return PlacementPattern.hotspot(dim, SEED);
+            case "lines":
+                return PlacementPattern.lines(dim);
+            case "image":
+                if (imageFile == null) {
+                    throw new PlaceException("The image pattern needs an image file");
+                }
+                return PlacementPattern.image(dim, bots, imageFile);
+            default:
+                throw new PlaceException("Unknown pattern " + name);
+        }
+    }
+
+    /**
+     * Run a load test.
+     *
+     * @param args host port bots seconds pattern [imageFile]
+     */
+    public static void main(String[] args) {
+        if (args.length != 5 && args.length != 6) {
+            System.out.println("Usage: java LoadGenerator host port bots seconds uniform|hotspot|lines|image"
+                    + " [imageFile]");
+            System.exit(1);
+        }
+        try {
+            new LoadGenerator().run(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                    Integer.parseInt(args[3]), args[4], args.length == 6 ? args[5] : null);
+        } catch (PlaceException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,145 @@
+package place.client.bot;
+
+import place.PlaceColor;
+import place.PlaceException;
+import place.PlaceTile;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Decides where each bot places its next tile.  A pattern is shared by every bot, so it keeps no state of its own;
+ * each bot passes in its number, how many tiles it has placed, and its own seeded Random.
+ */
+public interface PlacementPattern {
+    /**
+     * Pick a bot's next tile.
+     *
+     * @param bot the bot's number, from 0
+     * @param step how many tiles the bot has placed so far
+     * @param random the bot's own random numbers
+     * @param username the bot's username, the owner of the tile
+     * @return the tile to place
+     */
+    PlaceTile next(int bot, long step, Random random, String username);
+
+    /**
+     * Tiles spread evenly over the whole board, in random colors.
+     *
+     * @param dim the dimension of the board
+     * @return the pattern
+     */
+    static PlacementPattern uniform(int dim) {
+        PlaceColor[] colors = PlaceColor.values();
+        return (bot, step, random, username) -> new PlaceTile(random.nextInt(dim), random.nextInt(dim), username,
+                colors[random.nextInt(colors.length)], System.currentTimeMillis());
+    }
+
+    /**
+     * Most tiles bunched around a few busy spots, the rest spread evenly, like a crowd fighting over a corner.
+     *
+     * @param dim the dimension of the board
+     * @param seed picks where the spots are
+     * @return the pattern
+     */
+    static PlacementPattern hotspot(int dim, long seed) {
+        Random spots = new Random(seed);
+        int[] rows = new int[4];
+        int[] cols = new int[4];
+        for (int i = 0; i < rows.length; ++i) {
+            rows[i] = spots.nextInt(dim);
+            cols[i] = spots.nextInt(dim);
+        }
+        double spread = Math.max(1, dim / 32.0);
+        PlacementPattern uniform = uniform(dim);
+        PlaceColor[] colors = PlaceColor.values();
+        return (bot, step, random, username) -> {
+            if (random.nextInt(5) == 0) {
+                return uniform.next(bot, step, random, username);
+            }
+            int spot = random.nextInt(rows.length);
+            int row = clamp(rows[spot] + (int) Math.round(random.nextGaussian() * spread), dim);
+            int col = clamp(cols[spot] + (int) Math.round(random.nextGaussian() * spread), dim);
+            return new PlaceTile(row, col, username, colors[random.nextInt(colors.length)],
+                    System.currentTimeMillis());
+        };
+    }
+
+    /**
+     * Every bot draws its own straight line in its own color, even bots across and odd bots down, wrapping at the
+     * edge of the board.
+     *
+     * @param dim the dimension of the board
+     * @return the pattern
+     */
+    static PlacementPattern lines(int dim) {
+        PlaceColor[] colors = PlaceColor.values();
+        return (bot, step, random, username) -> {
+            int fixed = (int) ((bot * 7919L) % dim);
+            int moving = (int) ((bot * 31L + step) % dim);
+            int row = bot % 2 == 0 ? fixed : moving;
+            int col = bot % 2 == 0 ? moving : fixed;
+            return new PlaceTile(row, col, username, colors[bot % colors.length], System.currentTimeMillis());
+        };
+    }
+
+    /**
+     * The bots draw an image together in the top left corner, each taking every bots-th pixel and starting over
+     * when the image is done.  The image file has one line of hex digits 0-F per row, the same form as
+     * {@link place.PlaceBoard#toString()}; blank lines are skipped.
+     *
+     * @param dim the dimension of the board
+     * @param bots how many bots share the drawing
+     * @param file the image file
+     * @return the pattern
+     * @throws PlaceException if the file cannot be read or is not an image
+     */
+    static PlacementPattern image(int dim, int bots, String file) throws PlaceException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    lines.add(line.trim().toLowerCase());
+                }
+            }
+        } catch (IOException e) {
+            throw new PlaceException(e);
+        }
+        if (lines.isEmpty()) {
+            throw new PlaceException("Image " + file + " is empty");
+        }
+        int height = Math.min(dim, lines.size());
+        int width = Math.min(dim, lines.get(0).length());
+        PlaceColor[] pixels = new PlaceColor[width * height];
+        for (int row = 0; row < height; ++row) {
+            for (int col = 0; col < width; ++col) {
+                String line = lines.get(row);
+                int number = col < line.length() ? Character.digit(line.charAt(col), 16) : -1;
+                if (number < 0) {
+                    throw new PlaceException("Image " + file + " has a bad pixel at row " + row + " column " + col);
+                }
+                pixels[row * width + col] = PlaceColor.values()[number];
+            }
+        }
+        return (bot, step, random, username) -> {
+            int pixel = (int) ((step * bots + bot) % pixels.length);
+            return new PlaceTile(pixel / width, pixel % width, username, pixels[pixel], System.currentTimeMillis());
+        };
+    }
+
+    /**
+     * Keep a coordinate on the board.
+     *
+     * @param value the coordinate
+     * @param dim the dimension of the board
+     * @return the nearest coordinate on the board
+     */
+    private static int clamp(int value, int dim) {
+        return Math.max(0, Math.min(dim - 1, value));
+    }
+}
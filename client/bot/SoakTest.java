@@ -0,0 +1,340 @@
+package place.client.bot;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+import place.PlaceException;
+import place.server.PlaceServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a server and bots in one JVM for a long time, to catch what only goes wrong after hours: memory that is never
+ * freed, threads or sockets that are never closed, broadcasts that slowly get slower.  Every interval some of the bots
+ * hang up and new ones log in in their place, so leaks per connection show too.  At each interval the heap after a
+ * full collection, the number of threads, the open file descriptors and the 99th percentile broadcast time are
+ * sampled; at the end a straight line is fitted to each, and the test fails if any line rises by more than the
+ * allowed growth over the run.
+ *
+ * The first sample is taken after the server has warmed up and is left out of the trends.  Small values are judged
+ * against a floor, so a heap growing from 20 to 30 MB or broadcasts from 0.2 to 0.4 ms are not counted as leaks.
+ *
+ * Tuned with system properties: place.soakInterval (seconds between samples, 60), place.soakGrowth (percent rise
+ * allowed, 20), place.soakChurn (percent of bots replaced each interval, 10) and place.seed (42).
+ *
+ * Usage: java place.client.bot.SoakTest port minutes [bots [DIM]]; exits with 1 if a trend fails.
+ */
+public class SoakTest {
+    /**
+     * Seconds between samples.
+     */
+    private static final int INTERVAL = Integer.getInteger("place.soakInterval", 60);
+    /**
+     * How far, in percent, a fitted trend may rise over the run.
+     */
+    private static final int GROWTH = Integer.getInteger("place.soakGrowth", 20);
+    /**
+     * Percent of the bots that hang up and are replaced each interval.
+     */
+    private static final int CHURN = Integer.getInteger("place.soakChurn", 10);
+    /**
+     * The seed for the bots' random numbers.
+     */
+    private static final long SEED = Long.getLong("place.seed", 42);
+    /**
+     * Threads that send every bot's tiles.
+     */
+    private static final int SENDERS = 4;
+    /**
+     * Extra wait after each cooldown, in milliseconds, so clock jitter does not make a bot early.
+     */
+    private static final int PACING_SLACK = 5;
+
+    /**
+     * What is sampled, with the floor each is judged against.
+     */
+    private enum Measure {
+        /** heap in use after a full collection, in MB */
+        HEAP("heap MB", 32),
+        /** live threads */
+        THREADS("threads", 10),
+        /** open file descriptors, or -1 where they cannot be counted */
+        FILES("fds", 10),
+        /** 99th percentile broadcast time over the interval, in ms */
+        BROADCAST("broadcast p99 ms", 5);
+
+        /** the name printed */
+        private final String label;
+        /** the smallest value a rise is measured against */
+        private final double floor;
+
+        /**
+         * Name a measure.
+         *
+         * @param label the name printed
+         * @param floor the smallest value a rise is measured against
+         */
+        Measure(String label, double floor) {
+            this.label = label;
+            this.floor = floor;
+        }
+    }
+
+    /**
+     * The port the server listens on.
+     */
+    private int port;
+    /**
+     * Sends the bots' tiles.
+     */
+    private ScheduledExecutorService senders = Executors.newScheduledThreadPool(SENDERS);
+    /**
+     * Numbers totalled across every bot.
+     */
+    private Bot.Totals totals = new Bot.Totals();
+    /**
+     * The bots logged in now.
+     */
+    private List<Bot> bots = new ArrayList<>();
+    /**
+     * How many bots have been made, to name the next one.
+     */
+    private int made;
+    /**
+     * Chooses which bots to replace.
+     */
+    private Random random = new Random(SEED);
+    /**
+     * Where the bots place tiles.
+     */
+    private PlacementPattern pattern;
+    /**
+     * The server's metrics.
+     */
+    private ObjectName metrics;
+    /**
+     * When each sample was taken, in minutes since the first.
+     */
+    private List<Double> times = new ArrayList<>();
+    /**
+     * The samples, one list per measure.
+     */
+    private List<List<Double>> samples = new ArrayList<>();
+    /**
+     * Set when the run is over and bots should stop placing.
+     */
+    private volatile boolean done;
+
+    /**
+     * Start a server to soak.
+     *
+     * @param port the port to run it on
+     * @param dim the dimension of the board
+     * @throws JMException never, the name is well formed
+     */
+    public SoakTest(int port, int dim) throws JMException {
+        this.port = port;
+        this.pattern = PlacementPattern.uniform(dim);
+        PlaceServer server = new PlaceServer(dim, port);
+        Thread accept = new Thread(() -> {
+            try {
+                server.run();
+            } catch (PlaceException e) {
+                System.err.println(e.getMessage());
+            }
+        });
+        accept.setDaemon(true);
+        accept.start();
+        this.metrics = new ObjectName("place:type=Server,port=" + port);
+        for (int i = 0; i < Measure.values().length; ++i) {
+            this.samples.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Run the bots, sampling every interval, then judge the trends.
+     *
+     * @param minutes how long to run
+     * @param count how many bots
+     * @return true if every trend stayed within the allowed growth
+     * @throws JMException if the server's metrics cannot be read
+     * @throws InterruptedException if interrupted while running
+     */
+    public boolean run(int minutes, int count) throws JMException, InterruptedException {
+        for (int i = 0; i < count; ++i) {
+            connect();
+        }
+        System.out.println("Soaking " + this.bots.size() + " bots for " + minutes + " min, sampling every "
+                + INTERVAL + " s, replacing " + CHURN + "% each time");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MINUTES.toNanos(minutes);
+        for (int sample = 0; System.nanoTime() < end; ++sample) {
+            Thread.sleep(INTERVAL * 1000L);
+            double[] values = sample(server);
+            double minute = (System.nanoTime() - start) / 6e10;
+            System.out.printf("%6.1f min  heap %.1f MB  threads %.0f  fds %.0f  broadcast p99 %.2f ms  accepted %d"
+                            + "  bots %d%n", minute, values[0], values[1], values[2], values[3],
+                    this.totals.accepted.sum(), this.bots.size());
+            // the first interval includes logins and warm up, so it says nothing about the trend
+            if (sample > 0) {
+                this.times.add(minute);
+                for (int i = 0; i < values.length; ++i) {
+                    this.samples.get(i).add(values[i]);
+                }
+            }
+            churn();
+        }
+        this.done = true;
+        this.senders.shutdownNow();
+        for (Bot bot : this.bots) {
+            bot.close();
+        }
+        return judge();
+    }
+
+    /**
+     * Log in a new bot and start it placing tiles.
+     */
+    private void connect() {
+        int number = this.made++;
+        Bot bot = new Bot(number, "soak" + number, this.pattern, SEED + number, this.totals);
+        if (!bot.connect("localhost", this.port)) {
+            return;
+        }
+        this.bots.add(bot);
+        this.senders.schedule(() -> place(bot), this.random.nextInt(bot.getCooldown() + 1), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Place a bot's next tile and schedule the one after, a cooldown later.
+     *
+     * @param bot the bot
+     */
+    private void place(Bot bot) {
+        if (this.done || !bot.place()) {
+            return;
+        }
+        this.senders.schedule(() -> place(bot), bot.getCooldown() + PACING_SLACK, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hang up some of the bots and log in as many new ones.
+     */
+    private void churn() {
+        int replace = this.bots.size() * CHURN / 100;
+        for (int i = 0; i < replace; ++i) {
+            this.bots.remove(this.random.nextInt(this.bots.size())).close();
+        }
+        for (int i = 0; i < replace; ++i) {
+            connect();
+        }
+    }
+
+    /**
+     * Take one sample of every measure.  Reading the broadcast time starts the server's timings over, so each sample
+     * covers one interval.
+     *
+     * @param server where the server's metrics are published
+     * @return the values, in the order of {@link Measure}
+     * @throws JMException if the server's metrics cannot be read
+     */
+    private double[] sample(MBeanServer server) throws JMException {
+        System.gc();
+        double heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1048576.0;
+        double threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double files = os instanceof UnixOperatingSystemMXBean
+                ? ((UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount() : -1;
+        double broadcast = (Double) server.getAttribute(this.metrics, "BroadcastP99Millis");
+        server.invoke(this.metrics, "resetHistograms", null, null);
+        return new double[]{heap, threads, files, broadcast};
+    }
+
+    /**
+     * Fit a line to each measure and check how far it rose over the run.
+     *
+     * @return true if none rose more than the allowed growth
+     */
+    private boolean judge() {
+        if (this.times.size() < 3) {
+            System.out.println("Too few samples to judge trends; run longer or sample more often");
+            return true;
+        }
+        boolean passed = true;
+        double span = this.times.get(this.times.size() - 1) - this.times.get(0);
+        for (Measure measure : Measure.values()) {
+            List<Double> values = this.samples.get(measure.ordinal());
+            if (values.get(0) < 0) {
+                System.out.println("  " + measure.label + ": not available");
+                continue;
+            }
+            double[] line = fit(this.times, values);
+            double first = line[0] + line[1] * this.times.get(0);
+            double rise = line[1] * span;
+            double growth = 100 * rise / Math.max(first, measure.floor);
+            boolean ok = growth <= GROWTH;
+            passed &= ok;
+            System.out.printf("  %-17s %8.2f -> %8.2f  trend %+6.1f%%  %s%n", measure.label + ":", first,
+                    first + rise, growth, ok ? "ok" : "FAIL");
+        }
+        System.out.println("  placement latency " + this.totals.placement);
+        System.out.println(passed ? "Soak passed" : "Soak failed: a trend rose more than " + GROWTH + "%");
+        return passed;
+    }
+
+    /**
+     * Fit a straight line by least squares.
+     *
+     * @param xs the x values
+     * @param ys the y values
+     * @return the intercept and the slope
+     */
+    private static double[] fit(List<Double> xs, List<Double> ys) {
+        int n = xs.size();
+        double meanX = 0, meanY = 0;
+        for (int i = 0; i < n; ++i) {
+            meanX += xs.get(i) / n;
+            meanY += ys.get(i) / n;
+        }
+        double covariance = 0, variance = 0;
+        for (int i = 0; i < n; ++i) {
+            covariance += (xs.get(i) - meanX) * (ys.get(i) - meanY);
+            variance += (xs.get(i) - meanX) * (xs.get(i) - meanX);
+        }
+        double slope = variance == 0 ? 0 : covariance / variance;
+        return new double[]{meanY - slope * meanX, slope};
+    }
+
+    /**
+     * Run a soak test.
+     *
+     * @param args port minutes [bots [DIM]]
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 4) {
+            System.out.println("Usage: java SoakTest port minutes [bots [DIM]]");
+            System.exit(1);
+        }
+        boolean passed = false;
+        try {
+            int bots = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+            int dim = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+            passed = new SoakTest(Integer.parseInt(args[0]), dim).run(Integer.parseInt(args[1]), bots);
+        } catch (JMException e) {
+            System.err.println(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+}
@@ -0,0 +1,151 @@
+package place.client.bot;
+
+import place.PlaceTile;
+import place.network.LatencyHistogram;
+import place.network.PlaceTrace;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a trace recorded by a server started with -Dplace.trace against a running server.  Every user in the trace
+ * gets a bot of the same name, logged in before the replay starts, and each placement is sent when it arrived in the
+ * trace, sped up by a factor, or as fast as possible.  The summary compares the replay with the schedule and gives
+ * placement latencies, so two builds of the server can be judged on the same traffic.
+ *
+ * Usage: java place.client.bot.TraceReplayer host port traceFile speed, where speed is a factor such as 1 or 10, or
+ * max
+ */
+public class TraceReplayer {
+    /**
+     * How many bots log in at once.
+     */
+    private static final int CONNECTORS = 16;
+
+    /**
+     * Numbers totalled across every bot.
+     */
+    private Bot.Totals totals = new Bot.Totals();
+    /**
+     * How late each placement was sent compared to the sped-up trace.
+     */
+    private LatencyHistogram lateness = new LatencyHistogram();
+
+    /**
+     * Log in a bot for every user in the trace, then replay it.
+     *
+     * @param host the server's host
+     * @param port the server's port
+     * @param file the trace
+     * @param speed how many times faster than recorded to replay, or 0 for as fast as possible
+     * @throws IOException if the trace cannot be read
+     * @throws InterruptedException if interrupted while replaying
+     */
+    public void run(String host, int port, String file, double speed) throws IOException, InterruptedException {
+        Map<String, Bot> bots = new LinkedHashMap<>();
+        long placements = 0;
+        long first = -1;
+        long span = 0;
+        try (PlaceTrace.Reader trace = new PlaceTrace.Reader(file)) {
+            PlaceTrace.Entry entry;
+            while ((entry = trace.next()) != null) {
+                String user = entry.getUser();
+                if (!bots.containsKey(user)) {
+                    bots.put(user, new Bot(bots.size(), user, null, 0, this.totals));
+                }
+                ++placements;
+                if (first < 0) {
+                    first = entry.getMicros();
+                }
+                span = entry.getMicros() - first;
+            }
+        }
+        System.out.println("Trace has " + placements + " tile changes from " + bots.size() + " users over "
+                + String.format("%.1f", span / 1e6) + " s");
+
+        ExecutorService connectors = Executors.newFixedThreadPool(CONNECTORS);
+        for (Bot bot : bots.values()) {
+            connectors.submit(() -> bot.connect(host, port));
+        }
+        connectors.shutdown();
+        connectors.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        System.out.println("Logged in " + (bots.size() - this.totals.failedLogins.sum()) + " users, failed "
+                + this.totals.failedLogins.sum());
+
+        long skipped = 0;
+        long start = System.nanoTime();
+        try (PlaceTrace.Reader trace = new PlaceTrace.Reader(file)) {
+            PlaceTrace.Entry entry;
+            while ((entry = trace.next()) != null) {
+                long due = speed > 0 ? start + (long) ((entry.getMicros() - first) * 1000 / speed)
+                        : System.nanoTime();
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                Bot bot = bots.get(entry.getUser());
+                PlaceTile tile = new PlaceTile(entry.getRow(), entry.getCol(), entry.getUser(), entry.getColor(),
+                        System.currentTimeMillis());
+                if (bot.place(tile)) {
+                    this.lateness.record(System.nanoTime() - due);
+                } else {
+                    ++skipped;
+                }
+            }
+        }
+        double ran = (System.nanoTime() - start) / 1e9;
+        // give tiles still in flight a moment to come back
+        Thread.sleep(1000);
+        for (Bot bot : bots.values()) {
+            bot.close();
+        }
+        report(ran, span / 1e6, skipped);
+    }
+
+    /**
+     * Print the summary of the replay.
+     *
+     * @param seconds how long the replay took
+     * @param traced how long the trace covered
+     * @param skipped placements not sent because their user was not connected
+     */
+    private void report(double seconds, double traced, long skipped) {
+        long sent = this.totals.sent.sum();
+        long accepted = this.totals.accepted.sum();
+        System.out.println("Replay done in " + String.format("%.1f", seconds) + " s (trace covered "
+                + String.format("%.1f", traced) + " s)");
+        System.out.println("  sent       " + sent + " (" + String.format("%.1f", sent / seconds) + "/s), skipped "
+                + skipped);
+        System.out.println("  accepted   " + accepted + " (" + String.format("%.1f", accepted / seconds)
+                + "/s), unanswered " + Math.max(0, sent - accepted));
+        System.out.println("  behind     " + this.lateness);
+        System.out.println("  latency    " + this.totals.placement);
+        System.out.println("  disconnects " + this.totals.disconnects.sum());
+    }
+
+    /**
+     * Replay a trace.
+     *
+     * @param args host port traceFile speed
+     */
+    public static void main(String[] args) {
+        if (args.length != 4) {
+            System.out.println("Usage: java TraceReplayer host port traceFile speed|max");
+            System.exit(1);
+        }
+        try {
+            double speed = args[3].equals("max") ? 0 : Double.parseDouble(args[3]);
+            new TraceReplayer().run(args[0], Integer.parseInt(args[1]), args[2], speed);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.exit(0);
+    }
+}
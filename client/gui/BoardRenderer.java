@@ -0,0 +1,426 @@
+package place.client.gui;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import place.client.model.MipPyramid;
+
+import java.util.Arrays;
+
+/**
+ * Paints a zoomable, pannable view of the Place board straight into the pixels of a single Canvas, so the scene graph
+ * holds one node no matter how big the board is or how many tiles change.  Mouse positions are turned back into tiles
+ * with coordinate math.
+ *
+ * Only the part of the board inside the view is painted.  When zoomed out past one pixel per tile the view is painted
+ * from the smallest level of the MipPyramid that still has at least one pixel per cell, so painting the view costs
+ * about one step per screen pixel however big the board is.
+ */
+public class BoardRenderer
+{
+    /**
+     * The largest zoom, in screen pixels per tile
+     */
+    private static final double MAX_SCALE = 64;
+    /**
+     * How much one step of the mouse wheel zooms in or out
+     */
+    private static final double ZOOM_STEP = 1.25;
+    /**
+     * The pixel shown outside the board
+     */
+    private static final int BACKGROUND = 0xFF999999;
+
+    /**
+     * The canvas the board is painted on
+     */
+    private Canvas canvas;
+    /**
+     * Writes pixels into the canvas
+     */
+    private PixelWriter writer;
+    /**
+     * The board's colors at every level of detail
+     */
+    private MipPyramid mips;
+    /**
+     * The dimension of the board, in tiles
+     */
+    private int dim;
+    /**
+     * The zoom, in screen pixels per tile
+     */
+    private double scale;
+    /**
+     * The board column at the left edge of the view
+     */
+    private double originX;
+    /**
+     * The board row at the top edge of the view
+     */
+    private double originY;
+    /**
+     * The mip level the view is painted from
+     */
+    private int level;
+    /**
+     * Set when the view has moved or been resized and must be painted from scratch
+     */
+    private boolean viewChanged;
+    /**
+     * The pixels of the whole view, reused between full paints
+     */
+    private int[] pixels;
+    /**
+     * The cells of the current level in view, copied under the board's seqlocks, reused between full paints
+     */
+    private int[] cells;
+    /**
+     * The cell column shown in each screen column, reused between full paints
+     */
+    private int[] columnCells;
+    /**
+     * A block of pixels reused to paint a single cell
+     */
+    private int[] block;
+
+    /**
+     * Creates a renderer whose view starts out showing the whole board.
+     *
+     * @param mips the board's colors at every level of detail
+     * @param width the width of the view, in pixels
+     * @param height the height of the view, in pixels
+     */
+    public BoardRenderer(MipPyramid mips, double width, double height)
+    {
+        this.mips = mips;
+        this.dim = mips.getSize(0);
+        this.canvas = new Canvas(width, height);
+        this.writer = this.canvas.getGraphicsContext2D().getPixelWriter();
+        this.block = new int[0];
+        this.scale = Math.min(width, height) / this.dim;
+        this.originX = 0;
+        this.originY = 0;
+        this.level = levelFor(this.scale);
+        this.viewChanged = true;
+    }
+
+    /**
+     * Gets the canvas the board is painted on.
+     *
+     * @return the canvas
+     */
+    public Canvas getCanvas()
+    {
+        return this.canvas;
+    }
+
+    /**
+     * Gets the zoom.
+     *
+     * @return screen pixels per tile
+     */
+    public double getScale()
+    {
+        return this.scale;
+    }
+
+    /**
+     * Gets the mip level the view is painted from.
+     *
+     * @return the level, 0 for full detail
+     */
+    public int getLevel()
+    {
+        return this.level;
+    }
+
+    /**
+     * Gets the board column at the left edge of the view.
+     *
+     * @return the column, which may be fractional or off the board
+     */
+    public double getOriginX()
+    {
+        return this.originX;
+    }
+
+    /**
+     * Gets the board row at the top edge of the view.
+     *
+     * @return the row, which may be fractional or off the board
+     */
+    public double getOriginY()
+    {
+        return this.originY;
+    }
+
+    /**
+     * Gets how many columns wide the view is.
+     *
+     * @return the width of the view, in tiles
+     */
+    public double getViewWidth()
+    {
+        return this.canvas.getWidth() / this.scale;
+    }
+
+    /**
+     * Gets how many rows tall the view is.
+     *
+     * @return the height of the view, in tiles
+     */
+    public double getViewHeight()
+    {
+        return this.canvas.getHeight() / this.scale;
+    }
+
+    /**
+     * Tells whether the view has moved since it was last painted, and clears the flag.
+     *
+     * @return true if the whole view needs painting
+     */
+    public boolean takeViewChanged()
+    {
+        boolean changed = this.viewChanged;
+        this.viewChanged = false;
+        return changed;
+    }
+
+    /**
+     * Resizes the view, keeping its top left corner where it is.
+     *
+     * @param width the new width, in pixels
+     * @param height the new height, in pixels
+     */
+    public void resize(double width, double height)
+    {
+        this.canvas.setWidth(width);
+        this.canvas.setHeight(height);
+        this.viewChanged = true;
+    }
+
+    /**
+     * Zooms in or out around a point on the view, which stays over the same spot on the board.
+     *
+     * @param steps how many steps to zoom in; negative zooms out
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     */
+    public void zoom(double steps, double x, double y)
+    {
+        double fit = Math.min(this.canvas.getWidth(), this.canvas.getHeight()) / this.dim;
+        double next = this.scale * Math.pow(ZOOM_STEP, steps);
+        next = Math.max(Math.min(fit, 1) / 2, Math.min(MAX_SCALE, next));
+
+        double boardX = this.originX + x / this.scale;
+        double boardY = this.originY + y / this.scale;
+        this.scale = next;
+        this.originX = boardX - x / next;
+        this.originY = boardY - y / next;
+        this.level = levelFor(next);
+        this.viewChanged = true;
+    }
+
+    /**
+     * Moves the view.
+     *
+     * @param dx how far to drag the board right, in pixels
+     * @param dy how far to drag the board down, in pixels
+     */
+    public void pan(double dx, double dy)
+    {
+        this.originX -= dx / this.scale;
+        this.originY -= dy / this.scale;
+        this.viewChanged = true;
+    }
+
+    /**
+     * Moves the view so a point of the board is in its center.
+     *
+     * @param row the board row
+     * @param col the board column
+     */
+    public void centerOn(double row, double col)
+    {
+        this.originX = col - getViewWidth() / 2;
+        this.originY = row - getViewHeight() / 2;
+        this.viewChanged = true;
+    }
+
+    /**
+     * Paints the whole view with a single pixel write.  Must be called on the JavaFX application thread.
+     */
+    public void paintView()
+    {
+        int width = (int) this.canvas.getWidth();
+        int height = (int) this.canvas.getHeight();
+        if(width <= 0 || height <= 0)
+            return;
+        if(this.pixels == null || this.pixels.length < width * height)
+            this.pixels = new int[width * height];
+        if(this.columnCells == null || this.columnCells.length < width)
+            this.columnCells = new int[width];
+
+        int cells = this.mips.getSize(this.level);
+        for(int x = 0; x < width; ++x)
+            this.columnCells[x] = cellAt(this.originX, x);
+
+        // copy just the cells in view, all from one moment, so a tile changing meanwhile cannot tear the frame
+        int top = Math.max(0, cellAt(this.originY, 0));
+        int left = Math.max(0, this.columnCells[0]);
+        int rows = Math.min(cells, cellAt(this.originY, height - 1) + 1) - top;
+        int cols = Math.min(cells, this.columnCells[width - 1] + 1) - left;
+        if(rows > 0 && cols > 0)
+        {
+            if(this.cells == null || this.cells.length < rows * cols)
+                this.cells = new int[rows * cols];
+            this.mips.copyPixels(this.level, top, left, rows, cols, this.cells);
+        }
+
+        for(int y = 0; y < height; ++y)
+        {
+            int cellRow = cellAt(this.originY, y);
+            int line = y * width;
+            if(cellRow < 0 || cellRow >= cells || cols <= 0)
+            {
+                Arrays.fill(this.pixels, line, line + width, BACKGROUND);
+                continue;
+            }
+            int rowStart = (cellRow - top) * cols - left;
+            for(int x = 0; x < width; ++x)
+            {
+                int cellCol = this.columnCells[x];
+                this.pixels[line + x] = cellCol < 0 || cellCol >= cells ? BACKGROUND : this.cells[rowStart + cellCol];
+            }
+        }
+        this.writer.setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), this.pixels, 0, width);
+    }
+
+    /**
+     * Repaints the cell of the current level that holds a tile, if it is in view.  Must be called on the JavaFX
+     * application thread.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     */
+    public void paintTile(int row, int col)
+    {
+        int cellRow = row >> this.level;
+        int cellCol = col >> this.level;
+        int x0 = Math.max(0, screenStart(this.originX, cellCol));
+        int y0 = Math.max(0, screenStart(this.originY, cellRow));
+        int x1 = Math.min((int) this.canvas.getWidth(), screenStart(this.originX, cellCol + 1));
+        int y1 = Math.min((int) this.canvas.getHeight(), screenStart(this.originY, cellRow + 1));
+        if(x0 >= x1 || y0 >= y1)
+            return;
+
+        int size = (x1 - x0) * (y1 - y0);
+        if(this.block.length < size)
+            this.block = new int[size];
+        Arrays.fill(this.block, 0, size, this.mips.getPixel(this.level, cellRow, cellCol));
+        this.writer.setPixels(x0, y0, x1 - x0, y1 - y0, PixelFormat.getIntArgbInstance(), this.block, 0, x1 - x0);
+    }
+
+    /**
+     * Finds the row under a point on the view.
+     *
+     * @param y the y coordinate on the canvas
+     *
+     * @return the row, or -1 if the point is off the board
+     */
+    public int rowAt(double y)
+    {
+        return toTile(this.originY + y / this.scale);
+    }
+
+    /**
+     * Finds the column under a point on the view.
+     *
+     * @param x the x coordinate on the canvas
+     *
+     * @return the column, or -1 if the point is off the board
+     */
+    public int colAt(double x)
+    {
+        return toTile(this.originX + x / this.scale);
+    }
+
+    /**
+     * Finds where a tile's left edge is on the view.
+     *
+     * @param col the column
+     *
+     * @return the x coordinate on the canvas
+     */
+    public double screenX(int col)
+    {
+        return (col - this.originX) * this.scale;
+    }
+
+    /**
+     * Finds where a tile's top edge is on the view.
+     *
+     * @param row the row
+     *
+     * @return the y coordinate on the canvas
+     */
+    public double screenY(int row)
+    {
+        return (row - this.originY) * this.scale;
+    }
+
+    /**
+     * Picks the mip level with the fewest cells that still gets at least one screen pixel per cell.
+     *
+     * @param scale screen pixels per tile
+     *
+     * @return the level
+     */
+    private int levelFor(double scale)
+    {
+        int level = 0;
+        while(level + 1 < this.mips.getLevels() && scale * (1 << level) < 1)
+            level++;
+        return level;
+    }
+
+    /**
+     * Finds the cell of the current level shown at a screen coordinate.
+     *
+     * @param origin the board coordinate at the edge of the view
+     * @param pixel the screen coordinate
+     *
+     * @return the cell coordinate, which may be off the board
+     */
+    private int cellAt(double origin, int pixel)
+    {
+        return (int) Math.floor((origin + pixel / this.scale) / (1 << this.level));
+    }
+
+    /**
+     * Finds the first screen coordinate that shows a cell of the current level, matching {@link #cellAt}.
+     *
+     * @param origin the board coordinate at the edge of the view
+     * @param cell the cell coordinate
+     *
+     * @return the screen coordinate
+     */
+    private int screenStart(double origin, int cell)
+    {
+        return (int) Math.ceil(((double) cell * (1 << this.level) - origin) * this.scale);
+    }
+
+    /**
+     * Turns a board coordinate into a tile coordinate.
+     *
+     * @param position the board coordinate
+     *
+     * @return the tile coordinate, or -1 if it is off the board
+     */
+    private int toTile(double position)
+    {
+        int tile = (int) Math.floor(position);
+        return tile >= 0 && tile < this.dim ? tile : -1;
+    }
+}
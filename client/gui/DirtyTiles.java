@@ -0,0 +1,112 @@
+package place.client.gui;
+
+/**
+ * A set of tiles waiting to be repainted.  The network thread marks tiles as they change and the frame loop drains
+ * them once per frame; a tile that changes several times before the next frame is only repainted once.
+ */
+public class DirtyTiles
+{
+    /**
+     * Whether each tile, by row * DIM + col, is waiting to be repainted
+     */
+    private boolean[] marked;
+    /**
+     * The waiting tiles in the order they were marked, as a ring buffer
+     */
+    private int[] queue;
+    /**
+     * Where the next tile will be drained from
+     */
+    private int head;
+    /**
+     * How many tiles are waiting
+     */
+    private int size;
+    /**
+     * Set when every tile needs repainting
+     */
+    private boolean all;
+
+    /**
+     * Creates an empty set for a board.
+     *
+     * @param dim the dimension of the board
+     */
+    public DirtyTiles(int dim)
+    {
+        this.marked = new boolean[dim * dim];
+        this.queue = new int[dim * dim];
+    }
+
+    /**
+     * Marks a tile as needing a repaint.
+     *
+     * @param index the tile's index, row * DIM + col
+     */
+    public synchronized void mark(int index)
+    {
+        if(this.all || this.marked[index])
+            return;
+        this.marked[index] = true;
+        this.queue[(this.head + this.size) % this.queue.length] = index;
+        this.size++;
+    }
+
+    /**
+     * Marks the whole board as needing a repaint.
+     */
+    public synchronized void markAll()
+    {
+        this.all = true;
+    }
+
+    /**
+     * Takes the whole-board flag, clearing every individually marked tile with it.
+     *
+     * @return true if the whole board needs repainting
+     */
+    public synchronized boolean takeAll()
+    {
+        if(!this.all)
+            return false;
+        this.all = false;
+        while(this.size > 0)
+        {
+            this.marked[this.queue[this.head]] = false;
+            this.head = (this.head + 1) % this.queue.length;
+            this.size--;
+        }
+        return true;
+    }
+
+    /**
+     * Takes up to into.length waiting tiles, oldest first.
+     *
+     * @param into where to put the tile indexes
+     *
+     * @return how many tiles were taken
+     */
+    public synchronized int drain(int[] into)
+    {
+        int count = Math.min(into.length, this.size);
+        for(int i = 0; i < count; ++i)
+        {
+            int index = this.queue[this.head];
+            this.marked[index] = false;
+            into[i] = index;
+            this.head = (this.head + 1) % this.queue.length;
+        }
+        this.size -= count;
+        return count;
+    }
+
+    /**
+     * Gets how many tiles are waiting.
+     *
+     * @return the backlog
+     */
+    public synchronized int size()
+    {
+        return this.all ? this.marked.length : this.size;
+    }
+}
@@ -0,0 +1,167 @@
+package place.client.gui;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import place.client.model.MipPyramid;
+
+import java.util.Arrays;
+
+/**
+ * An overview of the whole board, painted from the largest level of the MipPyramid that fits in the minimap.  A
+ * changed tile only repaints the one minimap cell above it.  The part of the board in the main view is outlined, and
+ * clicking the minimap moves the main view there.
+ */
+public class Minimap
+{
+    /**
+     * The widest and tallest the minimap may be, in pixels
+     */
+    private static final int MAX_SIZE = 160;
+
+    /**
+     * The minimap's canvas and the view outline, together
+     */
+    private Pane pane;
+    /**
+     * Writes pixels into the canvas
+     */
+    private PixelWriter writer;
+    /**
+     * The outline of the part of the board in the main view
+     */
+    private Rectangle viewOutline;
+    /**
+     * The board's colors at every level of detail
+     */
+    private MipPyramid mips;
+    /**
+     * The main view, which is outlined and moved
+     */
+    private BoardRenderer renderer;
+    /**
+     * The mip level the minimap is painted from
+     */
+    private int level;
+    /**
+     * The size of each minimap cell, in pixels
+     */
+    private int cellSize;
+    /**
+     * Screen pixels per tile on the minimap
+     */
+    private double scale;
+    /**
+     * A block of pixels reused to paint a single cell
+     */
+    private int[] block;
+
+    /**
+     * Creates a minimap for a board and its main view.
+     *
+     * @param mips the board's colors at every level of detail
+     * @param renderer the main view
+     */
+    public Minimap(MipPyramid mips, BoardRenderer renderer)
+    {
+        this.mips = mips;
+        this.renderer = renderer;
+        this.level = 0;
+        while(this.level + 1 < mips.getLevels() && mips.getSize(this.level) > MAX_SIZE)
+            this.level++;
+        int cells = mips.getSize(this.level);
+        this.cellSize = Math.max(1, MAX_SIZE / cells);
+        this.scale = (double) (cells * this.cellSize) / mips.getSize(0);
+        this.block = new int[this.cellSize * this.cellSize];
+
+        Canvas canvas = new Canvas(cells * this.cellSize, cells * this.cellSize);
+        this.writer = canvas.getGraphicsContext2D().getPixelWriter();
+        this.viewOutline = new Rectangle();
+        this.viewOutline.setFill(Color.TRANSPARENT);
+        this.viewOutline.setStroke(Color.RED);
+        this.viewOutline.setMouseTransparent(true);
+
+        this.pane = new Pane(canvas, this.viewOutline);
+        this.pane.setMaxSize(canvas.getWidth(), canvas.getHeight());
+        this.pane.setStyle("-fx-border-color: #333;");
+        Rectangle clip = new Rectangle(canvas.getWidth(), canvas.getHeight());
+        this.pane.setClip(clip);
+
+        canvas.setOnMouseClicked( (event) -> centerOn(event.getX(), event.getY()) );
+        canvas.setOnMouseDragged( (event) -> centerOn(event.getX(), event.getY()) );
+    }
+
+    /**
+     * Gets the node that shows the minimap.
+     *
+     * @return the minimap's pane
+     */
+    public Pane getPane()
+    {
+        return this.pane;
+    }
+
+    /**
+     * Paints every cell.  Must be called on the JavaFX application thread.
+     */
+    public void paintAll()
+    {
+        int cells = this.mips.getSize(this.level);
+        int side = cells * this.cellSize;
+        int[] pixels = new int[side * side];
+        int[] source = this.mips.copyPixels(this.level, 0, 0, cells, cells, new int[cells * cells]);
+        for(int row = 0; row < cells; ++row)
+        {
+            for(int col = 0; col < cells; ++col)
+            {
+                int argb = source[row * cells + col];
+                for(int y = 0; y < this.cellSize; ++y)
+                {
+                    int start = (row * this.cellSize + y) * side + col * this.cellSize;
+                    Arrays.fill(pixels, start, start + this.cellSize, argb);
+                }
+            }
+        }
+        this.writer.setPixels(0, 0, side, side, PixelFormat.getIntArgbInstance(), pixels, 0, side);
+    }
+
+    /**
+     * Repaints the one cell above a changed tile.  Must be called on the JavaFX application thread.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     */
+    public void paintTile(int row, int col)
+    {
+        int cellRow = row >> this.level;
+        int cellCol = col >> this.level;
+        Arrays.fill(this.block, this.mips.getPixel(this.level, cellRow, cellCol));
+        this.writer.setPixels(cellCol * this.cellSize, cellRow * this.cellSize, this.cellSize, this.cellSize,
+                PixelFormat.getIntArgbInstance(), this.block, 0, this.cellSize);
+    }
+
+    /**
+     * Moves the outline to the part of the board in the main view.  Must be called on the JavaFX application
+     * thread.
+     */
+    public void outlineView()
+    {
+        this.viewOutline.relocate(this.renderer.getOriginX() * this.scale, this.renderer.getOriginY() * this.scale);
+        this.viewOutline.setWidth(this.renderer.getViewWidth() * this.scale);
+        this.viewOutline.setHeight(this.renderer.getViewHeight() * this.scale);
+    }
+
+    /**
+     * Moves the main view so it is centered on a point of the minimap.
+     *
+     * @param x the x coordinate on the minimap
+     * @param y the y coordinate on the minimap
+     */
+    private void centerOn(double x, double y)
+    {
+        this.renderer.centerOn(y / this.scale, x / this.scale);
+    }
+}
@@ -1,19 +1,26 @@
 package place.client.gui;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Cursor;
 import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
 import javafx.scene.control.Tooltip;
+import javafx.scene.input.KeyCode;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
+import place.PlaceBoard;
 import place.PlaceColor;
 import place.PlaceException;
+import place.PlaceLog;
 import place.PlaceTile;
+import place.client.model.BoardListener;
+import place.client.model.ChangeBatch;
 import place.client.model.ClientModel;
 import place.client.network.NetworkClient;
 
@@ -21,7 +28,11 @@ import place.client.network.NetworkClient;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
-public class PlaceGUI extends Application implements Observer {
+public class PlaceGUI extends Application implements BoardListener {
+    /**
+     * Where diagnostics go
+     */
+    private static final PlaceLog LOG = PlaceLog.get(PlaceGUI.class);
     /**
      * The gaps that should be put in between color choices
      */
@@ -31,7 +42,7 @@ public class PlaceGUI extends Application implements Observer {
      */
     private static final int BOTTOM_HBOX_SPACING = 5;
     /**
-     * The minimum size of the GridPane.
+     * The starting size of the board view.
      */
     private static final int MIN_GRID_SIZE = 650;
     /**
@@ -54,6 +65,18 @@ public class PlaceGUI extends Application implements Observer {
      * The padding Insets for the main grid
      */
     private static final Insets MAIN_GRID_INSETS = new Insets(0, 10, 10, 10);
+    /**
+     * Nanoseconds the frame loop may spend repainting tiles in one frame
+     */
+    private static final long FRAME_BUDGET = 4000000;
+    /**
+     * Dirty tiles taken from the set at a time while repainting
+     */
+    private static final int REPAINT_CHUNK = 256;
+    /**
+     * Frames between updates of the diagnostics overlay
+     */
+    private static final int OVERLAY_FRAMES = 15;
     /**
      * The date formatter
      */
@@ -87,17 +110,69 @@ public class PlaceGUI extends Application implements Observer {
      */
     private Scene scene;
     /**
-     * The main GridPane of rectangles that represent all of the PlaceTiles in the game.
+     * Paints all of the PlaceTiles in the game onto a single canvas.
      */
-    private GridPane mainGrid;
+    private BoardRenderer renderer;
+    /**
+     * Tiles that have changed since they were last painted.
+     */
+    private DirtyTiles dirty;
+    /**
+     * Repaints dirty tiles once per frame.
+     */
+    private AnimationTimer frameLoop;
+    /**
+     * Reusable buffer of dirty tile indexes for the frame loop.
+     */
+    private int[] repaint = new int[REPAINT_CHUNK];
+    /**
+     * Diagnostics overlay showing frame time and repaint backlog, toggled with F3.
+     */
+    private Text overlay;
+    /**
+     * The time the previous frame started, in nanoseconds.
+     */
+    private long lastFrame;
+    /**
+     * Frames since the overlay was last updated.
+     */
+    private int overlayFrames;
+    /**
+     * Tiles repainted since the overlay was last updated.
+     */
+    private int overlayPainted;
+    /**
+     * The slowest repaint since the overlay was last updated, in nanoseconds.
+     */
+    private long overlayWorst;
+    /**
+     * A rectangle laid over the tile the mouse is on, previewing the currently selected color.
+     */
+    private Rectangle hoverTile;
+    /**
+     * The row of the PlaceTile the mouse is currently over, or -1.
+     */
+    private int hoverRow = -1;
+    /**
+     * The column of the PlaceTile the mouse is currently over, or -1.
+     */
+    private int hoverCol = -1;
     /**
      * The currently selected PlaceColor that will be used to send to the server if a PlaceTile is clicked on.
      */
     private int currentColor = 0;
     /**
-     * The size that each tile should be on screen
+     * The overview of the whole board.
+     */
+    private Minimap minimap;
+    /**
+     * Where the last mouse drag event was, so the view can be panned by the difference.
      */
-    private int rectSize;
+    private double dragX;
+    /**
+     * Where the last mouse drag event was, so the view can be panned by the difference.
+     */
+    private double dragY;
     /**
      * The text that is used to show the name of the currently selected color in the bottom HBox.
      */
@@ -151,11 +226,8 @@ public class PlaceGUI extends Application implements Observer {
         catch(PlaceException e)
         {
             this.serverConn.close();
-            System.err.println(e);
+            LOG.error("could not join server", "error", e);
         }
-        this.model.addObserver(this);
-
-        this.rectSize = MIN_GRID_SIZE / this.model.getDIM();
     }
 
     /**
@@ -168,91 +240,152 @@ public class PlaceGUI extends Application implements Observer {
     {
         BorderPane root = new BorderPane();
         root.setTop( buildColorBar() );
-        root.setCenter( this.mainGrid = buildMainGrid() );
+        root.setCenter( buildMainGrid() );
         root.setBottom( buildBottomBox() );
+        this.model.addListener(this, javafx.application.Platform::runLater);
+
+        this.frameLoop = new AnimationTimer()
+        {
+            @Override
+            public void handle(long now)
+            {
+                repaintFrame(now);
+            }
+        };
+        this.frameLoop.start();
 
         this.serverConn.start();
         this.scene = new Scene(root);
+        this.scene.setOnKeyPressed(
+                (event) ->
+                {
+                    if(event.getCode() == KeyCode.F3)
+                        this.overlay.setVisible(!this.overlay.isVisible());
+                }
+        );
         primaryStage.setScene(this.scene);
         primaryStage.setTitle("Place: " + this.username + "@" + this.hostname + ":" + this.port);
 
-        primaryStage.setResizable(false);
-
         primaryStage.show();
     }
 
     /**
-     * Builds a GridPane of singular PlaceTiles
+     * Builds the board view: a single canvas the tiles are painted on, with the hover preview laid over it.  The
+     * mouse wheel zooms the view and dragging pans it.
      *
-     * @return a GridPane which is DIM x DIM housing representations of each PlaceTile.
+     * @return a StackPane housing the painted board.
      */
-    private GridPane buildMainGrid()
+    private StackPane buildMainGrid()
     {
-        GridPane mainGrid = new GridPane();
+        this.renderer = new BoardRenderer(this.model.getMipPyramid(), MIN_GRID_SIZE, MIN_GRID_SIZE);
+        this.minimap = new Minimap(this.model.getMipPyramid(), this.renderer);
+        this.dirty = new DirtyTiles(this.model.getDIM());
+        Canvas canvas = this.renderer.getCanvas();
+
+        this.hoverTile = new Rectangle();
+        this.hoverTile.setMouseTransparent(true);
+        this.hoverTile.setVisible(false);
+
+        Pane view = new Pane(canvas, this.hoverTile);
+        view.setPrefSize(MIN_GRID_SIZE, MIN_GRID_SIZE);
+        Rectangle clip = new Rectangle();
+        clip.widthProperty().bind(view.widthProperty());
+        clip.heightProperty().bind(view.heightProperty());
+        view.setClip(clip);
+        view.widthProperty().addListener(
+                (observable, oldWidth, newWidth) -> this.renderer.resize(view.getWidth(), view.getHeight())
+        );
+        view.heightProperty().addListener(
+                (observable, oldHeight, newHeight) -> this.renderer.resize(view.getWidth(), view.getHeight())
+        );
+
+        canvas.setOnMouseMoved(
+                (event) -> hover(this.renderer.rowAt(event.getY()), this.renderer.colAt(event.getX()))
+        );
+        canvas.setOnMouseExited( (event) -> hover(-1, -1) );
+        canvas.setOnScroll(
+                (event) ->
+                {
+                    this.renderer.zoom(Math.signum(event.getDeltaY()), event.getX(), event.getY());
+                    hover(this.renderer.rowAt(event.getY()), this.renderer.colAt(event.getX()));
+                }
+        );
+        canvas.setOnMousePressed(
+                (event) ->
+                {
+                    this.dragX = event.getX();
+                    this.dragY = event.getY();
+                }
+        );
+        canvas.setOnMouseDragged(
+                (event) ->
+                {
+                    this.renderer.pan(event.getX() - this.dragX, event.getY() - this.dragY);
+                    this.dragX = event.getX();
+                    this.dragY = event.getY();
+                    hover(this.renderer.rowAt(event.getY()), this.renderer.colAt(event.getX()));
+                }
+        );
+        canvas.setOnMouseClicked(
+                (event) ->
+                {
+                    if(!event.isStillSincePress())
+                        return;
+                    int row = this.renderer.rowAt(event.getY());
+                    int col = this.renderer.colAt(event.getX());
+                    if(row >= 0 && col >= 0)
+                    {
+                        this.serverConn.sendTile(new PlaceTile(row, col, this.username,
+                                PlaceColor.values()[this.currentColor], System.currentTimeMillis()));
+                    }
+                }
+        );
+
+        this.overlay = new Text();
+        this.overlay.setFill(Color.WHITE);
+        this.overlay.setStroke(Color.BLACK);
+        this.overlay.setMouseTransparent(true);
+        this.overlay.setVisible(false);
+
+        StackPane mainGrid = new StackPane(view, this.overlay, this.minimap.getPane());
+        StackPane.setAlignment(this.overlay, Pos.TOP_LEFT);
+        StackPane.setAlignment(this.minimap.getPane(), Pos.BOTTOM_RIGHT);
         mainGrid.setPadding(MAIN_GRID_INSETS);
         mainGrid.setStyle("-fx-background-color:#999;");
-
-        for(int row = 0; row < this.model.getDIM(); ++row)
-        {
-            for (int col = 0; col < this.model.getDIM(); ++col)
-            {
-                PlaceTile tile = this.model.getTile(row, col);
-                Rectangle tileRectangle = buildSingleTile(tile);
-                mainGrid.add(tileRectangle, col, row);
-            }
-        }
         return mainGrid;
     }
 
     /**
-     * Builds a Rectangle object that represents a single PlaceTile.
+     * Moves the hover preview to a tile and shows that tile's information.  Must be called on the JavaFX
+     * application thread.
      *
-     * @param tile The tile we want to represent.
-     *
-     * @return A Rectangle that represents the PlaceTile passed.
+     * @param row the row the mouse is over, or -1 if it is off the board
+     * @param col the column the mouse is over, or -1 if it is off the board
      */
-    private Rectangle buildSingleTile(PlaceTile tile)
+    private void hover(int row, int col)
     {
-        int row = tile.getRow();
-        int col = tile.getCol();
+        this.hoverRow = row;
+        this.hoverCol = col;
+        if(row < 0 || col < 0)
+        {
+            this.hoverTile.setVisible(false);
+            return;
+        }
 
+        PlaceTile tile = this.model.getTile(row, col);
         PlaceColor tileColor = tile.getColor();
-
-        Rectangle tileRectangle = new Rectangle(this.rectSize, this.rectSize,
-                Color.rgb(tileColor.getRed(), tileColor.getGreen(), tileColor.getBlue()));
-
-        String date = DATE_FORMAT.format(new Date(tile.getTime()));
-        String time = TIME_FORMAT.format(new Date(tile.getTime()));
-
-        tileRectangle.setOnMouseEntered(
-                (ActionEvent) ->
-                        javafx.application.Platform.runLater(() ->
-                        {
-                            tileRectangle.setFill(getCurrentColor());
-                            this.tilePreview.setFill(
-                                    Color.rgb(tileColor.getRed(),tileColor.getGreen(),tileColor.getBlue())
-                            );
-                            this.tileLocationInfo.setText("(" + row +
-                                    "," + col + ")");
-                            this.tileOwnerInfo.setText(tile.getOwner());
-                            this.tileCreateDateInfo.setText(date);
-                            this.tileCreateTimeInfo.setText(time);
-                        })
-        );
-
-        tileRectangle.setOnMouseExited(
-                (ActionEvent) -> javafx.application.Platform.runLater(() ->
-                        tileRectangle.setFill(Color.rgb(tileColor.getRed(), tileColor.getGreen(), tileColor.getBlue()))
-                )
-        );
-
-        tileRectangle.setOnMouseClicked(
-                (ActionEvent) -> this.serverConn.sendTile(
-                        new PlaceTile(row, col, this.username, PlaceColor.values()[this.currentColor], System.currentTimeMillis())
-                )
-        );
-
-        return tileRectangle;
+        Date changed = new Date(tile.getTime());
+
+        this.hoverTile.relocate(this.renderer.screenX(col), this.renderer.screenY(row));
+        this.hoverTile.setWidth(Math.max(1, this.renderer.getScale()));
+        this.hoverTile.setHeight(Math.max(1, this.renderer.getScale()));
+        this.hoverTile.setFill(getCurrentColor());
+        this.hoverTile.setVisible(true);
+        this.tilePreview.setFill(Color.rgb(tileColor.getRed(), tileColor.getGreen(), tileColor.getBlue()));
+        this.tileLocationInfo.setText("(" + row + "," + col + ")");
+        this.tileOwnerInfo.setText(tile.getOwner());
+        this.tileCreateDateInfo.setText(DATE_FORMAT.format(changed));
+        this.tileCreateTimeInfo.setText(TIME_FORMAT.format(changed));
     }
 
     /**
@@ -381,51 +514,121 @@ public class PlaceGUI extends Application implements Observer {
     }
 
     /**
-     * The update method that is called by an Observable
+     * Called by the model, on the JavaFX thread, with the tiles that changed since the last batch.
      *
-     * @param o The Observable (it attaches itself to make sure we are being updated from the correct model.
-     * @param tile The tile that is being sent for update.
+     * @param batch The tiles that changed.
      */
-    public void update(Observable o, Object tile)
+    @Override
+    public void tilesChanged(ChangeBatch batch)
     {
-        assert o == this.model : "Wrong observable.";
-
-        if(tile instanceof PlaceTile)
-        {
-            changeTile((PlaceTile) tile);
-        }
-        else
+        for(PlaceTile tile : batch.getTiles())
         {
-            this.serverConn.error("Something's wrong.\n" +
-                    "Restarting board to account for errors...uwu...");
-            redrawGrid();
+            changeTile(tile);
         }
     }
 
     /**
-     * When the update method is called, it sets a PlaceTile which then updates on the Place board
+     * Called by the model, on the JavaFX thread, when the whole board was replaced by a resync.
+     *
+     * @param board The new board.
+     * @param sequence The model's change sequence number at the replacement.
+     */
+    @Override
+    public void boardReplaced(PlaceBoard board, long sequence)
+    {
+        redrawGrid();
+    }
+
+    /**
+     * When a tile changes, it marks the PlaceTile to be repainted on the next frame.
      *
      * @param tile The tile that was changed
      */
     private void changeTile(PlaceTile tile)
     {
-        javafx.application.Platform.runLater(
-                () -> this.mainGrid.add(buildSingleTile(tile), tile.getCol(), tile.getRow())
-        );
+        this.dirty.mark(tile.getRow() * this.model.getDIM() + tile.getCol());
     }
 
     /**
-     * This redraws the entire GridPane in the event the update method is sent something that isn't a PlaceTile.
+     * This repaints the entire board on the next frame, after the board has been replaced.
      */
     private void redrawGrid()
     {
-        for (int row = 0; row < this.model.getDIM(); ++row)
+        this.dirty.markAll();
+    }
+
+    /**
+     * Called by the frame loop once per frame.  Repaints dirty tiles until they run out or the frame's budget is
+     * spent; anything left over waits for the next frame, so input keeps being handled under heavy traffic.
+     *
+     * @param now the time the frame started, in nanoseconds
+     */
+    private void repaintFrame(long now)
+    {
+        long start = System.nanoTime();
+        int dim = this.model.getDIM();
+        int painted = 0;
+        boolean hovered = false;
+
+        if(this.renderer.takeViewChanged())
+        {
+            this.dirty.markAll();
+            this.minimap.outlineView();
+        }
+        if(this.dirty.takeAll())
+        {
+            this.renderer.paintView();
+            this.minimap.paintAll();
+            hovered = true;
+        }
+        while(System.nanoTime() - start < FRAME_BUDGET)
+        {
+            int count = this.dirty.drain(this.repaint);
+            if(count == 0)
+                break;
+            for(int i = 0; i < count; ++i)
+            {
+                int row = this.repaint[i] / dim;
+                int col = this.repaint[i] % dim;
+                this.renderer.paintTile(row, col);
+                this.minimap.paintTile(row, col);
+                hovered |= row == this.hoverRow && col == this.hoverCol;
+            }
+            painted += count;
+        }
+        if(hovered)
+            hover(this.hoverRow, this.hoverCol);
+
+        updateOverlay(now, painted, System.nanoTime() - start);
+    }
+
+    /**
+     * Keeps the diagnostics overlay's numbers, refreshing its text every few frames.
+     *
+     * @param now the time the frame started, in nanoseconds
+     * @param painted the tiles repainted this frame
+     * @param elapsed the nanoseconds spent repainting this frame
+     */
+    private void updateOverlay(long now, int painted, long elapsed)
+    {
+        long frameTime = this.lastFrame == 0 ? 0 : now - this.lastFrame;
+        this.lastFrame = now;
+        this.overlayFrames++;
+        this.overlayPainted += painted;
+        this.overlayWorst = Math.max(this.overlayWorst, elapsed);
+
+        if(this.overlayFrames >= OVERLAY_FRAMES)
         {
-            for (int col = 0; col < this.model.getDIM(); ++col)
+            if(this.overlay.isVisible())
             {
-                PlaceTile tile = this.model.getTile(row, col);
-                javafx.application.Platform.runLater(() -> mainGrid.add(buildSingleTile(tile), tile.getCol(), tile.getRow()));
+                this.overlay.setText(String.format(
+                        "frame %.1f ms  repaint max %.2f ms  tiles/frame %d  backlog %d  zoom %.2f  mip %d",
+                        frameTime / 1e6, this.overlayWorst / 1e6, this.overlayPainted / this.overlayFrames,
+                        this.dirty.size(), this.renderer.getScale(), this.renderer.getLevel()));
             }
+            this.overlayFrames = 0;
+            this.overlayPainted = 0;
+            this.overlayWorst = 0;
         }
     }
 
@@ -437,6 +640,7 @@ public class PlaceGUI extends Application implements Observer {
     public void stop() throws Exception
     {
         super.stop();
+        this.frameLoop.stop();
         this.serverConn.close();
     }
 
@@ -461,7 +665,7 @@ public class PlaceGUI extends Application implements Observer {
         }
         catch(Exception e)
         {
-            System.err.println(e);
+            LOG.error("GUI failed", "error", e);
         }
     }
 
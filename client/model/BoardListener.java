@@ -0,0 +1,25 @@
+package place.client.model;
+
+import place.PlaceBoard;
+
+/**
+ * Something that wants to hear about changes to a ClientModel's board.  Changes are delivered in batches on the
+ * executor the listener was added with; while one batch is being delivered, the next one collects.
+ */
+public interface BoardListener {
+    /**
+     * Called with the tiles that changed since the last call.
+     *
+     * @param batch the changed tiles
+     */
+    void tilesChanged(ChangeBatch batch);
+
+    /**
+     * Called when the whole board has been replaced, e.g. after a resync with the server.  Any tiles that changed
+     * before it are already on the new board.
+     *
+     * @param board the new board
+     * @param sequence the model's change sequence number at the replacement
+     */
+    void boardReplaced(PlaceBoard board, long sequence);
+}
@@ -0,0 +1,41 @@
+package place.client.model;
+
+import place.PlaceTile;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The tiles that changed in a ClientModel since a listener was last told, in the order they changed.
+ */
+public class ChangeBatch {
+    /** the model's change sequence number after the last tile in the batch */
+    private final long sequence;
+    /** the changed tiles, oldest first */
+    private final List<PlaceTile> tiles;
+
+    /**
+     * Create a batch.
+     *
+     * @param sequence the sequence number after the last tile
+     * @param tiles the changed tiles, oldest first
+     */
+    public ChangeBatch(long sequence, List<PlaceTile> tiles) {
+        this.sequence = sequence;
+        this.tiles = Collections.unmodifiableList(tiles);
+    }
+
+    /**
+     * Get the model's change sequence number after the last tile in the batch.
+     *
+     * @return the sequence number
+     */
+    public long getSequence() { return this.sequence; }
+
+    /**
+     * Get the changed tiles.  A tile that changed more than once appears once per change.
+     *
+     * @return the tiles, oldest first
+     */
+    public List<PlaceTile> getTiles() { return this.tiles; }
+}
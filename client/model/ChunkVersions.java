@@ -0,0 +1,137 @@
+package place.client.model;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A seqlock per square chunk of the board, for one writer and any number of readers, none of which ever block.
+ *
+ * The writer makes a chunk's version odd before changing anything in it and even again afterwards.  A reader notes the
+ * versions of the chunks it is about to read, copies what it wants, and checks the versions again; if any chunk was
+ * being written or has changed in between, the copy may be torn and the reader simply tries again.
+ */
+public class ChunkVersions {
+    /** the width and height of a chunk, in tiles */
+    public static final int CHUNK = 64;
+
+    /** the number of chunks along each side of the board */
+    private final int chunks;
+    /** the version of each chunk, odd while it is being written */
+    private final AtomicLongArray versions;
+
+    /**
+     * Create versions for a board.
+     *
+     * @param dim the dimension of the board
+     */
+    public ChunkVersions(int dim) {
+        this.chunks = (dim + CHUNK - 1) / CHUNK;
+        this.versions = new AtomicLongArray(this.chunks * this.chunks);
+    }
+
+    /**
+     * Writer only: mark the chunk holding a tile as being written.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     */
+    public void beginWrite(int row, int col) {
+        int chunk = chunkOf(row, col);
+        this.versions.set(chunk, this.versions.get(chunk) + 1);
+        // the writes to the chunk must not be seen before it is marked
+        VarHandle.storeStoreFence();
+    }
+
+    /**
+     * Writer only: mark the chunk holding a tile as written.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     */
+    public void endWrite(int row, int col) {
+        int chunk = chunkOf(row, col);
+        this.versions.set(chunk, this.versions.get(chunk) + 1);
+    }
+
+    /**
+     * Writer only: mark every chunk as being written, e.g. while the whole board is replaced.
+     */
+    public void beginWriteAll() {
+        for (int chunk = 0; chunk < this.versions.length(); ++chunk) {
+            this.versions.set(chunk, this.versions.get(chunk) + 1);
+        }
+        VarHandle.storeStoreFence();
+    }
+
+    /**
+     * Writer only: mark every chunk as written.
+     */
+    public void endWriteAll() {
+        for (int chunk = 0; chunk < this.versions.length(); ++chunk) {
+            this.versions.set(chunk, this.versions.get(chunk) + 1);
+        }
+    }
+
+    /**
+     * Reader: note the versions of the chunks covering a region before reading it.
+     *
+     * @param row the region's first row
+     * @param col the region's first column
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @return the versions, or null if a chunk is being written right now
+     */
+    public long[] stamp(int row, int col, int rows, int cols) {
+        int top = row / CHUNK, left = col / CHUNK;
+        int bottom = (row + rows - 1) / CHUNK, right = (col + cols - 1) / CHUNK;
+        long[] stamps = new long[(bottom - top + 1) * (right - left + 1)];
+        int i = 0;
+        for (int chunkRow = top; chunkRow <= bottom; ++chunkRow) {
+            for (int chunkCol = left; chunkCol <= right; ++chunkCol) {
+                long version = this.versions.get(chunkRow * this.chunks + chunkCol);
+                if ((version & 1) != 0) {
+                    return null;
+                }
+                stamps[i++] = version;
+            }
+        }
+        return stamps;
+    }
+
+    /**
+     * Reader: check that nothing in a region changed since it was stamped.
+     *
+     * @param row the region's first row
+     * @param col the region's first column
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param stamps the versions from {@link #stamp}
+     * @return true if what was read in between is consistent
+     */
+    public boolean validate(int row, int col, int rows, int cols, long[] stamps) {
+        // the reads of the region must not be seen after the versions are checked
+        VarHandle.loadLoadFence();
+        int top = row / CHUNK, left = col / CHUNK;
+        int bottom = (row + rows - 1) / CHUNK, right = (col + cols - 1) / CHUNK;
+        int i = 0;
+        for (int chunkRow = top; chunkRow <= bottom; ++chunkRow) {
+            for (int chunkCol = left; chunkCol <= right; ++chunkCol) {
+                if (this.versions.get(chunkRow * this.chunks + chunkCol) != stamps[i++]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the chunk holding a tile.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     * @return the chunk's index
+     */
+    private int chunkOf(int row, int col) {
+        return row / CHUNK * this.chunks + col / CHUNK;
+    }
+}
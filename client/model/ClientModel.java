@@ -1,38 +1,242 @@
 package place.client.model;
 
-import java.util.Observable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
 import place.PlaceBoard;
+import place.PlaceColor;
 import place.PlaceException;
 import place.PlaceTile;
 
-public class ClientModel extends Observable {
-    private PlaceBoard board;
+/**
+ * The client's copy of the board.  The network thread is its only writer; any number of UI threads may read it at the
+ * same time without locks.  A reader that needs several tiles to agree with each other, like a renderer painting a
+ * region, takes a snapshot with {@link #copyRegion}.
+ */
+public class ClientModel {
+    private volatile PlaceBoard board;
     private int DIM;
+    private MipPyramid mips;
+    /**
+     * Seqlocks over the board's chunks, so readers can tell when a copy may be torn
+     */
+    private ChunkVersions versions;
+    /**
+     * The number of changes applied to the board, including board replacements
+     */
+    private volatile long sequence;
+    private List<Subscription> subscriptions;
+
+    /**
+     * A listener, the executor it wants to hear on, and the changes it has not heard about yet.
+     */
+    private static class Subscription {
+        private final BoardListener listener;
+        private final Executor executor;
+        private List<PlaceTile> pending = new ArrayList<>();
+        private long pendingSequence;
+        private PlaceBoard replacedBy;
+        private boolean scheduled;
+
+        private Subscription(BoardListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        /**
+         * Queue a changed tile; the first change since the last delivery schedules one.
+         */
+        private void tileChanged(PlaceTile tile, long sequence) {
+            boolean schedule;
+            synchronized (this) {
+                this.pending.add(tile);
+                this.pendingSequence = sequence;
+                schedule = !this.scheduled;
+                this.scheduled = true;
+            }
+            if (schedule) {
+                this.executor.execute(this::deliver);
+            }
+        }
+
+        /**
+         * Queue a board replacement; tiles waiting from the old board are dropped.
+         */
+        private void boardReplaced(PlaceBoard board, long sequence) {
+            boolean schedule;
+            synchronized (this) {
+                this.pending = new ArrayList<>();
+                this.pendingSequence = sequence;
+                this.replacedBy = board;
+                schedule = !this.scheduled;
+                this.scheduled = true;
+            }
+            if (schedule) {
+                this.executor.execute(this::deliver);
+            }
+        }
+
+        /**
+         * Hand everything that collected since the last delivery to the listener.
+         */
+        private void deliver() {
+            List<PlaceTile> tiles;
+            PlaceBoard replaced;
+            long sequence;
+            synchronized (this) {
+                tiles = this.pending;
+                replaced = this.replacedBy;
+                sequence = this.pendingSequence;
+                this.pending = new ArrayList<>();
+                this.replacedBy = null;
+                this.scheduled = false;
+            }
+            if (replaced != null) {
+                this.listener.boardReplaced(replaced, sequence - tiles.size());
+            }
+            if (!tiles.isEmpty()) {
+                this.listener.tilesChanged(new ChangeBatch(sequence, tiles));
+            }
+        }
+    }
 
     public ClientModel(){
-        // constructor
+        this.subscriptions = new CopyOnWriteArrayList<>();
     }
 
+    /**
+     * Install the board from the server.  Called again with a fresh board when the client resyncs, in which case
+     * listeners are told the board was replaced.
+     *
+     * @param board the board
+     * @throws PlaceException if a resync board is a different size
+     */
     public void initialize(PlaceBoard board) throws PlaceException{
-        this.board = board;
-        this.DIM = this.board.DIM;
+        if (this.board != null && board.DIM != this.DIM) {
+            throw new PlaceException("Board changed size from " + this.DIM + " to " + board.DIM);
+        }
+        if (this.board == null) {
+            this.DIM = board.DIM;
+            this.versions = new ChunkVersions(board.DIM);
+            this.mips = new MipPyramid(board, this.versions);
+            this.board = board;
+        } else {
+            this.versions.beginWriteAll();
+            this.board = board;
+            this.mips.load(board);
+            this.versions.endWriteAll();
+        }
+        this.sequence++;
+        for (Subscription subscription : this.subscriptions) {
+            subscription.boardReplaced(board, this.sequence);
+        }
+    }
+
+    /**
+     * Start telling a listener about changes.  Batches are handed to the executor, so a listener that wants to hear
+     * on the JavaFX thread can pass Platform::runLater, and one that is thread-safe can pass Runnable::run.
+     *
+     * @param listener the listener
+     * @param executor runs the deliveries
+     */
+    public void addListener(BoardListener listener, Executor executor) {
+        this.subscriptions.add(new Subscription(listener, executor));
+    }
+
+    /**
+     * Stop telling a listener about changes.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(BoardListener listener) {
+        this.subscriptions.removeIf(subscription -> subscription.listener == listener);
     }
 
     public int getDIM(){ return this.DIM; }
 
     public PlaceBoard getBoard(){ return this.board;}
 
+    public MipPyramid getMipPyramid(){ return this.mips; }
+
+    public long getSequence(){ return this.sequence; }
+
     public PlaceTile getTile(int row, int col){
         return this.board.getTile(row, col);
     }
 
-    public void tileChanged(PlaceTile tile){
-        this.board.setTile(tile);
+    public PlaceColor getColor(int row, int col){
+        return this.board.getColor(row, col);
+    }
 
-        super.setChanged();
-        super.notifyObservers(tile);
+    /**
+     * Copy a region of the board as it was at a single moment, without stopping the network thread.  If a tile in
+     * the region changes while it is being copied, the copy is thrown away and taken again.
+     *
+     * @param row the region's first row
+     * @param col the region's first column
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param into receives the tiles, row by row; must hold rows * cols
+     * @return into
+     */
+    public PlaceTile[] copyRegion(int row, int col, int rows, int cols, PlaceTile[] into) {
+        while (true) {
+            long[] stamps = this.versions.stamp(row, col, rows, cols);
+            if (stamps != null) {
+                PlaceBoard board = this.board;
+                for (int r = 0; r < rows; ++r) {
+                    for (int c = 0; c < cols; ++c) {
+                        into[r * cols + c] = board.getTile(row + r, col + c);
+                    }
+                }
+                if (this.versions.validate(row, col, rows, cols, stamps)) {
+                    return into;
+                }
+            }
+            Thread.onSpinWait();
+        }
     }
 
+    /**
+     * Copy the colors of a region of the board as they were at a single moment, like {@link #copyRegion} but without
+     * making a tile for every cell.
+     *
+     * @param row the region's first row
+     * @param col the region's first column
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param into receives the colors, row by row; must hold rows * cols
+     * @return into
+     */
+    public PlaceColor[] copyColors(int row, int col, int rows, int cols, PlaceColor[] into) {
+        while (true) {
+            long[] stamps = this.versions.stamp(row, col, rows, cols);
+            if (stamps != null) {
+                PlaceBoard board = this.board;
+                for (int r = 0; r < rows; ++r) {
+                    for (int c = 0; c < cols; ++c) {
+                        into[r * cols + c] = board.getColor(row + r, col + c);
+                    }
+                }
+                if (this.versions.validate(row, col, rows, cols, stamps)) {
+                    return into;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
 
+    public void tileChanged(PlaceTile tile){
+        this.versions.beginWrite(tile.getRow(), tile.getCol());
+        this.board.setTile(tile);
+        this.mips.setTile(tile.getRow(), tile.getCol(), tile.getColor());
+        this.versions.endWrite(tile.getRow(), tile.getCol());
+        this.sequence++;
 
+        for (Subscription subscription : this.subscriptions) {
+            subscription.tileChanged(tile, this.sequence);
+        }
+    }
 }
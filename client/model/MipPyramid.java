@@ -0,0 +1,239 @@
+package place.client.model;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+
+/**
+ * A pyramid of ever smaller copies of the board's colors.  Level 0 holds one ARGB pixel per tile; each level above
+ * it is half the size, every cell the average of the 2x2 cells beneath it.  Changing a tile only recomputes the one
+ * cell above it on each level, so keeping the pyramid current costs O(log DIM) per change.
+ *
+ * Like the board, the pyramid has one writer, the network thread, which changes it only inside the ChunkVersions
+ * seqlock of the tiles it is changing.  Readers copy cells under the same seqlock, so a cell above a tile that is
+ * being changed is never painted half updated.
+ */
+public class MipPyramid
+{
+    /**
+     * The ARGB pixel for each PlaceColor, indexed by color number
+     */
+    private static final int[] ARGB = new int[PlaceColor.TOTAL_COLORS];
+
+    static
+    {
+        for(PlaceColor color : PlaceColor.values())
+        {
+            ARGB[color.getNumber()] = 0xFF000000 | color.getRed() << 16 | color.getGreen() << 8 | color.getBlue();
+        }
+    }
+
+    /**
+     * The pixels of each level, row by row
+     */
+    private int[][] levels;
+    /**
+     * The width and height of each level, in cells
+     */
+    private int[] sizes;
+    /**
+     * The seqlocks the writer holds while changing tiles, and readers check
+     */
+    private ChunkVersions versions;
+
+    /**
+     * Builds the pyramid for a whole board.
+     *
+     * @param board the board
+     * @param versions the seqlocks the writer holds while changing the board's tiles
+     */
+    public MipPyramid(PlaceBoard board, ChunkVersions versions)
+    {
+        this.versions = versions;
+        int count = 1;
+        for(int size = board.DIM; size > 1; size = (size + 1) / 2)
+            count++;
+
+        this.levels = new int[count][];
+        this.sizes = new int[count];
+        for(int level = 0; level < count; ++level)
+        {
+            this.sizes[level] = level == 0 ? board.DIM : (this.sizes[level - 1] + 1) / 2;
+            this.levels[level] = new int[this.sizes[level] * this.sizes[level]];
+        }
+        load(board);
+    }
+
+    /**
+     * Writer only, between {@link ChunkVersions#beginWriteAll} and {@link ChunkVersions#endWriteAll}: rebuilds every
+     * level from a whole board of the same size, e.g. after a resync.
+     *
+     * @param board the board
+     */
+    public void load(PlaceBoard board)
+    {
+        for(int row = 0; row < board.DIM; ++row)
+        {
+            for(int col = 0; col < board.DIM; ++col)
+            {
+                this.levels[0][row * board.DIM + col] = argb(board.getColor(row, col));
+            }
+        }
+
+        for(int level = 1; level < this.levels.length; ++level)
+        {
+            for(int row = 0; row < this.sizes[level]; ++row)
+            {
+                for(int col = 0; col < this.sizes[level]; ++col)
+                {
+                    average(level, row, col);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the ARGB pixel for a color.
+     *
+     * @param color the color
+     *
+     * @return the pixel
+     */
+    public static int argb(PlaceColor color)
+    {
+        return ARGB[color.getNumber()];
+    }
+
+    /**
+     * Gets the number of levels, including level 0.
+     *
+     * @return the level count
+     */
+    public int getLevels()
+    {
+        return this.levels.length;
+    }
+
+    /**
+     * Gets the width and height of a level.
+     *
+     * @param level the level
+     *
+     * @return the size in cells
+     */
+    public int getSize(int level)
+    {
+        return this.sizes[level];
+    }
+
+    /**
+     * Gets one cell of a level as it was at a single moment, without stopping the writer.
+     *
+     * @param level the level
+     * @param row the cell row
+     * @param col the cell column
+     *
+     * @return the ARGB pixel of the cell
+     */
+    public int getPixel(int level, int row, int col)
+    {
+        int tileRow = row << level;
+        int tileCol = col << level;
+        int tiles = 1 << level;
+        int tileRows = Math.min(tiles, this.sizes[0] - tileRow);
+        int tileCols = Math.min(tiles, this.sizes[0] - tileCol);
+        while(true)
+        {
+            long[] stamps = this.versions.stamp(tileRow, tileCol, tileRows, tileCols);
+            if(stamps != null)
+            {
+                int pixel = this.levels[level][row * this.sizes[level] + col];
+                if(this.versions.validate(tileRow, tileCol, tileRows, tileCols, stamps))
+                    return pixel;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Copies a region of a level as it was at a single moment, without stopping the writer.  If a tile beneath the
+     * region changes while it is being copied, the copy is thrown away and taken again.
+     *
+     * @param level the level
+     * @param row the region's first cell row
+     * @param col the region's first cell column
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param into receives the pixels, row by row; must hold rows * cols
+     *
+     * @return into
+     */
+    public int[] copyPixels(int level, int row, int col, int rows, int cols, int[] into)
+    {
+        int size = this.sizes[level];
+        int[] pixels = this.levels[level];
+        int tileRow = row << level;
+        int tileCol = col << level;
+        int tileRows = Math.min(this.sizes[0], (row + rows) << level) - tileRow;
+        int tileCols = Math.min(this.sizes[0], (col + cols) << level) - tileCol;
+        while(true)
+        {
+            long[] stamps = this.versions.stamp(tileRow, tileCol, tileRows, tileCols);
+            if(stamps != null)
+            {
+                for(int r = 0; r < rows; ++r)
+                {
+                    System.arraycopy(pixels, (row + r) * size + col, into, r * cols, cols);
+                }
+                if(this.versions.validate(tileRow, tileCol, tileRows, tileCols, stamps))
+                    return into;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Writer only, between {@link ChunkVersions#beginWrite} and {@link ChunkVersions#endWrite} for the tile: changes
+     * a tile and the one cell above it on every level.
+     *
+     * @param row the tile's row
+     * @param col the tile's column
+     * @param color the tile's new color
+     */
+    public void setTile(int row, int col, PlaceColor color)
+    {
+        this.levels[0][row * this.sizes[0] + col] = argb(color);
+        for(int level = 1; level < this.levels.length; ++level)
+        {
+            row /= 2;
+            col /= 2;
+            average(level, row, col);
+        }
+    }
+
+    /**
+     * Recomputes a cell as the average of the (up to) four cells beneath it.
+     *
+     * @param level the level of the cell
+     * @param row the cell row
+     * @param col the cell column
+     */
+    private void average(int level, int row, int col)
+    {
+        int below = this.sizes[level - 1];
+        int[] pixels = this.levels[level - 1];
+        int red = 0, green = 0, blue = 0, count = 0;
+        for(int r = row * 2; r < row * 2 + 2 && r < below; ++r)
+        {
+            for(int c = col * 2; c < col * 2 + 2 && c < below; ++c)
+            {
+                int pixel = pixels[r * below + c];
+                red += pixel >> 16 & 0xFF;
+                green += pixel >> 8 & 0xFF;
+                blue += pixel & 0xFF;
+                count++;
+            }
+        }
+        this.levels[level][row * this.sizes[level] + col] =
+                0xFF000000 | red / count << 16 | green / count << 8 | blue / count;
+    }
+}
@@ -3,16 +3,21 @@ package place.client.network;
 import place.PlaceBoard;
 import place.PlaceColor;
 import place.PlaceException;
+import place.PlaceLog;
 import place.PlaceTile;
 import place.client.model.ClientModel;
+import place.network.LatencyHistogram;
+import place.network.LatencyReport;
+import place.network.PlaceExchange;
 import place.network.PlaceRequest;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
-
-import static place.network.PlaceExchange.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The client side network interface to a Reddit April Fool game server.
@@ -27,33 +32,77 @@ import static place.network.PlaceExchange.*;
 public class NetworkClient {
 
     /**
-     * The number of milliseconds a user must wait before they can send their next tile.
+     * The number of milliseconds a user must wait before they can send their next tile,
+     * until the server says otherwise.
      */
     private final static int WAIT_TIME = 500;
 
     /**
-     * A boolean that indicates if this client is wait time after placing a tile.
+     * The number of milliseconds the server currently wants between tiles.  The server
+     * sends a new value with COOLDOWN whenever it changes.
+     */
+    private volatile int waitTime = WAIT_TIME;
+
+    /**
+     * The time the last tile was sent, in milliseconds.
      *
-     * If it is, the client cannot send a new piece. If it is true, and a client tries to send a PlaceTile,
-     * it displays an error.
+     * If the wait time has not passed since then, the client cannot send a new piece. If a
+     * client tries to send a PlaceTile anyway, it displays an error.
      */
-    private boolean wait;
+    private long lastSent;
 
     /**
-     * Turn on if standard output debug messages are desired.
+     * Seconds between reports of placement latency to the server, or 0 to
+     * never report (-Dplace.latencyReport)
      */
-    private static final boolean DEBUG = false;
+    private static final int REPORT_INTERVAL = Integer.getInteger("place.latencyReport", 0);
 
     /**
-     * Print method that does something only if DEBUG is true
-     *
-     * @param logMsg the message to log
+     * Tile changes waiting to come back before the old ones are looked
+     * for and forgotten.
      */
-    private static void dPrint( Object logMsg ) {
-        if ( NetworkClient.DEBUG ) {
-            System.out.println( logMsg );
-        }
-    }
+    private static final int IN_FLIGHT_LIMIT = 256;
+
+    /**
+     * Nanoseconds after which a tile change that has not come back is
+     * taken to have been dropped by the server.
+     */
+    private static final long IN_FLIGHT_EXPIRY = 60_000_000_000L;
+
+    /**
+     * The username tiles are sent under, to pick our own changes out of
+     * the broadcast.
+     */
+    private String username;
+
+    /**
+     * The id given to the last tile sent.
+     */
+    private long lastId;
+
+    /**
+     * When each tile change still waiting to come back was sent, by id,
+     * in nanoseconds.
+     */
+    private final Map<Long, Long> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Time from sending each tile change to seeing it come back, since
+     * connecting.
+     */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * The same, since the last report to the server; swapped for an
+     * empty one as each report is taken, so no round trip is lost.
+     */
+    private final AtomicReference<LatencyHistogram> unreported = new AtomicReference<>(new LatencyHistogram());
+
+    /**
+     * Where diagnostics go; run with -Dplace.logLevel=DEBUG to see every
+     * message from the server.
+     */
+    private static final PlaceLog LOG = PlaceLog.get(NetworkClient.class);
 
     /**
      * The {@link Socket} used to communicate with the PlaceServer.
@@ -70,6 +119,11 @@ public class NetworkClient {
      */
     private ObjectOutputStream networkOut;
 
+    /**
+     * Tile changes written since networkOut was last reset.
+     */
+    private int written;
+
     /**
      * The {@link PlaceBoard} used to keep track of the state of the game.
      */
@@ -119,32 +173,18 @@ public class NetworkClient {
             networkOut.flush();
             this.networkIn = new ObjectInputStream( sock.getInputStream() );
             this.board = board;
+            this.username = username;
 
-            this.networkOut.writeUnshared(new PlaceRequest<String>(PlaceRequest.RequestType.LOGIN, username));
-
-            PlaceRequest req = (PlaceRequest) this.networkIn.readUnshared();
-            NetworkClient.dPrint( "Connected to server " + this.sock );
-            switch (req.getType())
-            {
-                case LOGIN_SUCCESS:
-                    System.out.println("You have successfully login!");
-                    break;
-                case ERROR:
-                    error("Failed to join Place server.");
-                    error("Server response: " + req.getData() + ".");
-                    this.close();
-                    throw new PlaceException("Unable to join.");
-                default:
-                    error("Bad response received from server. Disconnecting.");
-                    this.close();
-                    throw new PlaceException("Unable to join.");
+            try {
+                this.board.initialize( login( this.networkOut, this.networkIn, username ) );
             }
-
-            req = (PlaceRequest) this.networkIn.readUnshared();
-            if(req.getType() == PlaceRequest.RequestType.BOARD)
-                this.board.initialize( (PlaceBoard) req.getData() );
-            else
-                throw new PlaceException("No board received.");
+            catch( PlaceException e ) {
+                error("Failed to join Place server.");
+                error(e.getMessage());
+                this.close();
+                throw new PlaceException("Unable to join.");
+            }
+            LOG.info("logged in", "user", username, "server", this.sock);
 
             this.go = true;
         }
@@ -153,12 +193,53 @@ public class NetworkClient {
         }
     }
 
+    /**
+     * Logs in on a fresh connection to a Place server: sends LOGIN and
+     * waits for LOGIN_SUCCESS followed by the BOARD. Anything that
+     * speaks the client protocol can use this handshake.
+     *
+     * @param out the stream to the server, already flushed
+     * @param in the stream from the server
+     * @param username the username
+     * @return the board the server sent
+     * @throws PlaceException if the server refuses the login or answers
+     *                        with something unexpected
+     * @throws IOException if the connection fails
+     * @throws ClassNotFoundException if the server sends an unknown class
+     */
+    public static PlaceBoard login(ObjectOutputStream out, ObjectInputStream in, String username)
+            throws PlaceException, IOException, ClassNotFoundException {
+        out.writeUnshared(new PlaceRequest<String>(PlaceRequest.RequestType.LOGIN, username));
+        out.flush();
+
+        PlaceRequest req = (PlaceRequest) in.readUnshared();
+        switch (req.getType())
+        {
+            case LOGIN_SUCCESS:
+                break;
+            case ERROR:
+                throw new PlaceException("Server response: " + req.getData() + ".");
+            default:
+                throw new PlaceException("Bad response received from server.");
+        }
+
+        req = (PlaceRequest) in.readUnshared();
+        if(req.getType() != PlaceRequest.RequestType.BOARD)
+            throw new PlaceException("No board received.");
+        return (PlaceBoard) req.getData();
+    }
+
     /**
      * Start the thread
      */
     public void start()
     {
         new Thread(this::run).start();
+        if (REPORT_INTERVAL > 0) {
+            Thread reporter = new Thread(this::reportLatency);
+            reporter.setDaemon(true);
+            reporter.start();
+        }
     }
 
 
@@ -169,9 +250,7 @@ public class NetworkClient {
      * @param arguments The error message sent from the PlaceServer
      */
     public void error( String arguments ) {
-        NetworkClient.dPrint( '!' + ERROR + ',' + arguments );
-        dPrint( "Fatal error: " + arguments );
-        System.err.println( arguments );
+        LOG.error("fatal error", "message", arguments);
         this.stop();
     }
 
@@ -187,7 +266,7 @@ public class NetworkClient {
         }
         catch( IOException e ) {
             // squash
-            System.err.println("???");
+            LOG.debug("error while closing", "error", e);
         }
     }
 
@@ -197,35 +276,159 @@ public class NetworkClient {
      * @param tile the tile
      */
     public synchronized void sendTile(PlaceTile tile) {
-        if (! this.wait) {
-            try {
-                this.networkOut.writeUnshared(new PlaceRequest<PlaceTile>(PlaceRequest.RequestType.CHANGE_TILE, tile));
-                this.networkOut.flush();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            new Thread(this::waiting).start();
+        long now = System.currentTimeMillis();
+        if (now - this.lastSent >= this.waitTime) {
+            writeTile(tile, now);
         }
         else{
-            System.out.println("You must wait 0.5 second between each change");
+            LOG.warn("tile not sent during cooldown", "waitMillis", this.waitTime);
         }
     }
 
-    private void waiting(){
-        this.wait = true;
-        try
-        {
-            Thread.sleep(WAIT_TIME);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    /**
+     * Sends a tile as soon as the cooldown allows, sleeping until then
+     * instead of refusing it. The lock is not held while sleeping, so
+     * heartbeats are still answered.
+     *
+     * @param tile the tile
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void sendTileWhenReady(PlaceTile tile) throws InterruptedException {
+        while (true) {
+            long wait;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                wait = this.lastSent + this.waitTime - now;
+                if (wait <= 0) {
+                    writeTile(tile, now);
+                    return;
+                }
+            }
+            Thread.sleep(wait);
         }
-        this.wait = false;
     }
 
+    /**
+     * Writes a CHANGE_TILE request, tagged with the next id so its echo
+     * can be timed, and starts the cooldown. The caller must hold the
+     * lock.
+     *
+     * @param tile the tile
+     * @param now the time it is sent
+     */
+    private void writeTile(PlaceTile tile, long now) {
+        long sent = System.nanoTime();
+        if (this.inFlight.size() >= IN_FLIGHT_LIMIT) {
+            this.inFlight.values().removeIf(time -> sent - time > IN_FLIGHT_EXPIRY);
+        }
+        tile.setId(++this.lastId);
+        this.inFlight.put(tile.getId(), sent);
+        try {
+            this.networkOut.writeUnshared(new PlaceRequest<PlaceTile>(PlaceRequest.RequestType.CHANGE_TILE, tile));
+            if (++this.written == PlaceExchange.RESET_INTERVAL) {
+                this.networkOut.reset();
+                this.written = 0;
+            }
+            this.networkOut.flush();
+        } catch (IOException e) {
+            LOG.warn("could not send tile", "error", e);
+        }
+        this.lastSent = now;
+    }
+
+    /**
+     * How long tile changes have taken to come back from the server
+     * since connecting.
+     *
+     * @return the round trip times
+     */
+    public LatencyHistogram getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * How long the server currently wants between tiles.
+     *
+     * @return the wait time in milliseconds
+     */
+    public int getWaitTime() {
+        return this.waitTime;
+    }
+
+    /**
+     * Answers a heartbeat from the server.
+     *
+     * @param time the time carried by the server's PING, in nanoseconds on the server's clock
+     */
+    private synchronized void pong(Long time) {
+        try {
+            this.networkOut.writeUnshared(new PlaceRequest<Long>(PlaceRequest.RequestType.PONG, time));
+            this.networkOut.flush();
+        } catch (IOException e) {
+            LOG.warn("could not answer heartbeat", "error", e);
+        }
+    }
+
+    /**
+     * The server broadcast a tile change; time it if it is one of ours
+     * and pass it to the model.
+     *
+     * @param tile the changed tile
+     */
     private void tileChanged(PlaceTile tile){
+        if (tile.getId() != 0 && this.username.equals(tile.getOwner())) {
+            Long sent = this.inFlight.remove(tile.getId());
+            if (sent != null) {
+                long elapsed = System.nanoTime() - sent;
+                this.latency.record(elapsed);
+                this.unreported.get().record(elapsed);
+            }
+        }
         this.board.tileChanged(tile);
     }
 
+    /**
+     * Every report interval, tells the server the percentiles of the
+     * round trips since the last report, if there were any.
+     */
+    private void reportLatency() {
+        while (this.goodToGo()) {
+            try {
+                Thread.sleep(REPORT_INTERVAL * 1000L);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (this.unreported.get().getCount() == 0) {
+                continue;
+            }
+            LatencyHistogram interval = this.unreported.getAndSet(new LatencyHistogram());
+            LatencyReport report = new LatencyReport(interval.getCount(), interval.getPercentile(50),
+                    interval.getPercentile(99), interval.getMax());
+            synchronized (this) {
+                try {
+                    this.networkOut.writeUnshared(new PlaceRequest<LatencyReport>(PlaceRequest.RequestType.LATENCY,
+                            report));
+                    this.networkOut.flush();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The server sent a whole new board; replace ours with it.
+     *
+     * @param board the server's board
+     */
+    private void resync(PlaceBoard board){
+        try {
+            this.board.initialize(board);
+        } catch (PlaceException e) {
+            error(e.getMessage());
+        }
+    }
+
     /**
      * Run the main client loop. Intended to be started as a separate
      * thread internally. This method is made private so that no one
@@ -235,12 +438,11 @@ public class NetworkClient {
         while ( this.goodToGo() ) {
             try {
                 PlaceRequest req = (PlaceRequest) this.networkIn.readUnshared();
-                NetworkClient.dPrint( "Net message in = \"" + req.getType() + '"' );
+                LOG.debug("message in", "type", req.getType());
 
                 switch ( req.getType() ) {
                     case TILE_CHANGED:
                         // remember to sleep(500)!!!
-                        System.out.println("Tile changed");
                         /**
                          * the return is a tile, so now user can modify their board
                          *  according to the data (tile) in req
@@ -248,7 +450,7 @@ public class NetworkClient {
                         tileChanged( (PlaceTile) req.getData() );
                         break;
                     case BOARD:
-                        error("Did not expect this response.");
+                        resync( (PlaceBoard) req.getData() );
                         break;
                     case CHANGE_TILE:
                         error("Did not expect this response.");
@@ -262,18 +464,31 @@ public class NetworkClient {
                     case ERROR:
                         error((String)req.getData());
                         break;
+                    case PING:
+                        pong((Long) req.getData());
+                        break;
+                    case PONG:
+                        break;
+                    case COOLDOWN:
+                        this.waitTime = (Integer) req.getData();
+                        LOG.debug("cooldown changed", "millis", this.waitTime);
+                        break;
+                    case LATENCY:
+                        error("Did not expect this response.");
+                        break;
                     default:
                         error("Did not expect this response.");
                         break;
                 }
             }
             catch (IOException | ClassNotFoundException e) {
-                e.printStackTrace();
-                System.out.println("You are disconnected.");
+                if (this.goodToGo()) {
+                    LOG.warn("disconnected", "error", e);
+                }
                 this.stop();
             }
         }
-        System.out.println("going to close the socket");
+        LOG.debug("closing the socket");
         this.close();
     }
 
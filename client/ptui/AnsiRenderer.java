@@ -0,0 +1,161 @@
+package place.client.ptui;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.client.model.ClientModel;
+
+import java.io.PrintStream;
+import java.util.BitSet;
+
+/**
+ * Draws the board on an ANSI terminal, two character cells per tile in the tile's true RGB color.  After the first
+ * full drawing only the tiles that changed are redrawn, by moving the cursor to them, and redrawing happens at most
+ * a fixed number of times a second however fast tiles arrive.
+ */
+public class AnsiRenderer {
+    /**
+     * The most frames drawn per second.
+     */
+    private static final int MAX_FPS = 20;
+    /**
+     * The escape that starts a tile of each color, indexed by color number.
+     */
+    private static final String[] CELLS = new String[PlaceColor.TOTAL_COLORS];
+    /**
+     * Escapes to save and restore the cursor, so typing at the prompt is not disturbed.
+     */
+    private static final String SAVE_CURSOR = "\u001b7", RESTORE_CURSOR = "\u001b8";
+    /**
+     * Escape to reset colors.
+     */
+    private static final String RESET = "\u001b[0m";
+
+    static {
+        for (PlaceColor color : PlaceColor.values()) {
+            CELLS[color.getNumber()] = "\u001b[48;2;" + color.getRed() + ';' + color.getGreen() + ';'
+                    + color.getBlue() + "m  ";
+        }
+    }
+
+    /**
+     * The model holding the board.
+     */
+    private ClientModel model;
+    /**
+     * Where the terminal output goes.
+     */
+    private PrintStream out;
+    /**
+     * Tiles changed since the last frame, by row * DIM + col.
+     */
+    private BitSet dirty;
+    /**
+     * Set when the whole board must be drawn on the next frame.
+     */
+    private boolean all;
+
+    /**
+     * Create a renderer which draws the whole board on its first frame.
+     *
+     * @param model the model holding the board
+     * @param out the terminal
+     */
+    public AnsiRenderer(ClientModel model, PrintStream out) {
+        this.model = model;
+        this.out = out;
+        this.dirty = new BitSet();
+        this.all = true;
+    }
+
+    /**
+     * Start the thread which draws frames.
+     */
+    public void start() {
+        Thread frames = new Thread(this::run);
+        frames.setDaemon(true);
+        frames.start();
+    }
+
+    /**
+     * Mark a tile to be redrawn on the next frame.
+     *
+     * @param tile the changed tile
+     */
+    public synchronized void tileChanged(PlaceTile tile) {
+        this.dirty.set(tile.getRow() * this.model.getDIM() + tile.getCol());
+    }
+
+    /**
+     * Mark the whole board to be redrawn on the next frame.
+     */
+    public synchronized void boardReplaced() {
+        this.all = true;
+    }
+
+    /**
+     * Tell how many lines the board takes up, so a prompt can go underneath.
+     *
+     * @return the line below the board, counting from 1
+     */
+    public int promptLine() {
+        return this.model.getDIM() + 2;
+    }
+
+    /**
+     * Draw a frame whenever something changed, at most MAX_FPS times a second.
+     */
+    private void run() {
+        while (true) {
+            try {
+                Thread.sleep(1000 / MAX_FPS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            drawFrame();
+        }
+    }
+
+    /**
+     * Draw everything marked since the last frame with a single write.
+     */
+    private void drawFrame() {
+        BitSet changed;
+        boolean whole;
+        synchronized (this) {
+            changed = this.dirty;
+            whole = this.all;
+            if (!whole && changed.isEmpty()) {
+                return;
+            }
+            this.dirty = new BitSet();
+            this.all = false;
+        }
+
+        int dim = this.model.getDIM();
+        StringBuilder frame = new StringBuilder(SAVE_CURSOR);
+        if (whole) {
+            PlaceColor[] colors = this.model.copyColors(0, 0, dim, dim, new PlaceColor[dim * dim]);
+            frame.append("\u001b[H");
+            for (int row = 0; row < dim; ++row) {
+                for (int col = 0; col < dim; ++col) {
+                    frame.append(CELLS[colors[row * dim + col].getNumber()]);
+                }
+                frame.append(RESET).append("\u001b[K\n");
+            }
+        } else {
+            int lastRow = -1, lastCol = -2;
+            for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+                int row = i / dim, col = i % dim;
+                if (row != lastRow || col != lastCol + 1) {
+                    frame.append("\u001b[").append(row + 1).append(';').append(col * 2 + 1).append('H');
+                }
+                frame.append(CELLS[this.model.getColor(row, col).getNumber()]);
+                lastRow = row;
+                lastCol = col;
+            }
+        }
+        frame.append(RESET).append(RESTORE_CURSOR);
+        this.out.print(frame);
+        this.out.flush();
+    }
+}
@@ -1,13 +1,19 @@
 package place.client.ptui;
 
+import place.PlaceBoard;
 import place.PlaceColor;
 import place.PlaceException;
+import place.PlaceLog;
 import place.PlaceTile;
+import place.client.model.BoardListener;
+import place.client.model.ChangeBatch;
 import place.client.model.ClientModel;
 import place.client.network.NetworkClient;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 
 /**
@@ -20,7 +26,11 @@ import java.util.*;
  * @author Yu Qi Wu
  * @author Eve Cho
  */
-public class PlacePTUI extends ConsoleApplication implements Observer {
+public class PlacePTUI extends ConsoleApplication implements BoardListener {
+    /**
+     * Where diagnostics go.
+     */
+    private static final PlaceLog LOG = PlaceLog.get(PlacePTUI.class);
     /**
      * The model which is used to house the board.
      */
@@ -37,6 +47,14 @@ public class PlacePTUI extends ConsoleApplication implements Observer {
      * The connection to the server through a NetworkClient.
      */
     private NetworkClient serverConn;
+    /**
+     * Draws the board incrementally in ANSI mode, or null to print the whole board on each change.
+     */
+    private AnsiRenderer ansi;
+    /**
+     * The script to stream commands from, "-" for standard input, or null when interactive.
+     */
+    private String script;
 
     /**
      * A simple synchronized go method to get the status of the program.
@@ -59,6 +77,10 @@ public class PlacePTUI extends ConsoleApplication implements Observer {
         String host = args.get(0);
         int port = Integer.parseInt(args.get(1));
         this.username = args.get(2);
+        boolean useAnsi = args.size() > 3 && args.get(3).equals("--ansi");
+        if (args.size() > 4 && args.get(3).equals("--script")) {
+            this.script = args.get(4);
+        }
 
         this.model = new ClientModel();
 
@@ -66,12 +88,24 @@ public class PlacePTUI extends ConsoleApplication implements Observer {
             this.serverConn = new NetworkClient(host, port, username, model);
         } catch (PlaceException e) {
             this.serverConn.close();
-            e.printStackTrace();
+            LOG.error("could not join server", "error", e);
         }
 
         this.serverConn.start();
 
-        this.model.addObserver(this);
+        Executor printer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (useAnsi) {
+            this.ansi = new AnsiRenderer(this.model, System.out);
+            System.out.print("\u001b[2J");
+            this.ansi.start();
+        }
+        if (this.script == null) {
+            this.model.addListener(this, printer);
+        }
 
         this.go = true;
     }
@@ -83,7 +117,15 @@ public class PlacePTUI extends ConsoleApplication implements Observer {
      */
     @Override
     public void go(Scanner userIn, PrintWriter userOut) {
-        this.printBoard();
+        if (this.script != null) {
+            this.runScript();
+            return;
+        }
+        if (this.ansi != null) {
+            userOut.print("\u001b[" + this.ansi.promptLine() + ";1H");
+        } else {
+            this.printBoard();
+        }
         userOut.println("Change tile: row col color?");
 
         while (this.goStat() && this.serverConn.goodToGo()) {
@@ -115,6 +157,21 @@ public class PlacePTUI extends ConsoleApplication implements Observer {
         }
     }
 
+    /**
+     * Streams the commands in the script to the server instead of
+     * prompting for them.
+     */
+    private void runScript() {
+        ScriptRunner runner = new ScriptRunner(this.model, this.serverConn, PlacePTUI.username, System.out);
+        try (BufferedReader in = this.script.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in))
+                : new BufferedReader(new FileReader(this.script))) {
+            runner.run(in);
+        } catch (IOException e) {
+            this.serverConn.error("Cannot read script " + this.script + ": " + e.getMessage());
+        }
+    }
+
     /**
      * PTUI is closing, so close the network connection. Client will
      * get the message.
@@ -135,23 +192,50 @@ public class PlacePTUI extends ConsoleApplication implements Observer {
 
 
     /**
-     * Updating the board base on the model (Observable)
-     * @param o The observer
-     * @param arg The argument
+     * Reprinting the board once for a whole batch of changes from the model.
+     * Printing happens on its own thread, so tiles keep arriving while it prints.
+     * @param batch The changed tiles
      */
     @Override
-    public void update(Observable o, Object arg) {
-        assert o == this.model: "Update from non-board Observable";
-
-        this.refresh();
+    public void tilesChanged(ChangeBatch batch) {
+        if (this.ansi != null) {
+            for (PlaceTile tile : batch.getTiles()) {
+                this.ansi.tileChanged(tile);
+            }
+        } else {
+            this.refresh();
+        }
+    }
 
+    /**
+     * Reprinting the board after the model resynced it.
+     * @param board The new board
+     * @param sequence The model's change sequence number
+     */
+    @Override
+    public void boardReplaced(PlaceBoard board, long sequence) {
+        if (this.ansi != null) {
+            this.ansi.boardReplaced();
+        } else {
+            this.refresh();
+        }
     }
 
     /**
-     * Prints the state of the current board
+     * Prints the state of the current board, from a snapshot so tiles arriving
+     * while it prints cannot tear it
      */
     private void printBoard() {
-        System.out.println(this.model.getBoard());
+        int dim = this.model.getDIM();
+        PlaceColor[] colors = this.model.copyColors(0, 0, dim, dim, new PlaceColor[dim * dim]);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < colors.length; ++i) {
+            if (i % dim == 0) {
+                builder.append("\n");
+            }
+            builder.append(colors[i].getHex());
+        }
+        System.out.println(builder);
     }
 
     /**
@@ -159,8 +243,9 @@ public class PlacePTUI extends ConsoleApplication implements Observer {
      * @param args arguments
      */
     public static void main(String[] args) {
-        if (args.length != 3) {
-            System.out.println("Usage: java PlaceClient host port username");
+        if (args.length != 3 && !(args.length == 4 && args[3].equals("--ansi"))
+                && !(args.length == 5 && args[3].equals("--script"))) {
+            System.out.println("Usage: java PlaceClient host port username [--ansi | --script file]");
             System.exit(0);
         }
         else{
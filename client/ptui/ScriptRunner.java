@@ -0,0 +1,209 @@
+package place.client.ptui;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.client.model.BoardListener;
+import place.client.model.ChangeBatch;
+import place.client.model.ClientModel;
+import place.client.network.NetworkClient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams {@code row col color} commands from a file or pipe to the server without any prompting. Tiles go out as
+ * fast as the server's cooldown allows, bad lines are counted and skipped instead of ending the run, and the board is
+ * never printed. When the input runs out a summary of throughput and rejects is printed.
+ *
+ * Blank lines and lines starting with {@code #} are ignored, and a line of {@code -1} ends the script early.
+ */
+public class ScriptRunner implements BoardListener {
+    /**
+     * How many bad lines are described before they are only counted.
+     */
+    private static final int REPORTED_ERRORS = 10;
+    /**
+     * How long to wait after the last tile for the server to confirm the stragglers, in milliseconds.
+     */
+    private static final int CONFIRM_GRACE = 2000;
+
+    /**
+     * The model holding the board.
+     */
+    private ClientModel model;
+    /**
+     * The connection to the server.
+     */
+    private NetworkClient serverConn;
+    /**
+     * The name tiles are placed under.
+     */
+    private String username;
+    /**
+     * Where the summary and bad lines are reported.
+     */
+    private PrintStream out;
+    /**
+     * Tiles sent to the server.
+     */
+    private long sent;
+    /**
+     * Lines that could not be parsed.
+     */
+    private long malformed;
+    /**
+     * Lines naming a tile off the board.
+     */
+    private long offBoard;
+    /**
+     * Tiles of ours the server has broadcast back.
+     */
+    private AtomicLong confirmed;
+
+    /**
+     * Create a runner for a connected client.
+     *
+     * @param model the model holding the board
+     * @param serverConn the connection to the server
+     * @param username the name tiles are placed under
+     * @param out where the summary and bad lines are reported
+     */
+    public ScriptRunner(ClientModel model, NetworkClient serverConn, String username, PrintStream out) {
+        this.model = model;
+        this.serverConn = serverConn;
+        this.username = username;
+        this.out = out;
+        this.confirmed = new AtomicLong();
+    }
+
+    /**
+     * Send every command in the script, then print the summary.
+     *
+     * @param in the script
+     * @throws IOException if the script cannot be read
+     */
+    public void run(BufferedReader in) throws IOException {
+        this.model.addListener(this, Runnable::run);
+        long start = System.nanoTime();
+        long lineNumber = 0;
+        String line;
+        try {
+            while (this.serverConn.goodToGo() && (line = in.readLine()) != null) {
+                ++lineNumber;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (line.equals("-1")) {
+                    break;
+                }
+                PlaceTile tile = parse(line, lineNumber);
+                if (tile != null) {
+                    this.serverConn.sendTileWhenReady(tile);
+                    ++this.sent;
+                }
+            }
+            long deadline = System.currentTimeMillis() + CONFIRM_GRACE;
+            while (this.confirmed.get() < this.sent && System.currentTimeMillis() < deadline
+                    && this.serverConn.goodToGo()) {
+                Thread.sleep(50);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.model.removeListener(this);
+        }
+        report(lineNumber, System.nanoTime() - start);
+    }
+
+    /**
+     * Turn a line into a tile, counting and describing it if it is bad.
+     *
+     * @param line the trimmed line
+     * @param lineNumber where the line is in the script
+     * @return the tile, or null if the line is bad
+     */
+    private PlaceTile parse(String line, long lineNumber) {
+        String[] command = line.split("\\s+");
+        if (command.length != 3 || command[2].length() != 1 || !NetworkClient.color.contains(command[2])) {
+            rejectLine(lineNumber, line, "expected row col color");
+            ++this.malformed;
+            return null;
+        }
+        int row, col;
+        try {
+            row = Integer.parseInt(command[0]);
+            col = Integer.parseInt(command[1]);
+        } catch (NumberFormatException e) {
+            rejectLine(lineNumber, line, "row and column must be numbers");
+            ++this.malformed;
+            return null;
+        }
+        int dim = this.model.getDIM();
+        if (row < 0 || row >= dim || col < 0 || col >= dim) {
+            rejectLine(lineNumber, line, "off the board");
+            ++this.offBoard;
+            return null;
+        }
+        PlaceColor color = NetworkClient.whatColor(command[2]);
+        return new PlaceTile(row, col, this.username, color, System.currentTimeMillis());
+    }
+
+    /**
+     * Describe a bad line, until enough have been described.
+     *
+     * @param lineNumber where the line is in the script
+     * @param line the line
+     * @param reason what is wrong with it
+     */
+    private void rejectLine(long lineNumber, String line, String reason) {
+        if (this.malformed + this.offBoard < REPORTED_ERRORS) {
+            this.out.println("line " + lineNumber + ": " + reason + ": " + line);
+        }
+    }
+
+    /**
+     * Print how the run went.
+     *
+     * @param lines how many lines were read
+     * @param elapsed how long the run took, in nanoseconds
+     */
+    private void report(long lines, long elapsed) {
+        double seconds = elapsed / 1e9;
+        long confirmed = this.confirmed.get();
+        this.out.println("Script done: " + lines + " lines in " + String.format("%.1f", seconds) + " s");
+        this.out.println("  sent " + this.sent + " tiles ("
+                + String.format("%.2f", seconds > 0 ? this.sent / seconds : 0) + " per second)");
+        this.out.println("  confirmed " + confirmed + ", unconfirmed " + Math.max(0, this.sent - confirmed));
+        this.out.println("  round trip " + this.serverConn.getLatency());
+        this.out.println("  rejected " + (this.malformed + this.offBoard) + " lines (" + this.malformed
+                + " malformed, " + this.offBoard + " off the board)");
+    }
+
+    /**
+     * Count the tiles of ours the server has broadcast.
+     *
+     * @param batch the tiles that changed
+     */
+    @Override
+    public void tilesChanged(ChangeBatch batch) {
+        for (PlaceTile tile : batch.getTiles()) {
+            if (this.username.equals(tile.getOwner())) {
+                this.confirmed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A resync carries no per-tile confirmations, so there is nothing to count.
+     *
+     * @param board the new board
+     * @param sequence the model's sequence after the swap
+     */
+    @Override
+    public void boardReplaced(PlaceBoard board, long sequence) {
+    }
+}
@@ -0,0 +1,166 @@
+package place.network;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies into log-linear buckets, so percentiles can be read off any number of samples in fixed memory.
+ * Each power of two of nanoseconds is split into 32 buckets, which keeps every percentile within about 3% of the
+ * true value.  Samples may be recorded from many threads at once.
+ */
+public class LatencyHistogram {
+    /**
+     * How many bits of each sample pick the bucket within its power of two.
+     */
+    private static final int SUB_BITS = 5;
+    /**
+     * Buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /**
+     * Every bucket, enough for any positive long.
+     */
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    /**
+     * How many samples fell into each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    /**
+     * How many samples there are.
+     */
+    private final LongAdder total = new LongAdder();
+    /**
+     * The sum of all samples, in nanoseconds.
+     */
+    private final LongAdder sum = new LongAdder();
+    /**
+     * The largest sample, in nanoseconds.
+     */
+    private volatile long max;
+
+    /**
+     * Count one sample.
+     *
+     * @param nanos the latency in nanoseconds; negative samples count as zero
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        this.counts.incrementAndGet(bucketOf(nanos));
+        this.total.increment();
+        this.sum.add(nanos);
+        long seen = this.max;
+        while (nanos > seen) {
+            synchronized (this) {
+                if (nanos > this.max) {
+                    this.max = nanos;
+                }
+            }
+            seen = this.max;
+        }
+    }
+
+    /**
+     * Tell how many samples have been counted.
+     *
+     * @return the number of samples
+     */
+    public long getCount() {
+        return this.total.sum();
+    }
+
+    /**
+     * Tell the mean of the samples.
+     *
+     * @return the mean in nanoseconds, or 0 if there are none
+     */
+    public long getMean() {
+        long count = this.total.sum();
+        return count == 0 ? 0 : this.sum.sum() / count;
+    }
+
+    /**
+     * Tell the largest sample.
+     *
+     * @return the largest sample in nanoseconds, or 0 if there are none
+     */
+    public long getMax() {
+        return this.max;
+    }
+
+    /**
+     * Find the latency below which a share of the samples fall.
+     *
+     * @param percentile the share, from 0 to 100
+     * @return the upper edge of the bucket holding that sample, in nanoseconds, or 0 if there are none
+     */
+    public long getPercentile(double percentile) {
+        long count = this.total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+            seen += this.counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(this.max, upperEdge(bucket));
+            }
+        }
+        return this.max;
+    }
+
+    /**
+     * Forget every sample.
+     */
+    public synchronized void reset() {
+        for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+            this.counts.set(bucket, 0);
+        }
+        this.total.reset();
+        this.sum.reset();
+        this.max = 0;
+    }
+
+    /**
+     * Describe the samples in milliseconds, such as {@code n=120 mean=3.1 p50=2.9 p90=4.8 p99=9.5 p99.9=12.0
+     * max=12.3}.
+     *
+     * @return the summary
+     */
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f ms", getCount(),
+                getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(90) / 1e6, getPercentile(99) / 1e6,
+                getPercentile(99.9) / 1e6, getMax() / 1e6);
+    }
+
+    /**
+     * Find the bucket a sample falls into.
+     *
+     * @param nanos the sample, not negative
+     * @return the bucket
+     */
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Find the largest sample a bucket holds.
+     *
+     * @param bucket the bucket
+     * @return the sample, in nanoseconds
+     */
+    private static long upperEdge(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,78 @@
+package place.network;
+
+import java.io.Serializable;
+
+/**
+ * How long a client's tile changes took to come back from the server as
+ * TILE_CHANGED, summarized over one reporting interval.  Times are in
+ * nanoseconds, measured by the client from sending the CHANGE_TILE to
+ * seeing its echo.
+ */
+public class LatencyReport implements Serializable {
+    /** how many tile changes came back in the interval */
+    private long count;
+    /** the median round trip */
+    private long p50;
+    /** the 99th percentile round trip */
+    private long p99;
+    /** the longest round trip */
+    private long max;
+
+    /**
+     * Create a report.
+     *
+     * @param count how many tile changes came back
+     * @param p50 the median round trip, in nanoseconds
+     * @param p99 the 99th percentile round trip, in nanoseconds
+     * @param max the longest round trip, in nanoseconds
+     */
+    public LatencyReport(long count, long p50, long p99, long max) {
+        this.count = count;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    /**
+     * Get how many tile changes came back in the interval.
+     *
+     * @return the count
+     */
+    public long getCount() { return this.count; }
+
+    /**
+     * Get the median round trip.
+     *
+     * @return nanoseconds
+     */
+    public long getP50() { return this.p50; }
+
+    /**
+     * Get the 99th percentile round trip.
+     *
+     * @return nanoseconds
+     */
+    public long getP99() { return this.p99; }
+
+    /**
+     * Get the longest round trip.
+     *
+     * @return nanoseconds
+     */
+    public long getMax() { return this.max; }
+
+    /**
+     * Utility method for debugging only.
+     *
+     * @return the report as a string
+     */
+    @Override
+    public String toString() {
+        return "LatencyReport{" +
+                "count=" + this.count +
+                ", p50=" + this.p50 +
+                ", p99=" + this.p99 +
+                ", max=" + this.max +
+                '}';
+    }
+}
@@ -19,7 +19,8 @@ public interface PlaceExchange {
     /**
      * After a successful client login, the server will send the current
      * Board to the client.  This is only sent once - afterwards the
-     * only information transmitted are the tile changes.
+     * only information transmitted are the tile changes.  A
+     * client treats any later BOARD as a resync of its whole board.
      */
     public static final String BOARD = "BOARD";
 
@@ -59,4 +60,50 @@ public interface PlaceExchange {
      * a tile change arrives.
      */
     public static final String TILE_CHANGED = "TILE_CHANGED";
+
+    /**
+     * Used by a replica server to subscribe to a primary's change log.
+     * The replica sends its name; the primary answers with a REPLICATE
+     * holding the sequence number of the snapshot, followed by the BOARD
+     * snapshot itself.
+     */
+    public static final String REPLICATE = "REPLICATE";
+
+    /**
+     * Used by a primary server to ship one sequenced tile change to its
+     * replicas.  It will contain a PlaceChange object.
+     */
+    public static final String REPLICA_CHANGE = "REPLICA_CHANGE";
+
+    /**
+     * A heartbeat.  Either side may send it when the connection has been
+     * quiet for a while, and the other side must answer with a PONG.  It
+     * will contain the sender's current time in nanoseconds, from its
+     * monotonic clock (System.nanoTime), which only the sender can read
+     * back.
+     */
+    public static final String PING = "PING";
+
+    /**
+     * The answer to a PING.  It will contain the time from the PING it
+     * answers.
+     */
+    public static final String PONG = "PONG";
+
+    /**
+     * Used by the server to tell clients how many milliseconds they must
+     * wait between tile changes.  It is sent after the BOARD on login and
+     * again whenever the server changes the cooldown to match its load.
+     * A CHANGE_TILE sent sooner than this is dropped.  It will contain
+     * an Integer.
+     */
+    public static final String COOLDOWN = "COOLDOWN";
+
+    /**
+     * How many requests either side writes before resetting its object
+     * stream.  Requests are written unshared, but the tiles inside them
+     * are not, so without a reset both ends of a connection would keep
+     * every tile ever sent on it.
+     */
+    public static final int RESET_INTERVAL = 1024;
 }
@@ -14,6 +14,12 @@ import java.io.Serializable;
  *      LOGIN: String<br>
  *      LOGIN_SUCCESS: String<br>
  *      TILE_CHANGED: PlaceTile object<br>
+ *      REPLICATE: String (replica to primary), Long (primary to replica)<br>
+ *      REPLICA_CHANGE: PlaceChange object<br>
+ *      PING: Long<br>
+ *      PONG: Long, ReplicaPong object (primary to replica)<br>
+ *      COOLDOWN: Integer<br>
+ *      LATENCY: LatencyReport object<br>
  *
  * @author Sean Strout @ RIT CS
  */
@@ -22,7 +28,8 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
         /**
          * After a successful client login, the server will send the current
          * Board to the client.  This is only sent once - afterwards the
-         * only information transmitted are the tile changes.
+         * only information transmitted are the tile changes.  A
+         * client treats any later BOARD as a resync of its whole board.
          */
         BOARD,
 
@@ -61,7 +68,53 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
          * The clients should update their view of the board each time
          * a tile change arrives.
          */
-        TILE_CHANGED
+        TILE_CHANGED,
+
+        /**
+         * Used by a replica server to subscribe to a primary's change log.
+         * The replica sends its name; the primary answers with a REPLICATE
+         * holding the sequence number of the snapshot, followed by the BOARD
+         * snapshot itself.
+         */
+        REPLICATE,
+
+        /**
+         * Used by a primary server to ship one sequenced tile change to its
+         * replicas.  It will contain a PlaceChange object.
+         */
+        REPLICA_CHANGE,
+
+        /**
+         * A heartbeat.  Either side may send it when the connection has been
+         * quiet for a while, and the other side must answer with a PONG.  It
+         * will contain the sender's current time in nanoseconds, from its
+         * monotonic clock (System.nanoTime), which only the sender can read
+         * back.
+         */
+        PING,
+
+        /**
+         * The answer to a PING.  It will contain the time from the PING it
+         * answers.  A primary answering a replica also sends the sequence
+         * number of its latest change, in a ReplicaPong.
+         */
+        PONG,
+
+        /**
+         * Used by the server to tell clients how many milliseconds they must
+         * wait between tile changes.  It is sent after the BOARD on login and
+         * again whenever the server changes the cooldown to match its load.
+         * A CHANGE_TILE sent sooner than this is dropped.  It will contain
+         * an Integer.
+         */
+        COOLDOWN,
+
+        /**
+         * Used by a client to tell the server how long its tile changes took
+         * to come back as TILE_CHANGED over the last interval.  It will
+         * contain a LatencyReport object.
+         */
+        LATENCY
     }
 
     /** The request type */
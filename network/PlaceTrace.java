@@ -0,0 +1,290 @@
+package place.network;
+
+import place.PlaceColor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A trace is a compact file of CHANGE_TILE requests as a server received them, for replaying the same traffic
+ * against another server later.  After a header, the file is a list of records, each starting with a tag byte:
+ * <ul>
+ *     <li>USER: the id given to a username and the name itself, written the first time the user appears;</li>
+ *     <li>PLACE: microseconds since the previous placement, the user's id, the row and column, and the color
+ *     number.</li>
+ * </ul>
+ * Numbers are written as variable-length integers, so a typical placement takes about six bytes.
+ */
+public final class PlaceTrace {
+    /** The first four bytes of every trace, "PLTR" */
+    private static final int MAGIC = 0x504C5452;
+    /** The version of the format */
+    private static final int VERSION = 1;
+    /** Tag of a record naming a user */
+    private static final int USER = 0;
+    /** Tag of a record holding a placement */
+    private static final int PLACE = 1;
+
+    /**
+     * Nothing to construct; see {@link Writer} and {@link Reader}.
+     */
+    private PlaceTrace() {
+    }
+
+    /**
+     * One placement read from a trace.
+     */
+    public static class Entry {
+        /** microseconds since the trace started */
+        private long micros;
+        /** who placed the tile */
+        private String user;
+        /** the row */
+        private int row;
+        /** the column */
+        private int col;
+        /** the color */
+        private PlaceColor color;
+
+        /**
+         * Create an entry.
+         *
+         * @param micros microseconds since the trace started
+         * @param user who placed the tile
+         * @param row the row
+         * @param col the column
+         * @param color the color
+         */
+        public Entry(long micros, String user, int row, int col, PlaceColor color) {
+            this.micros = micros;
+            this.user = user;
+            this.row = row;
+            this.col = col;
+            this.color = color;
+        }
+
+        /**
+         * Get when the placement arrived.
+         *
+         * @return microseconds since the trace started
+         */
+        public long getMicros() { return this.micros; }
+
+        /**
+         * Get who placed the tile.
+         *
+         * @return the username
+         */
+        public String getUser() { return this.user; }
+
+        /**
+         * Get the tile's row.
+         *
+         * @return the row
+         */
+        public int getRow() { return this.row; }
+
+        /**
+         * Get the tile's column.
+         *
+         * @return the column
+         */
+        public int getCol() { return this.col; }
+
+        /**
+         * Get the tile's color.
+         *
+         * @return the color
+         */
+        public PlaceColor getColor() { return this.color; }
+    }
+
+    /**
+     * Writes a trace.  Not thread safe; one thread should do all the writing.
+     */
+    public static class Writer implements Closeable {
+        /** the file */
+        private DataOutputStream out;
+        /** the id given to each user so far */
+        private Map<String, Integer> users = new HashMap<>();
+        /** when the previous placement arrived, in microseconds */
+        private long previous;
+
+        /**
+         * Create a trace file, replacing any file already there.
+         *
+         * @param file the file name
+         * @throws IOException if the file cannot be created
+         */
+        public Writer(String file) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(VERSION);
+        }
+
+        /**
+         * Write one placement.
+         *
+         * @param micros when it arrived, in microseconds since the trace started; never earlier than the last
+         * @param user who placed the tile
+         * @param row the row
+         * @param col the column
+         * @param color the color
+         * @throws IOException if the file cannot be written
+         */
+        public void write(long micros, String user, int row, int col, PlaceColor color) throws IOException {
+            Integer id = this.users.get(user);
+            if (id == null) {
+                id = this.users.size();
+                this.users.put(user, id);
+                this.out.writeByte(USER);
+                writeNumber(id);
+                this.out.writeUTF(user);
+            }
+            this.out.writeByte(PLACE);
+            writeNumber(Math.max(0, micros - this.previous));
+            writeNumber(id);
+            writeNumber(row);
+            writeNumber(col);
+            this.out.writeByte(color.getNumber());
+            this.previous = Math.max(this.previous, micros);
+        }
+
+        /**
+         * Push everything written so far to the file.
+         *
+         * @throws IOException if the file cannot be written
+         */
+        public void flush() throws IOException {
+            this.out.flush();
+        }
+
+        /**
+         * Finish the file.
+         *
+         * @throws IOException if the file cannot be written
+         */
+        @Override
+        public void close() throws IOException {
+            this.out.close();
+        }
+
+        /**
+         * Write a number that is not negative, seven bits to a byte, low bits first.
+         *
+         * @param value the number
+         * @throws IOException if the file cannot be written
+         */
+        private void writeNumber(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                this.out.writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.out.writeByte((int) value);
+        }
+    }
+
+    /**
+     * Reads a trace.
+     */
+    public static class Reader implements Closeable {
+        /** the file */
+        private DataInputStream in;
+        /** the username of each id */
+        private List<String> users = new ArrayList<>();
+        /** when the previous placement arrived, in microseconds */
+        private long previous;
+
+        /**
+         * Open a trace file.
+         *
+         * @param file the file name
+         * @throws IOException if the file cannot be read or is not a trace
+         */
+        public Reader(String file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            if (this.in.readInt() != MAGIC || this.in.readInt() != VERSION) {
+                this.in.close();
+                throw new IOException(file + " is not a version " + VERSION + " Place trace");
+            }
+        }
+
+        /**
+         * Read the next placement.
+         *
+         * @return the placement, or null at the end of the trace
+         * @throws IOException if the file cannot be read or is damaged
+         */
+        public Entry next() throws IOException {
+            while (true) {
+                int tag = this.in.read();
+                if (tag < 0) {
+                    return null;
+                }
+                try {
+                    if (tag == USER) {
+                        int id = (int) readNumber();
+                        if (id != this.users.size()) {
+                            throw new IOException("Trace names user " + id + " out of order");
+                        }
+                        this.users.add(this.in.readUTF());
+                    } else if (tag == PLACE) {
+                        this.previous += readNumber();
+                        int id = (int) readNumber();
+                        int row = (int) readNumber();
+                        int col = (int) readNumber();
+                        int color = this.in.readUnsignedByte();
+                        if (id >= this.users.size() || color >= PlaceColor.TOTAL_COLORS) {
+                            throw new IOException("Damaged placement in trace");
+                        }
+                        return new Entry(this.previous, this.users.get(id), row, col, PlaceColor.values()[color]);
+                    } else {
+                        throw new IOException("Unknown record " + tag + " in trace");
+                    }
+                } catch (EOFException e) {
+                    // a server that died mid-write leaves half a record; the trace ends before it
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Close the file.
+         *
+         * @throws IOException if the file cannot be closed
+         */
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+
+        /**
+         * Read a number written by {@link Writer#writeNumber}.
+         *
+         * @return the number
+         * @throws IOException if the file cannot be read
+         */
+        private long readNumber() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = this.in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Number too long in trace");
+        }
+    }
+}
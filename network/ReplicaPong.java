@@ -0,0 +1,54 @@
+package place.network;
+
+import java.io.Serializable;
+
+/**
+ * A primary's answer to a replica's PING.  Besides the time from the PING,
+ * so the replica can measure the round trip, it carries the sequence number
+ * of the primary's latest change, so the replica can tell how many changes
+ * it is behind even while they are still on their way.
+ */
+public class ReplicaPong implements Serializable {
+    /** the time from the PING this answers */
+    private long time;
+    /** the sequence number of the primary's latest change */
+    private long sequence;
+
+    /**
+     * Create an answer to a replica's PING.
+     *
+     * @param time the time from the PING
+     * @param sequence the sequence number of the primary's latest change
+     */
+    public ReplicaPong(long time, long sequence) {
+        this.time = time;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Get the time from the PING this answers.
+     *
+     * @return the time, in nanoseconds on the PING sender's monotonic clock
+     */
+    public long getTime() { return this.time; }
+
+    /**
+     * Get the sequence number of the primary's latest change when it answered.
+     *
+     * @return the sequence number
+     */
+    public long getSequence() { return this.sequence; }
+
+    /**
+     * Utility method for debugging only.
+     *
+     * @return the answer as a string
+     */
+    @Override
+    public String toString() {
+        return "ReplicaPong{" +
+                "time=" + this.time +
+                ", sequence=" + this.sequence +
+                '}';
+    }
+}
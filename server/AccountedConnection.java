@@ -0,0 +1,101 @@
+package place.server;
+
+import place.network.PlaceRequest;
+
+import java.io.IOException;
+
+/**
+ * A Connection that charges the CPU time and memory of every write and flush, on whatever thread does them, to the
+ * cost of the connection it wraps.  Reads are passed straight through; they happen on the connection's reader thread,
+ * which is charged as a whole.
+ */
+public class AccountedConnection implements Connection
+{
+    /**
+     * The connection doing the writing
+     */
+    private Connection connection;
+    /**
+     * Where the writing is charged
+     */
+    private ConnectionAccounting.Cost cost;
+
+    /**
+     * Wraps a connection.
+     *
+     * @param connection the connection doing the writing
+     * @param cost where the writing is charged
+     */
+    public AccountedConnection(Connection connection, ConnectionAccounting.Cost cost)
+    {
+        this.connection = connection;
+        this.cost = cost;
+    }
+
+    /**
+     * Writes a request and charges it.
+     *
+     * @param request the request
+     *
+     * @throws IOException if the connection is broken
+     */
+    @Override
+    public void write(PlaceRequest<?> request) throws IOException
+    {
+        long cpu = ConnectionAccounting.cpuNow();
+        long allocated = ConnectionAccounting.allocatedNow();
+        try
+        {
+            this.connection.write(request);
+        }
+        finally
+        {
+            this.cost.wrote(ConnectionAccounting.cpuNow() - cpu, ConnectionAccounting.allocatedNow() - allocated);
+        }
+    }
+
+    /**
+     * Flushes the connection and charges it, without counting it as another request written.
+     *
+     * @throws IOException if the connection is broken
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        long cpu = ConnectionAccounting.cpuNow();
+        long allocated = ConnectionAccounting.allocatedNow();
+        try
+        {
+            this.connection.flush();
+        }
+        finally
+        {
+            this.cost.flushed(ConnectionAccounting.cpuNow() - cpu, ConnectionAccounting.allocatedNow() - allocated);
+        }
+    }
+
+    /**
+     * Reads the next request from the connection.
+     *
+     * @return the request
+     *
+     * @throws IOException if the connection is broken
+     * @throws ClassNotFoundException if the request is of an unknown class
+     */
+    @Override
+    public PlaceRequest<?> read() throws IOException, ClassNotFoundException
+    {
+        return this.connection.read();
+    }
+
+    /**
+     * Waits for the next request to start arriving on the connection.
+     *
+     * @throws IOException if the connection is broken or times out
+     */
+    @Override
+    public void awaitRequest() throws IOException
+    {
+        this.connection.awaitRequest();
+    }
+}
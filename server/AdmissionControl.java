@@ -0,0 +1,179 @@
+package place.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AdmissionControl keeps the number of open connections under a limit and counts what happens to connections
+ * between accept and login, so the server can shed a join storm early instead of piling up threads and streams.
+ */
+public class AdmissionControl
+{
+    /**
+     * The most connections that may be open at once
+     */
+    private final int maxConnections;
+    /**
+     * Connections currently open, including those still handshaking
+     */
+    private final AtomicInteger open;
+    /**
+     * Connections accepted off the listen queue
+     */
+    private final AtomicLong accepted;
+    /**
+     * Connections turned away because the server was full
+     */
+    private final AtomicLong rejected;
+    /**
+     * Connections dropped because they did not log in in time
+     */
+    private final AtomicLong handshakeTimeouts;
+    /**
+     * Connections that failed while their streams were being set up
+     */
+    private final AtomicLong handshakeFailures;
+    /**
+     * Connections waiting for a handshake thread
+     */
+    private final AtomicInteger waiting;
+
+    /**
+     * Constructs admission control with a connection limit.
+     *
+     * @param maxConnections the most connections that may be open at once
+     */
+    public AdmissionControl(int maxConnections)
+    {
+        this.maxConnections = maxConnections;
+        this.open = new AtomicInteger();
+        this.accepted = new AtomicLong();
+        this.rejected = new AtomicLong();
+        this.handshakeTimeouts = new AtomicLong();
+        this.handshakeFailures = new AtomicLong();
+        this.waiting = new AtomicInteger();
+    }
+
+    /**
+     * Claims a slot for a newly accepted connection.
+     *
+     * @return true if the connection may proceed; false if the server is full
+     */
+    public boolean admit()
+    {
+        this.accepted.incrementAndGet();
+        if(this.open.incrementAndGet() > this.maxConnections)
+        {
+            this.open.decrementAndGet();
+            this.rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives back the slot of a connection that has closed.
+     */
+    public void release()
+    {
+        this.open.decrementAndGet();
+    }
+
+    /**
+     * Counts a connection turned away after it was admitted, e.g. when the handshake queue is full.
+     */
+    public void rejected()
+    {
+        this.rejected.incrementAndGet();
+    }
+
+    /**
+     * Counts a connection that did not log in in time.
+     */
+    public void handshakeTimedOut()
+    {
+        this.handshakeTimeouts.incrementAndGet();
+    }
+
+    /**
+     * Counts a connection whose stream setup failed.
+     */
+    public void handshakeFailed()
+    {
+        this.handshakeFailures.incrementAndGet();
+    }
+
+    /**
+     * Counts a connection entering the handshake queue.
+     */
+    public void queued()
+    {
+        this.waiting.incrementAndGet();
+    }
+
+    /**
+     * Counts a connection leaving the handshake queue.
+     */
+    public void dequeued()
+    {
+        this.waiting.decrementAndGet();
+    }
+
+    /**
+     * Gets the number of open connections.
+     *
+     * @return open connections
+     */
+    public int getOpen() { return this.open.get(); }
+
+    /**
+     * Gets the number of connections waiting for a handshake thread.
+     *
+     * @return the handshake queue depth
+     */
+    public int getWaiting() { return this.waiting.get(); }
+
+    /**
+     * Gets the number of connections accepted so far.
+     *
+     * @return accepted connections
+     */
+    public long getAccepted() { return this.accepted.get(); }
+
+    /**
+     * Gets the number of connections turned away so far.
+     *
+     * @return rejected connections
+     */
+    public long getRejected() { return this.rejected.get(); }
+
+    /**
+     * Gets the number of connections that did not log in in time.
+     *
+     * @return handshake timeouts
+     */
+    public long getHandshakeTimeouts() { return this.handshakeTimeouts.get(); }
+
+    /**
+     * Gets the number of connections whose stream setup failed.
+     *
+     * @return handshake failures
+     */
+    public long getHandshakeFailures() { return this.handshakeFailures.get(); }
+
+    /**
+     * A one line summary of the accept queue.
+     *
+     * @return the summary
+     */
+    @Override
+    public String toString()
+    {
+        return "Connections " + getOpen() + "/" + this.maxConnections +
+                ", handshake queue " + getWaiting() +
+                ", accepted " + getAccepted() +
+                ", rejected " + getRejected() +
+                ", handshake timeouts " + getHandshakeTimeouts() +
+                ", handshake failures " + getHandshakeFailures();
+    }
+}
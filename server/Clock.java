@@ -0,0 +1,40 @@
+package place.server;
+
+/**
+ * Where the server gets the time.  Real servers use {@link #SYSTEM}; a simulation can use a clock it moves forward
+ * itself, so runs do not depend on how fast the machine is.
+ */
+public interface Clock
+{
+    /**
+     * The computer's own clock
+     */
+    Clock SYSTEM = new Clock()
+    {
+        @Override
+        public long millis()
+        {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanos()
+        {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Gets the wall clock time.
+     *
+     * @return milliseconds since midnight, January 1, 1970 UTC
+     */
+    long millis();
+
+    /**
+     * Gets a time for measuring intervals, like System.nanoTime.
+     *
+     * @return nanoseconds since some fixed point
+     */
+    long nanos();
+}
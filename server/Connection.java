@@ -0,0 +1,61 @@
+package place.server;
+
+import place.network.PlaceRequest;
+
+import java.io.IOException;
+
+/**
+ * The way the server talks to one client or replica, in both directions.  NetworkServer only ever hands requests to a
+ * Connection, and a PlaceClientThread only ever reads requests from one, so the same login, cooldown, sequencing and
+ * broadcast logic can run over a socket with object streams ({@link StreamConnection}) or entirely in memory
+ * ({@link LoopbackConnection}).
+ */
+public interface Connection
+{
+    /**
+     * Queues a request to be sent.  It may not leave until {@link #flush()}.
+     *
+     * @param request the request
+     *
+     * @throws IOException if the connection is broken
+     */
+    void write(PlaceRequest<?> request) throws IOException;
+
+    /**
+     * Sends everything written so far.
+     *
+     * @throws IOException if the connection is broken
+     */
+    void flush() throws IOException;
+
+    /**
+     * Gets how many requests have been written but not yet sent.  Connections that send as they are written have
+     * none.
+     *
+     * @return the backlog
+     */
+    default int getBacklog()
+    {
+        return 0;
+    }
+
+    /**
+     * Reads the next request from the other end, waiting for one if need be.
+     *
+     * @return the request
+     *
+     * @throws IOException if the connection is broken
+     * @throws ClassNotFoundException if the request is of a class this side does not know
+     */
+    PlaceRequest<?> read() throws IOException, ClassNotFoundException;
+
+    /**
+     * Waits until the next request starts to arrive, without reading any of it, so the reading alone can be timed.
+     * Connections that are not streamed have nothing to wait for.
+     *
+     * @throws IOException if the connection is broken or times out
+     */
+    default void awaitRequest() throws IOException
+    {
+    }
+}
@@ -0,0 +1,292 @@
+package place.server;
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ConnectionAccounting works out what each connection costs the server in CPU time and allocated memory, to find
+ * the clients that are far more expensive to serve than the rest.  Reading is charged from the counters of the
+ * connection's own reader thread, which does nothing but read and handle that client's requests, so it costs nothing
+ * on the hot path.  Writing happens on the connection's writer thread, which also serializes whatever is sent, so
+ * every write and flush through an {@link AccountedConnection} reads the current thread's counters before and after.
+ *
+ * Off unless the server is started with -Dplace.accounting=true, since reading thread counters on every write is not
+ * free.
+ */
+public class ConnectionAccounting
+{
+    /**
+     * True if connections are accounted for (-Dplace.accounting)
+     */
+    public final static boolean ENABLED = Boolean.getBoolean("place.accounting");
+    /**
+     * Where the per-thread CPU and allocation counters come from
+     */
+    private final static ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * What one connection has cost so far.
+     */
+    public static class Cost
+    {
+        /**
+         * The username, or the socket until the connection logs in
+         */
+        private volatile String name;
+        /**
+         * The id of the thread that reads this connection's requests
+         */
+        private volatile long reader = -1;
+        /**
+         * Requests read from the client
+         */
+        final LongAdder requests = new LongAdder();
+        /**
+         * Requests written to the client
+         */
+        final LongAdder writes = new LongAdder();
+        /**
+         * CPU time spent writing to the client, in nanoseconds
+         */
+        final LongAdder writeNanos = new LongAdder();
+        /**
+         * Bytes allocated writing to the client
+         */
+        final LongAdder writeBytes = new LongAdder();
+
+        /**
+         * Starts accounting for a connection.
+         *
+         * @param name what to call the connection until it logs in
+         */
+        Cost(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Names the connection after the user who logged in on it.
+         *
+         * @param name the username
+         */
+        public void setName(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Charges reading to a thread.  Must be called once, before the thread starts.
+         *
+         * @param reader the thread that reads this connection's requests
+         */
+        public void setReader(Thread reader)
+        {
+            this.reader = reader.getId();
+        }
+
+        /**
+         * Counts a request read from the client.
+         */
+        public void requestRead()
+        {
+            this.requests.increment();
+        }
+
+        /**
+         * Charges a write to the client.
+         *
+         * @param nanos CPU time it took
+         * @param bytes bytes it allocated
+         */
+        void wrote(long nanos, long bytes)
+        {
+            this.writes.increment();
+            this.writeNanos.add(nanos);
+            this.writeBytes.add(bytes);
+        }
+
+        /**
+         * Charges a flush to the client.
+         *
+         * @param nanos CPU time it took
+         * @param bytes bytes it allocated
+         */
+        void flushed(long nanos, long bytes)
+        {
+            this.writeNanos.add(nanos);
+            this.writeBytes.add(bytes);
+        }
+
+        /**
+         * Gets the CPU time the reader thread has used.
+         *
+         * @return nanoseconds, or 0 if the thread has not started or has ended
+         */
+        long getReadNanos()
+        {
+            return this.reader < 0 ? 0 : Math.max(0, THREADS.getThreadCpuTime(this.reader));
+        }
+
+        /**
+         * Gets the bytes the reader thread has allocated.
+         *
+         * @return bytes, or 0 if the thread has not started or has ended
+         */
+        long getReadBytes()
+        {
+            return this.reader < 0 ? 0 : Math.max(0, THREADS.getThreadAllocatedBytes(this.reader));
+        }
+    }
+
+    /**
+     * The connections being accounted for
+     */
+    private Set<Cost> open;
+
+    /**
+     * Creates the accounting and turns on the JVM's per-thread counters.
+     */
+    public ConnectionAccounting()
+    {
+        this.open = ConcurrentHashMap.newKeySet();
+        if(THREADS.isThreadCpuTimeSupported())
+            THREADS.setThreadCpuTimeEnabled(true);
+        if(THREADS.isThreadAllocatedMemorySupported())
+            THREADS.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * Starts accounting for a new connection.
+     *
+     * @param name what to call it until it logs in
+     *
+     * @return its cost
+     */
+    public Cost open(String name)
+    {
+        Cost cost = new Cost(name);
+        this.open.add(cost);
+        return cost;
+    }
+
+    /**
+     * Stops accounting for a connection that has closed.
+     *
+     * @param cost its cost
+     */
+    public void close(Cost cost)
+    {
+        this.open.remove(cost);
+    }
+
+    /**
+     * Gets the CPU time the current thread has used.
+     *
+     * @return nanoseconds
+     */
+    static long cpuNow()
+    {
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Gets the bytes the current thread has allocated.
+     *
+     * @return bytes
+     */
+    static long allocatedNow()
+    {
+        return THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Lists the open connections that have cost the most CPU time, reading and writing together, most expensive
+     * first.
+     *
+     * @param count how many to list
+     *
+     * @return one line per connection
+     */
+    public String[] top(int count)
+    {
+        List<Snapshot> snapshots = new ArrayList<>();
+        for(Cost cost : this.open)
+            snapshots.add(new Snapshot(cost));
+        snapshots.sort((a, b) -> Long.compare(b.readNanos + b.writeNanos, a.readNanos + a.writeNanos));
+        String[] lines = new String[Math.min(count, snapshots.size())];
+        for(int i = 0; i < lines.length; ++i)
+            lines[i] = snapshots.get(i).toString();
+        return lines;
+    }
+
+    /**
+     * A connection's cost at one moment, so it can be sorted while the connection keeps running.
+     */
+    private static class Snapshot
+    {
+        /**
+         * The username or socket
+         */
+        final String name;
+        /**
+         * CPU time reading, in nanoseconds
+         */
+        final long readNanos;
+        /**
+         * CPU time writing, in nanoseconds
+         */
+        final long writeNanos;
+        /**
+         * Bytes allocated reading
+         */
+        final long readBytes;
+        /**
+         * Bytes allocated writing
+         */
+        final long writeBytes;
+        /**
+         * Requests read
+         */
+        final long requests;
+        /**
+         * Requests written
+         */
+        final long writes;
+
+        /**
+         * Reads a connection's cost now.
+         *
+         * @param cost the connection's cost
+         */
+        Snapshot(Cost cost)
+        {
+            this.name = cost.name;
+            this.readNanos = cost.getReadNanos();
+            this.writeNanos = cost.writeNanos.sum();
+            this.readBytes = cost.getReadBytes();
+            this.writeBytes = cost.writeBytes.sum();
+            this.requests = cost.requests.sum();
+            this.writes = cost.writes.sum();
+        }
+
+        /**
+         * Describes the cost on one line.
+         *
+         * @return the line
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("%s: cpu %.1f ms (read %.1f, write %.1f), allocated %.1f KB (read %.1f, write %.1f),"
+                            + " requests %d, writes %d", this.name, (this.readNanos + this.writeNanos) / 1e6,
+                    this.readNanos / 1e6, this.writeNanos / 1e6, (this.readBytes + this.writeBytes) / 1024.0,
+                    this.readBytes / 1024.0, this.writeBytes / 1024.0, this.requests, this.writes);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package place.server;
+
+import place.PlaceLog;
+
+/**
+ * The CooldownGovernor adjusts how long users must wait between tile changes to match the server's load.  Once a
+ * second it looks at the largest tile change backlog and the slowest broadcast since it last looked, and at the most
+ * requests waiting to be sent to any one client.  Broadcasts only queue each change for the clients' writer threads,
+ * so a server whose clients cannot keep up shows it in the send backlog, not the broadcast time.  If any of the three
+ * is over its limit the cooldown is doubled, and once all are comfortably under their limits it is eased back toward
+ * the base cooldown.  Every change is sent to the clients so they slow down instead of sending tiles that get dropped.
+ */
+public class CooldownGovernor
+{
+    /**
+     * Where diagnostics go
+     */
+    private final static PlaceLog LOG = PlaceLog.get(CooldownGovernor.class);
+    /**
+     * Milliseconds users must wait between tile changes when the server is not busy
+     */
+    public final static int BASE_COOLDOWN = 500;
+    /**
+     * The longest the cooldown may grow to, in milliseconds (-Dplace.maxCooldown)
+     */
+    final static int MAX_COOLDOWN = Integer.getInteger("place.maxCooldown", 8000);
+    /**
+     * Tile changes waiting to be sequenced above which the server is overloaded (-Dplace.highBacklog)
+     */
+    final static int HIGH_BACKLOG = Integer.getInteger("place.highBacklog", 64);
+    /**
+     * Milliseconds a single broadcast may take before the server is overloaded (-Dplace.broadcastBudget)
+     */
+    final static int BROADCAST_BUDGET = Integer.getInteger("place.broadcastBudget", 50);
+    /**
+     * Requests waiting to be sent to one client above which the server is overloaded (-Dplace.highSendBacklog)
+     */
+    final static int HIGH_SEND_BACKLOG = Integer.getInteger("place.highSendBacklog", 256);
+    /**
+     * Milliseconds between adjustments
+     */
+    private final static int INTERVAL = 1000;
+
+    /**
+     * The NetworkServer whose load is watched and whose cooldown is set
+     */
+    private NetworkServer networkServer;
+    /**
+     * The sequencer whose backlog is watched
+     */
+    private PlacementScheduler scheduler;
+
+    /**
+     * Constructs a governor for a NetworkServer.
+     *
+     * @param networkServer the server to govern
+     * @param scheduler the sequencer feeding the server
+     */
+    public CooldownGovernor(NetworkServer networkServer, PlacementScheduler scheduler)
+    {
+        this.networkServer = networkServer;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Starts the thread that adjusts the cooldown.
+     */
+    public void start()
+    {
+        Thread governor = new Thread(this::run);
+        governor.setDaemon(true);
+        governor.start();
+    }
+
+    /**
+     * Works out the next cooldown from the current one and the load seen since the last adjustment.
+     *
+     * @param cooldown the current cooldown in milliseconds
+     * @param backlog the largest tile change backlog
+     * @param broadcastMillis the slowest broadcast in milliseconds
+     * @param sendBacklog the most requests waiting to be sent to any one client
+     *
+     * @return the new cooldown in milliseconds
+     */
+    static int adjust(int cooldown, int backlog, long broadcastMillis, int sendBacklog)
+    {
+        if(backlog > HIGH_BACKLOG || broadcastMillis > BROADCAST_BUDGET || sendBacklog > HIGH_SEND_BACKLOG)
+            return Math.min(MAX_COOLDOWN, cooldown * 2);
+        if(backlog <= HIGH_BACKLOG / 4 && broadcastMillis <= BROADCAST_BUDGET / 4
+                && sendBacklog <= HIGH_SEND_BACKLOG / 4)
+            return Math.max(BASE_COOLDOWN, cooldown - cooldown / 4);
+        return cooldown;
+    }
+
+    /**
+     * Adjusts the cooldown once every interval.
+     */
+    private void run()
+    {
+        while(true)
+        {
+            try
+            {
+                Thread.sleep(INTERVAL);
+            }
+            catch(InterruptedException e)
+            {
+                LOG.warn("governor interrupted", "error", e);
+                return;
+            }
+            govern();
+        }
+    }
+
+    /**
+     * Makes one adjustment from the load seen since the last, telling the users if the cooldown changes.
+     */
+    void govern()
+    {
+        int cooldown = this.networkServer.getCooldown();
+        int backlog = this.scheduler.takePeakBacklog();
+        long broadcastMillis = this.networkServer.takePeakBroadcast() / 1000000;
+        int sendBacklog = this.networkServer.getLargestSendBacklog();
+        int next = adjust(cooldown, backlog, broadcastMillis, sendBacklog);
+        if(next != cooldown)
+        {
+            LOG.info("cooldown changed", "millis", next, "backlog",
+                    String.format("%d sequencing %d sending", backlog, sendBacklog), "broadcastMillis", broadcastMillis);
+            this.networkServer.setCooldown(next);
+        }
+    }
+}
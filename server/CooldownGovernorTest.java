@@ -0,0 +1,58 @@
+package place.server;
+
+/**
+ * Checks {@link CooldownGovernor#adjust} against each kind of load, including clients falling behind in receiving
+ * while the sequencer and broadcasts look idle.  The project has no test framework, so this runs as a program.
+ *
+ * Usage: java place.server.CooldownGovernorTest; exits with 1 if a check fails.
+ */
+public class CooldownGovernorTest
+{
+    /**
+     * How many checks failed
+     */
+    private static int failures;
+
+    /**
+     * Compares a cooldown with the one expected, printing the result.
+     *
+     * @param name what is being checked
+     * @param expected the cooldown expected
+     * @param actual the cooldown adjust gave
+     */
+    private static void check(String name, int expected, int actual)
+    {
+        boolean ok = expected == actual;
+        if(!ok)
+            ++failures;
+        System.out.println((ok ? "ok    " : "FAIL  ") + name + ": expected " + expected + ", got " + actual);
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @param args unused
+     */
+    public static void main(String[] args)
+    {
+        int base = CooldownGovernor.BASE_COOLDOWN;
+        int sending = CooldownGovernor.HIGH_SEND_BACKLOG;
+
+        check("idle server stays at the base", base, CooldownGovernor.adjust(base, 0, 0, 0));
+        check("idle server eases back", 750, CooldownGovernor.adjust(1000, 0, 0, 0));
+        check("sequencer backlog lengthens", 2 * base,
+                CooldownGovernor.adjust(base, CooldownGovernor.HIGH_BACKLOG + 1, 0, 0));
+        check("slow broadcast lengthens", 2 * base,
+                CooldownGovernor.adjust(base, 0, CooldownGovernor.BROADCAST_BUDGET + 1, 0));
+        check("clients behind in receiving lengthen though broadcasts are instant", 2 * base,
+                CooldownGovernor.adjust(base, 0, 0, sending + 1));
+        check("clients thousands behind lengthen", 2 * base, CooldownGovernor.adjust(base, 0, 0, 5000));
+        check("lengthening stops at the longest cooldown", CooldownGovernor.MAX_COOLDOWN,
+                CooldownGovernor.adjust(CooldownGovernor.MAX_COOLDOWN, 0, 0, sending + 1));
+        check("clients partly behind hold the cooldown", 1000, CooldownGovernor.adjust(1000, 0, 0, sending / 2));
+        check("clients caught up let it ease back", 750, CooldownGovernor.adjust(1000, 0, 0, sending / 4));
+
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
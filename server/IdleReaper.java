@@ -0,0 +1,141 @@
+package place.server;
+
+import place.PlaceLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The IdleReaper watches every connection from a single timer wheel thread.  Each connection is kept in the slot of
+ * the wheel its next deadline falls into; when the wheel turns to that slot the connection is asked to check itself,
+ * which pings it if it has gone quiet, reaps it if it has been silent too long, or tells the wheel when to look again.
+ *
+ * Connections never reschedule themselves when they hear from their client, so reading a request costs nothing more
+ * than recording the time it arrived.
+ */
+public class IdleReaper
+{
+    /**
+     * Where diagnostics go
+     */
+    private final static PlaceLog LOG = PlaceLog.get(IdleReaper.class);
+    /**
+     * Milliseconds between turns of the wheel
+     */
+    private final static int TICK = 1000;
+    /**
+     * Number of slots in the wheel
+     */
+    private final static int WHEEL_SIZE = 64;
+
+    /**
+     * A connection waiting in the wheel, and when it wants to be checked.
+     */
+    private static class Entry
+    {
+        /**
+         * The connection to check
+         */
+        private final PlaceClientThread client;
+        /**
+         * When the connection should be checked, in milliseconds
+         */
+        private final long deadline;
+
+        /**
+         * Creates a new wheel entry.
+         *
+         * @param client the connection to check
+         * @param deadline when to check it
+         */
+        private Entry(PlaceClientThread client, long deadline)
+        {
+            this.client = client;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * The slots of the wheel
+     */
+    private List<List<Entry>> wheel;
+    /**
+     * The slot the wheel is currently on
+     */
+    private int current;
+
+    /**
+     * Constructs an empty wheel.
+     */
+    public IdleReaper()
+    {
+        this.wheel = new ArrayList<>(WHEEL_SIZE);
+        for(int i = 0; i < WHEEL_SIZE; ++i)
+            this.wheel.add(new ArrayList<>());
+        this.current = 0;
+    }
+
+    /**
+     * Starts the thread that turns the wheel.
+     */
+    public void start()
+    {
+        Thread turner = new Thread(this::run);
+        turner.setDaemon(true);
+        turner.start();
+    }
+
+    /**
+     * Puts a connection in the wheel to be checked at or shortly after a deadline.
+     *
+     * @param client the connection
+     * @param deadline when to check it, in milliseconds
+     */
+    public synchronized void schedule(PlaceClientThread client, long deadline)
+    {
+        long ticks = Math.max(1, (deadline - System.currentTimeMillis() + TICK - 1) / TICK);
+        int slot = (int) ((this.current + Math.min(ticks, WHEEL_SIZE - 1)) % WHEEL_SIZE);
+        this.wheel.get(slot).add(new Entry(client, deadline));
+    }
+
+    /**
+     * Takes the connections out of the next slot of the wheel.
+     *
+     * @return the connections that were in the slot
+     */
+    private synchronized List<Entry> advance()
+    {
+        this.current = (this.current + 1) % WHEEL_SIZE;
+        List<Entry> due = this.wheel.get(this.current);
+        this.wheel.set(this.current, new ArrayList<>());
+        return due;
+    }
+
+    /**
+     * Turns the wheel once every tick, checking the connections in each slot it reaches.  A connection whose deadline
+     * is more than one turn away is simply put back.
+     */
+    private void run()
+    {
+        while(true)
+        {
+            try
+            {
+                Thread.sleep(TICK);
+            }
+            catch(InterruptedException e)
+            {
+                LOG.warn("reaper interrupted", "error", e);
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            for(Entry entry : advance())
+            {
+                long next = entry.deadline > now ? entry.deadline : entry.client.checkIdle(now);
+                if(next > 0)
+                    schedule(entry.client, next);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package place.server;
+
+import place.network.PlaceRequest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * A Connection that hands each request straight to a receiver in the same JVM, with no socket, stream or
+ * serialization.  Requests are delivered as soon as they are written, on the writer's thread.  Requests the other end
+ * sends are {@link #deliver delivered} to an inbound queue and read from it in order.  Once closed, writes and reads
+ * fail the way a broken socket's would, so the server drops the connection.
+ */
+public class LoopbackConnection implements Connection
+{
+    /**
+     * Takes every request sent on this connection
+     */
+    private Consumer<PlaceRequest<?>> receiver;
+    /**
+     * Requests sent from the other end, waiting to be read
+     */
+    private BlockingQueue<PlaceRequest<?>> inbound;
+    /**
+     * Set once the receiver has hung up
+     */
+    private volatile boolean closed;
+
+    /**
+     * Makes a connection to a receiver.
+     *
+     * @param receiver takes every request sent on this connection
+     */
+    public LoopbackConnection(Consumer<PlaceRequest<?>> receiver)
+    {
+        this.receiver = receiver;
+        this.inbound = new LinkedBlockingQueue<>();
+    }
+
+    /**
+     * Sends a request from the other end, to be read by {@link #read()}.
+     *
+     * @param request the request
+     */
+    public void deliver(PlaceRequest<?> request)
+    {
+        this.inbound.add(request);
+    }
+
+    /**
+     * Delivers a request to the receiver.
+     *
+     * @param request the request
+     *
+     * @throws IOException if the connection has been closed
+     */
+    @Override
+    public void write(PlaceRequest<?> request) throws IOException
+    {
+        if(this.closed)
+            throw new IOException("Loopback connection closed");
+        this.receiver.accept(request);
+    }
+
+    /**
+     * Does nothing; requests are delivered as they are written.
+     *
+     * @throws IOException if the connection has been closed
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if(this.closed)
+            throw new IOException("Loopback connection closed");
+    }
+
+    /**
+     * Takes the next request delivered from the other end, waiting for one if none has been.
+     *
+     * @return the request
+     *
+     * @throws IOException if the connection has been closed, or the wait is interrupted
+     */
+    @Override
+    public PlaceRequest<?> read() throws IOException
+    {
+        if(this.closed)
+            throw new IOException("Loopback connection closed");
+        try
+        {
+            return this.inbound.take();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Loopback read interrupted");
+        }
+    }
+
+    /**
+     * Hangs up, so later writes and reads fail.
+     */
+    public void close()
+    {
+        this.closed = true;
+    }
+}
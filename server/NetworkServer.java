@@ -1,15 +1,18 @@
 package place.server;
 
 import place.PlaceBoard;
+import place.PlaceChange;
+import place.PlaceLog;
 import place.PlaceTile;
 import place.network.PlaceRequest;
 import place.network.PlaceRequest.RequestType;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.text.SimpleDateFormat;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -20,6 +23,11 @@ import java.util.Map;
  * @author Eve Cho.
  */
 public class NetworkServer {
+    /**
+     * Where diagnostics go
+     */
+    private final static PlaceLog LOG = PlaceLog.get(NetworkServer.class);
+
     /**
      * used to format the time stamp when a tile is changed
      */
@@ -28,51 +36,230 @@ public class NetworkServer {
     /**
      * Map that contains connec ted users in real-time
      * key = a username string
-     * value = user's ObjectOutputStream
+     * value = user's Connection
      */
-    private Map<String, ObjectOutputStream> users;
+    private Map<String, Connection> users;
+
+    /**
+     * Map that contains the replicas following this server's change log
+     * key = a replica name
+     * value = replica's Connection
+     */
+    private Map<String, Connection> replicas;
 
     /**
      * The PlaceBoard that is used to send to new users.
      */
     private PlaceBoard board;
 
+    /**
+     * A copy of the board to send, since connections send it after the lock is let go, or null once the board has
+     * changed.
+     */
+    private PlaceBoard snapshot;
+
+    /**
+     * The sequence number of the last change applied to the board.
+     */
+    private long sequence;
+
+    /**
+     * True if this server is a read-only replica of another server.
+     */
+    private boolean replica;
+
+    /**
+     * Milliseconds users must currently wait between tile changes.
+     */
+    private volatile int cooldown;
+
+    /**
+     * The slowest broadcast, in nanoseconds, since the governor last looked.
+     */
+    private AtomicLong peakBroadcast;
+
+    /**
+     * Where the time stamps on changes and broadcasts come from, and the time for everything serving this server.
+     */
+    private Clock clock;
+
+    /**
+     * Set to stop printing a line for every login and logout, for simulations with many users.
+     */
+    private volatile boolean quiet;
+
+    /**
+     * Counts and timings published over JMX.
+     */
+    private ServerMetrics metrics;
+
     /**
      * Constructs a NetworkServer used to communicate with clients.
      *
      * @param dim the dimension of the board once it is set up
      */
     public NetworkServer(int dim)
+    {
+        this(dim, Clock.SYSTEM);
+    }
+
+    /**
+     * Constructs a NetworkServer which takes the time from a clock of its own.
+     *
+     * @param dim the dimension of the board once it is set up
+     * @param clock where the time comes from
+     */
+    public NetworkServer(int dim, Clock clock)
     {
         this.users = new HashMap<>();
+        this.replicas = new HashMap<>();
         this.board = new PlaceBoard(dim);
+        this.sequence = 0;
+        this.replica = false;
+        this.cooldown = CooldownGovernor.BASE_COOLDOWN;
+        this.peakBroadcast = new AtomicLong();
+        this.clock = clock;
+        this.metrics = new ServerMetrics(this);
+    }
+
+    /**
+     * Constructs a read-only NetworkServer which mirrors a primary.  The board
+     * is installed from the primary's snapshot by {@link #installSnapshot}.
+     */
+    public NetworkServer()
+    {
+        this.users = new HashMap<>();
+        this.replicas = new HashMap<>();
+        this.replica = true;
+        this.cooldown = CooldownGovernor.BASE_COOLDOWN;
+        this.peakBroadcast = new AtomicLong();
+        this.clock = Clock.SYSTEM;
+        this.metrics = new ServerMetrics(this);
+    }
+
+    /**
+     * Gets the counts and timings kept for this server.
+     *
+     * @return the metrics
+     */
+    public ServerMetrics getMetrics()
+    {
+        return this.metrics;
+    }
+
+    /**
+     * Gets the most requests waiting to be sent to any one user or replica.
+     *
+     * @return the largest send backlog
+     */
+    public synchronized int getLargestSendBacklog()
+    {
+        int largest = 0;
+        for(Connection out : this.users.values())
+            largest = Math.max(largest, out.getBacklog());
+        for(Connection out : this.replicas.values())
+            largest = Math.max(largest, out.getBacklog());
+        return largest;
+    }
+
+    /**
+     * Gets the clock this server runs on, for the connections and sequencer serving it.
+     *
+     * @return the clock
+     */
+    public Clock getClock()
+    {
+        return this.clock;
+    }
+
+    /**
+     * Gets how many users are logged in.
+     *
+     * @return the number of users
+     */
+    public synchronized int getUserCount()
+    {
+        return this.users.size();
+    }
+
+    /**
+     * Turns the per-user login and logout lines off or back on.
+     *
+     * @param quiet true to stop printing them
+     */
+    public void setQuiet(boolean quiet)
+    {
+        this.quiet = quiet;
+    }
+
+    /**
+     * Tells whether this server is a read-only replica.
+     *
+     * @return true if tile changes must come from a primary
+     */
+    public boolean isReplica()
+    {
+        return this.replica;
+    }
+
+    /**
+     * Gets the sequence number of the last change applied to the board.
+     *
+     * @return the sequence number
+     */
+    public synchronized long getSequence()
+    {
+        return this.sequence;
+    }
+
+    /**
+     * Gets the dimension of the board.
+     *
+     * @return the dimension
+     */
+    public synchronized int getDIM()
+    {
+        return this.board.DIM;
+    }
+
+    /**
+     * Computes a checksum of the colors on the board, to tell whether two runs ended with the same board.
+     *
+     * @return the checksum
+     */
+    public synchronized int getBoardChecksum()
+    {
+        return this.board.toString().hashCode();
     }
 
     /**
      * Logs in a user.
      * @param usernameRequest username for a user
-     * @param out output stream for the user
+     * @param out connection to the user
      */
-    public synchronized boolean login(String usernameRequest, ObjectOutputStream out)
+    public synchronized boolean login(String usernameRequest, Connection out)
     {
         try
         {
             if(users.containsKey(usernameRequest))
             {
-                out.writeUnshared(new PlaceRequest<>(RequestType.ERROR, "Username taken"));
+                out.write(new PlaceRequest<>(RequestType.ERROR, "Username taken"));
             }
             else
             {
                 this.users.put(usernameRequest, out);
-                System.out.println(usernameRequest + " has login");
-                out.writeUnshared(new PlaceRequest<>(RequestType.LOGIN_SUCCESS, usernameRequest));
-                out.writeUnshared(new PlaceRequest<>(RequestType.BOARD, this.board));
+                if(!this.quiet)
+                    LOG.info("logged in", "user", usernameRequest);
+                out.write(new PlaceRequest<>(RequestType.LOGIN_SUCCESS, usernameRequest));
+                this.metrics.loggedIn();
+                out.write(new PlaceRequest<>(RequestType.BOARD, this.snapshot()));
+                out.write(new PlaceRequest<>(RequestType.COOLDOWN, this.cooldown));
                 return true;
             }
         }
         catch(IOException e)
         {
-            System.err.println(e);
+            LOG.warn("login failed", "user", usernameRequest, "error", e);
         }
         return false;
     }
@@ -80,16 +267,14 @@ public class NetworkServer {
     /**
      * If the user provides a invalid request, we tell them that and then shut them down
      *
-     * @param username username of the user that provided invalid request
+     * @param out the connection that provided invalid request
      * @param type type of request that gave us the issue
      *
      * @throws IOException
      */
-    public void badRequest(String username, String type) throws IOException
+    public synchronized void badRequest(Connection out, String type) throws IOException
     {
-        ObjectOutputStream out = this.users.get(username);
-
-        out.writeObject(new PlaceRequest<>(
+        out.write(new PlaceRequest<>(
                 PlaceRequest.RequestType.ERROR, "Invalid request: " + type + ". Shutting down connection.")
         );
 
@@ -97,49 +282,289 @@ public class NetworkServer {
     }
 
     /**
-     * Logs a user out
+     * Logs a user out, if the name is still logged in on this connection.  A user who has since logged in again on
+     * a new connection stays logged in.
      *
      * @param username username of the user logging out
+     * @param out the connection the user logged in on
+     */
+    public synchronized void logout(String username, Connection out)
+    {
+        if(users.remove(username, out) && !this.quiet)
+            LOG.info("logged out", "user", username);
+    }
+
+    /**
+     * Gets how long users must currently wait between tile changes.
+     *
+     * @return the cooldown in milliseconds
+     */
+    public int getCooldown()
+    {
+        return this.cooldown;
+    }
+
+    /**
+     * Changes how long users must wait between tile changes and tells every user.
+     *
+     * @param cooldown the new cooldown in milliseconds
      */
-    public void logout(String username)
+    public synchronized void setCooldown(int cooldown)
     {
-        System.out.println(username + " has logout");
-        users.remove(username);
+        this.cooldown = cooldown;
+        PlaceRequest<Integer> request = new PlaceRequest<>(RequestType.COOLDOWN, cooldown);
+        for(Connection out : this.users.values())
+        {
+            try
+            {
+                out.write(request);
+                out.flush();
+            }
+            catch(IOException e)
+            {
+                LOG.warn("could not send cooldown", "error", e);
+            }
+        }
+    }
+
+    /**
+     * Gets the slowest broadcast since the last call, and starts over.
+     *
+     * @return the slowest broadcast in nanoseconds
+     */
+    public long takePeakBroadcast()
+    {
+        return this.peakBroadcast.getAndSet(0);
+    }
+
+    /**
+     * Sends a single request to one connection.  This takes no lock, so a connection's own threads can send to it
+     * while a broadcast is under way; connections queue what is written to them and can be written from any thread.
+     *
+     * @param out the connection
+     * @param request the request to send
+     *
+     * @return false if the connection could not be written to
+     */
+    public boolean send(Connection out, PlaceRequest<?> request)
+    {
+        try
+        {
+            out.write(request);
+            out.flush();
+            return true;
+        }
+        catch(IOException e)
+        {
+            LOG.warn("send failed", "type", request.getType(), "error", e);
+            return false;
+        }
     }
 
     /**
-     * Alerts users who are logged in that a tile change request occurred
+     * Alerts users who are logged in that a tile change request occurred.  The tile is checked again in case it
+     * did not come through {@link #isValid}, but without another Validate event, so each tile records one; a tile
+     * refused here is logged with the user who sent it.
      *
+     * @param username the user who sent the tile change
      * @param tile the PlaceTile request that was made
+     *
+     * @return false if the tile is not on the board
      */
     public synchronized boolean tileChangeRequest(String username, PlaceTile tile)
     {
-        if(!isValid(tile))
+        if(!this.board.isValid(tile))
+        {
+            LOG.warn("refused invalid tile", "user", username, "tile", tile);
             return false;
+        }
+        this.sequence++;
+        apply(new PlaceChange(this.sequence, this.clock.millis(), tile));
+        return true;
+    }
+
+    /**
+     * Applies a change shipped from the primary to this replica's board.
+     *
+     * @param change the sequenced change
+     *
+     * @return false if the change does not directly follow the last one applied
+     */
+    public synchronized boolean replicaChange(PlaceChange change)
+    {
+        if(change.getSequence() != this.sequence + 1)
+            return false;
+        this.sequence = change.getSequence();
+        apply(change);
+        return true;
+    }
+
+    /**
+     * Replaces the board of this replica with a snapshot from the primary, and sends it to every user logged in so
+     * they resync after the replica reconnects.
+     *
+     * @param snapshot the primary's board
+     * @param sequence the sequence number the snapshot was taken at
+     */
+    public synchronized void installSnapshot(PlaceBoard snapshot, long sequence)
+    {
+        this.board = snapshot;
+        this.snapshot = null;
+        this.sequence = sequence;
+        PlaceRequest<PlaceBoard> resync = new PlaceRequest<>(RequestType.BOARD, this.snapshot());
+        Iterator<Map.Entry<String, Connection>> users = this.users.entrySet().iterator();
+        while(users.hasNext())
+        {
+            Map.Entry<String, Connection> user = users.next();
+            try
+            {
+                user.getValue().write(resync);
+                user.getValue().flush();
+            }
+            catch(IOException e)
+            {
+                LOG.warn("dropping user", "user", user.getKey(), "error", e);
+                users.remove();
+            }
+        }
+    }
+
+    /**
+     * Puts a sequenced change on the board, then tells the users and ships it to the replicas.
+     *
+     * @param change the change to apply
+     */
+    private void apply(PlaceChange change)
+    {
+        PlaceTile tile = change.getTile();
+        PlacementEvents.Apply applied = new PlacementEvents.Apply();
+        applied.begin();
+        this.board.setTile(tile);
+        this.snapshot = null;
+        if(applied.shouldCommit())
+        {
+            applied.row = tile.getRow();
+            applied.col = tile.getCol();
+            applied.sequence = change.getSequence();
+            applied.commit();
+        }
+        long start = this.clock.nanos();
+
         PlaceRequest<PlaceTile> changedTile = new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, tile);
-        for (ObjectOutputStream out : users.values()) {
+        Iterator<Map.Entry<String, Connection>> users = this.users.entrySet().iterator();
+        while(users.hasNext())
+        {
+            Map.Entry<String, Connection> user = users.next();
             try
             {
-                out.writeUnshared(changedTile);
-                this.board.setTile(tile);
+                user.getValue().write(changedTile);
             }
             catch (IOException e) {
-                System.err.println(e);
+                LOG.warn("dropping user", "user", user.getKey(), "error", e);
+                users.remove();
+            }
+        }
+        long elapsed = this.clock.nanos() - start;
+        this.peakBroadcast.accumulateAndGet(elapsed, Math::max);
+        this.metrics.placementAccepted();
+        this.metrics.broadcastTook(elapsed);
+
+        PlaceRequest<PlaceChange> shipped = new PlaceRequest<>(RequestType.REPLICA_CHANGE, change);
+        Iterator<Map.Entry<String, Connection>> it = this.replicas.entrySet().iterator();
+        while(it.hasNext())
+        {
+            Map.Entry<String, Connection> entry = it.next();
+            try
+            {
+                entry.getValue().write(shipped);
+                entry.getValue().flush();
+            }
+            catch (IOException e) {
+                LOG.warn("dropping replica", "replica", entry.getKey(), "error", e);
+                it.remove();
             }
         }
-        return true;
     }
 
     /**
-     * Checks to see if a move is valid or not before requesting a tile change.
+     * Subscribes a replica to the change log.  The replica is sent the current
+     * sequence number and a snapshot of the board, then every change after it.
+     *
+     * @param name the replica's name
+     * @param out connection to the replica
+     *
+     * @return true if the replica was subscribed
+     */
+    public synchronized boolean replicate(String name, Connection out)
+    {
+        try
+        {
+            if(this.replicas.containsKey(name) || this.users.containsKey(name))
+            {
+                out.write(new PlaceRequest<>(RequestType.ERROR, "Replica name taken"));
+                out.flush();
+                return false;
+            }
+            out.write(new PlaceRequest<>(RequestType.REPLICATE, this.sequence));
+            out.write(new PlaceRequest<>(RequestType.BOARD, this.snapshot()));
+            out.flush();
+            this.replicas.put(name, out);
+            LOG.info("replica subscribed", "replica", name, "sequence", this.sequence);
+            return true;
+        }
+        catch(IOException e)
+        {
+            LOG.warn("replica subscribe failed", "replica", name, "error", e);
+        }
+        return false;
+    }
+
+    /**
+     * Gets a copy of the board as it is now, to be sent after the lock is let go.  The copy is shared by everyone
+     * who asks before the board next changes.
+     *
+     * @return the copy
+     */
+    private PlaceBoard snapshot()
+    {
+        if(this.snapshot == null)
+            this.snapshot = new PlaceBoard(this.board);
+        return this.snapshot;
+    }
+
+    /**
+     * Stops shipping changes to a replica, if the name is still subscribed on this connection.  A replica that has
+     * since subscribed again on a new connection keeps its subscription.
+     *
+     * @param name name of the replica
+     * @param out the connection the replica subscribed on
+     */
+    public synchronized void dropReplica(String name, Connection out)
+    {
+        if(this.replicas.remove(name, out))
+            LOG.info("replica stopped", "replica", name);
+    }
+
+    /**
+     * Checks to see if a move is valid or not before requesting a tile change, recording the Validate event for it.
      *
      * @param tile the PlaceTile that is being checked for validity.
      *
      * @return A boolean. True if the PlaceTile is valid for the board; false otherwise.
      */
-    private boolean isValid(PlaceTile tile)
+    public boolean isValid(PlaceTile tile)
     {
-        return this.board.isValid(tile);
+        PlacementEvents.Validate check = new PlacementEvents.Validate();
+        check.begin();
+        boolean valid = this.board.isValid(tile);
+        if(tile != null && check.shouldCommit())
+        {
+            check.row = tile.getRow();
+            check.col = tile.getCol();
+            check.valid = valid;
+            check.commit();
+        }
+        return valid;
     }
 
     /**
@@ -160,15 +585,15 @@ public class NetworkServer {
     {
         PlaceRequest<String> error = new PlaceRequest<>(PlaceRequest.RequestType.ERROR,
                 "An error has occurred in the server; shutting down connections... uwu...");
-        for( ObjectOutputStream out : users.values() )
+        for( Connection out : users.values() )
         {
             try
             {
-                out.writeObject(error);
+                out.write(error);
             }
             catch(IOException e)
             {
-                System.err.println(e);
+                LOG.warn("could not send server error", "error", e);
             }
         }
     }
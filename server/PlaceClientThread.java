@@ -1,19 +1,23 @@
 package place.server;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 
 import place.PlaceException;
+import place.PlaceLog;
 import place.PlaceTile;
 
+import place.network.LatencyReport;
 import place.network.PlaceRequest;
+import place.network.ReplicaPong;
 import place.network.PlaceRequest.RequestType;
 
 /**
  * The PlaceClientThread is the server-sided class that listens to the client's input and relays it to the NetworkServer.
+ * It reads requests only through its {@link Connection}, and takes the time from the NetworkServer's clock, so the same
+ * handling can serve a socket on a thread of its own or an in-memory connection driven by a simulation.
  *
  * @author Eve Cho
  * @author Yuqi Wu
@@ -21,33 +25,101 @@ import place.network.PlaceRequest.RequestType;
 public class PlaceClientThread
 {
     /**
-     * Milliseconds a user must wait before they can place their next tile
+     * Where diagnostics go
      */
-    private final static int COOLDOWN_TIME = 500;
+    private final static PlaceLog LOG = PlaceLog.get(PlaceClientThread.class);
     /**
-     * The ObjectInputStream from the client
+     * Milliseconds of network jitter forgiven when checking a user's cooldown
      */
-    private ObjectInputStream in;
+    private final static int COOLDOWN_SLACK = 50;
     /**
-     * The ObjectOutputStream from the client
+     * Milliseconds a connection may be quiet before it is sent a PING
      */
-    private ObjectOutputStream out;
+    private final static int PING_INTERVAL = 10000;
+    /**
+     * Milliseconds a connection may be silent before it is reaped
+     */
+    private final static int IDLE_TIMEOUT = 30000;
+    /**
+     * Read timeout on the socket, a backstop in case the IdleReaper falls behind
+     */
+    private final static int READ_TIMEOUT = IDLE_TIMEOUT + PING_INTERVAL;
+    /**
+     * Milliseconds a new connection has to set up its streams and log in (-Dplace.handshakeTimeout)
+     */
+    private final static int HANDSHAKE_TIMEOUT = Integer.getInteger("place.handshakeTimeout", 5000);
+    /**
+     * The client's socket, or null for a connection in memory
+     */
+    private Socket player;
+    /**
+     * The connection requests are read from and the NetworkServer writes to this client through
+     */
+    private Connection connection;
+    /**
+     * The same connection when it queues the writes for a thread of its own, as a socket's does; otherwise null
+     */
+    private QueuedConnection queued;
     /**
      * The networkServer for user's Place board
      */
     private NetworkServer networkServer;
+    /**
+     * The sequencer this user's tile changes are queued with, or null on a replica
+     */
+    private PlacementScheduler scheduler;
+    /**
+     * This user's queue in the sequencer, once logged in
+     */
+    private PlacementScheduler.ClientQueue placements;
+    /**
+     * Records this user's tile changes for replay, or null when not recording
+     */
+    private TraceRecorder trace;
+    /**
+     * Where the time comes from
+     */
+    private Clock clock;
+    /**
+     * The timer wheel which checks this connection for idleness, or null for a connection in memory
+     */
+    private IdleReaper reaper;
+    /**
+     * Admission control, given this connection's slot back when it closes, or null for a connection in memory
+     */
+    private AdmissionControl admission;
+    /**
+     * The time the connection was accepted, in milliseconds
+     */
+    private long connected;
+    /**
+     * The last time anything was read from the client, in milliseconds
+     */
+    private volatile long lastHeard;
     /**
      * String that represents a user's username
      */
-    private String username;
+    private volatile String username;
+    /**
+     * Name of the replica on the other end, if this connection is a replica following our change log
+     */
+    private volatile String replicaName;
     /**
      * Indicates whether or not a thread should keep running or not
      */
     private boolean go;
     /**
-     * A boolean that indicates if this client is cooling down after placing a tile.
+     * The time this client's last tile change was accepted, in milliseconds.
      */
-    private boolean coolDown;
+    private long lastPlacement;
+    /**
+     * What this connection has cost the server, or null if connections are not accounted for
+     */
+    private ConnectionAccounting.Cost cost;
+    /**
+     * Set once the connection has been closed and its admission slot given back
+     */
+    private boolean closed;
     /**
      * Getter that is used by run to tell if it should keep going.
      *
@@ -60,7 +132,7 @@ public class PlaceClientThread
     /**
      * Setter that is used to stop the thread in the event of need to stop.
      */
-    private void stop()
+    private synchronized void stop()
     {
         this.go = false;
     }
@@ -72,98 +144,354 @@ public class PlaceClientThread
      *
      * @param player The player socket
      * @param networkServer The NetworkServer to communicate with
+     * @param scheduler The sequencer to queue tile changes with, or null on a replica
+     * @param trace The recorder to log tile changes to, or null when not recording
+     * @param reaper The timer wheel which reaps idle connections
+     * @param admission The admission control that admitted this connection
+     *
+     * @throws IOException if the streams cannot be set up before the handshake times out
+     */
+    PlaceClientThread(Socket player, NetworkServer networkServer, PlacementScheduler scheduler, TraceRecorder trace,
+                      IdleReaper reaper, AdmissionControl admission) throws IOException
+    {
+        this.player = player;
+        this.networkServer = networkServer;
+        this.scheduler = scheduler;
+        this.trace = trace;
+        this.reaper = reaper;
+        this.admission = admission;
+        this.clock = networkServer.getClock();
+        this.connected = this.clock.millis();
+        this.lastHeard = this.connected;
+
+        this.player.setSoTimeout(HANDSHAKE_TIMEOUT);
+        Connection stream = new StreamConnection(player);
+        ConnectionAccounting accounting = networkServer.getMetrics().getAccounting();
+        if(accounting != null)
+        {
+            this.cost = accounting.open(player.toString());
+            stream = new AccountedConnection(stream, this.cost);
+        }
+        this.queued = new QueuedConnection(stream, networkServer.getMetrics(), this::hangUp);
+        this.connection = this.queued;
+        this.go = true;
+    }
+
+    /**
+     * Constructs the server side of a connection that does not go over a socket, such as a simulated client's.  It
+     * has no reader thread, reaper or admission slot: whoever owns the connection calls {@link #step()} once for each
+     * request it delivers, on its own thread.
+     *
+     * @param connection The connection to read requests from and write to
+     * @param networkServer The NetworkServer to communicate with
+     * @param scheduler The sequencer to queue tile changes with, or null on a replica
+     */
+    PlaceClientThread(Connection connection, NetworkServer networkServer, PlacementScheduler scheduler)
+    {
+        this.connection = connection;
+        this.networkServer = networkServer;
+        this.scheduler = scheduler;
+        this.clock = networkServer.getClock();
+        this.connected = this.clock.millis();
+        this.lastHeard = this.connected;
+        this.go = true;
+    }
+
+    /**
+     * Starts a new thread used for the user using the run method of the class, and the thread that writes to it.
+     */
+    public void start()
+    {
+        Thread reader = new Thread(this::run);
+        if(this.cost != null)
+            this.cost.setReader(reader);
+        this.queued.start();
+        reader.start();
+        this.reaper.schedule(this, this.connected + HANDSHAKE_TIMEOUT);
+    }
+
+    /**
+     * Called by the IdleReaper when this connection's deadline comes up.  A quiet connection is sent a PING, and one
+     * that has been silent for too long is reaped.
+     *
+     * @param now the current time in milliseconds
+     *
+     * @return when this connection should be checked again, or -1 if it is closed
+     */
+    long checkIdle(long now)
+    {
+        if(!this.go())
+            return -1;
+
+        if(!this.loggedIn())
+        {
+            if(now - this.connected < HANDSHAKE_TIMEOUT)
+                return this.connected + HANDSHAKE_TIMEOUT;
+            LOG.warn("handshake timed out", "socket", this.player);
+            this.admission.handshakeTimedOut();
+            this.hangUp();
+            return -1;
+        }
+
+        long idle = now - this.lastHeard;
+        if(idle >= IDLE_TIMEOUT)
+        {
+            LOG.warn("reaping idle connection", "user", this.username, "socket", this.player);
+            this.hangUp();
+            return -1;
+        }
+        if(idle >= PING_INTERVAL)
+        {
+            if(!this.networkServer.send(this.connection, new PlaceRequest<>(RequestType.PING,
+                    this.clock.nanos())))
+            {
+                this.hangUp();
+                return -1;
+            }
+            return this.lastHeard + IDLE_TIMEOUT;
+        }
+        return this.lastHeard + PING_INTERVAL;
+    }
+
+    /**
+     * Tells whether this connection has finished its handshake as either a user or a replica.
+     *
+     * @return true once the connection has logged in
+     */
+    private boolean loggedIn()
+    {
+        return this.username != null || this.replicaName != null;
+    }
+
+    /**
+     * Switches the socket from the handshake timeout to the normal read timeout once the connection logs in.
      *
-     * @throws PlaceException
+     * @throws IOException if the socket is closed
+     */
+    private void handshakeDone() throws IOException
+    {
+        if(this.player != null)
+            this.player.setSoTimeout(READ_TIMEOUT);
+    }
+
+    /**
+     * Stops the connection and closes its socket, without taking any lock.  Closing the socket fails any write stuck
+     * on it and wakes the reader thread, whose {@link #close()} then logs the user out; that is the only place this
+     * connection logs out, so it can never take out a newer login under the same name.  Called by the reaper, and by
+     * the connection's writer when the client falls too far behind or the socket breaks.
      */
-    PlaceClientThread(Socket player, NetworkServer networkServer)
+    private void hangUp()
     {
+        this.stop();
+        if(this.player == null)
+            return;
         try
         {
-            this.out = new ObjectOutputStream( player.getOutputStream() );
-            this.in = new ObjectInputStream( player.getInputStream() );
-            this.networkServer = networkServer;
-            this.go = true;
+            this.player.close();
         }
         catch(IOException e)
         {
-            System.err.println(e);
+            LOG.warn("could not close socket", "error", e);
         }
     }
 
     /**
-     * Starts a new thread used for the user using the run method of the class.
+     * Runs the PlaceClientThread.  However the loop ends, even on a request that breaks it, the connection is
+     * closed and its admission slot given back.
      */
-    public void start()
+    private void run()
     {
-        new Thread(this::run).start();
+        try
+        {
+            while(this.go())
+                this.step();
+        }
+        finally
+        {
+            this.close();
+        }
     }
 
     /**
-     * Runs the PlaceClientThread.
+     * Reads one request from the client and handles it.  A request that cannot be read or handled stops the
+     * connection instead of throwing.
+     *
+     * @return false once the connection has stopped
      */
-    private void run()
+    boolean step()
     {
-        while(this.go())
+        try
         {
-            try
+            PlacementEvents.Deserialize read = new PlacementEvents.Deserialize();
+            // time only the reading, not the wait for the client to send something
+            if(read.isEnabled())
+                this.connection.awaitRequest();
+            read.begin();
+            PlaceRequest<?> request = this.connection.read();
+            this.lastHeard = this.clock.millis();
+            if(this.cost != null)
+                this.cost.requestRead();
+            if(read.shouldCommit())
             {
-                PlaceRequest<?> request = ( PlaceRequest<?> ) in.readUnshared();
+                read.type = request.getType().toString();
+                if(request.getData() instanceof PlaceTile)
+                {
+                    read.row = ((PlaceTile) request.getData()).getRow();
+                    read.col = ((PlaceTile) request.getData()).getCol();
+                }
+                read.commit();
+            }
+            handle(request);
+        }
+        catch(ClassNotFoundException e)
+        {
+            LOG.warn("unknown class in request", "user", this.username, "error", e);
+        }
+        catch(IOException e)
+        {
+            if(e instanceof SocketTimeoutException && !this.loggedIn() && this.go())
+                this.admission.handshakeTimedOut();
+            LOG.warn("connection closed", "user", this.username, "error", e);
+            this.stop();
+        }
+        catch(RuntimeException e)
+        {
+            this.malformed(e);
+        }
+        return this.go();
+    }
 
-                switch(request.getType())
+    /**
+     * Acts on one request from the client.
+     *
+     * @param request the request
+     *
+     * @throws IOException if a bad request cannot be refused
+     */
+    private void handle(PlaceRequest<?> request) throws IOException
+    {
+        switch(request.getType())
+        {
+            case LOGIN:
+                if(!loggedIn())
+                {
+                    String usernameRequest = (String) request.getData();
+                    if(usernameRequest == null || usernameRequest.isEmpty())
+                        badRequest("LOGIN WITHOUT USERNAME");
+                    else if(login(usernameRequest))
+                    {
+                        if(this.scheduler != null)
+                            this.placements = this.scheduler.register(usernameRequest);
+                        this.username = usernameRequest;
+                        if(this.queued != null)
+                            this.queued.setName(usernameRequest);
+                        if(this.cost != null)
+                            this.cost.setName(usernameRequest);
+                        handshakeDone();
+                    }
+                }
+                else
+                {
+                    badRequest(RequestType.LOGIN.toString());
+                }
+                break;
+            case REPLICATE:
+                if(!loggedIn())
+                {
+                    String name = (String) request.getData();
+                    if(name == null || name.isEmpty())
+                        badRequest("REPLICATE WITHOUT NAME");
+                    else if(this.networkServer.replicate(name, this.connection))
+                    {
+                        this.replicaName = name;
+                        if(this.queued != null)
+                            this.queued.setName(name);
+                        if(this.cost != null)
+                            this.cost.setName(name);
+                        handshakeDone();
+                    }
+                    else
+                        this.stop();
+                }
+                else
+                {
+                    badRequest(RequestType.REPLICATE.toString());
+                }
+                break;
+            case CHANGE_TILE:
+                PlaceTile tile = (PlaceTile) request.getData();
+                if(this.networkServer.isReplica())
+                {
+                    badRequest("CHANGE_TILE ON READ-ONLY REPLICA");
+                }
+                else if(this.placements == null)
+                {
+                    badRequest("CHANGE_TILE BEFORE LOGIN");
+                }
+                else if(tile == null)
                 {
-                    case LOGIN:
-                        if(username == null)
+                    badRequest("CHANGE_TILE WITHOUT TILE");
+                }
+                else
+                {
+                    // the trace cannot hold a tile without a color, which is refused below anyway
+                    if(this.trace != null && tile.getColor() != null)
+                        this.trace.record(this.username, tile);
+                    if(!this.coolingDown(tile))
+                    {
+                        if (tileChangeRequest(tile))
                         {
-                            String usernameRequest = (String) request.getData();
-                            if(login(usernameRequest))
-                                this.username = usernameRequest;
+                            this.lastPlacement = this.clock.millis();
                         }
                         else
                         {
-                            badRequest(RequestType.LOGIN.toString());
+                            this.networkServer.getMetrics().placementInvalid();
+                            badRequest("INVALID TILE");
                         }
-                        break;
-                    case CHANGE_TILE:
-                        PlaceTile tile = (PlaceTile) request.getData();
-                        if(!this.coolDown)
-                        {
-                            if (tileChangeRequest(tile))
-                            {
-                                new Thread(this::coolDown).start();
-                            }
-                            else
-                            {
-                                badRequest("INVALID TILE");
-                            }
-                        }
-                        break;
-                    case BOARD:
-                        badRequest(RequestType.BOARD.toString());
-                        break;
-                    case ERROR:
-                        badRequest(RequestType.ERROR.toString());
-                        break;
-                    case TILE_CHANGED:
-                        badRequest(RequestType.TILE_CHANGED.toString());
-                        break;
-                    case LOGIN_SUCCESS:
-                        badRequest(RequestType.LOGIN_SUCCESS.toString());
-                        break;
-                    default:
-                        badRequest("UNKNOWN");
+                    }
+                    else
+                    {
+                        this.networkServer.getMetrics().cooldownRejected();
+                    }
                 }
-            }
-            catch(ClassNotFoundException e)
-            {
-                System.err.println(e);
-            }
-            catch(IOException e)
-            {
-                System.err.println(e);
-                this.stop();
-            }
+                break;
+            case BOARD:
+                badRequest(RequestType.BOARD.toString());
+                break;
+            case ERROR:
+                badRequest(RequestType.ERROR.toString());
+                break;
+            case TILE_CHANGED:
+                badRequest(RequestType.TILE_CHANGED.toString());
+                break;
+            case LOGIN_SUCCESS:
+                badRequest(RequestType.LOGIN_SUCCESS.toString());
+                break;
+            case REPLICA_CHANGE:
+                badRequest(RequestType.REPLICA_CHANGE.toString());
+                break;
+            case PING:
+                if(this.replicaName != null)
+                    this.networkServer.send(this.connection, new PlaceRequest<>(RequestType.PONG,
+                            new ReplicaPong((Long) request.getData(), this.networkServer.getSequence())));
+                else
+                    this.networkServer.send(this.connection, new PlaceRequest<>(RequestType.PONG,
+                            (Long) request.getData()));
+                break;
+            case PONG:
+                break;
+            case COOLDOWN:
+                badRequest(RequestType.COOLDOWN.toString());
+                break;
+            case LATENCY:
+                if(this.username != null)
+                    this.networkServer.getMetrics().clientLatency((LatencyReport) request.getData());
+                else
+                    badRequest(RequestType.LATENCY.toString());
+                break;
+            default:
+                badRequest("UNKNOWN");
         }
-        this.close();
     }
 
     /**
@@ -175,24 +503,46 @@ public class PlaceClientThread
      */
     private boolean login(String usernameRequest)
     {
-        return networkServer.login(usernameRequest, this.out);
+        return networkServer.login(usernameRequest, this.connection);
     }
 
     /**
-     * A small sleeper thread class which makes it so a user cannot send any PlaceTile for 500ms.
+     * Tells whether the user is still cooling down from their last tile.  The cooldown is whatever the server is
+     * currently asking for, which grows while the server is busy.
+     *
+     * @param tile the tile change that arrived
+     *
+     * @return true if the tile change should be dropped
      */
-    private synchronized void coolDown()
+    private boolean coolingDown(PlaceTile tile)
     {
-        this.coolDown = true;
-        try
+        PlacementEvents.CooldownCheck check = new PlacementEvents.CooldownCheck();
+        check.begin();
+        boolean coolingDown = coolingDown(this.clock.millis(), this.lastPlacement,
+                this.networkServer.getCooldown());
+        if(check.shouldCommit())
         {
-            Thread.sleep(COOLDOWN_TIME);
+            check.row = tile.getRow();
+            check.col = tile.getCol();
+            check.coolingDown = coolingDown;
+            check.commit();
         }
-        catch(InterruptedException e)
-        {
-            System.err.println(e);
-        }
-        this.coolDown = false;
+        return coolingDown;
+    }
+
+    /**
+     * Tells whether a tile change arriving now is too soon after the last one.  A little slack is allowed so clients
+     * waiting exactly the cooldown are not dropped for network jitter.
+     *
+     * @param now the time now, in milliseconds
+     * @param lastPlacement the time of the user's last accepted tile change, in milliseconds
+     * @param cooldown the cooldown the server is asking for, in milliseconds
+     *
+     * @return true if the tile change should be dropped
+     */
+    static boolean coolingDown(long now, long lastPlacement, int cooldown)
+    {
+        return now - lastPlacement < cooldown - COOLDOWN_SLACK;
     }
 
     /**
@@ -204,37 +554,80 @@ public class PlaceClientThread
      */
     private void badRequest(String type) throws IOException
     {
-        this.networkServer.badRequest(this.username, type);
+        this.networkServer.badRequest(this.connection, type);
 
         this.stop();
     }
 
     /**
-     * Requests the NetworkServer change the tile that user wants to change.
+     * Refuses a request that could not be handled, such as one carrying the wrong kind of data, and shuts the
+     * connection down.
+     *
+     * @param e what went wrong handling it
+     */
+    private void malformed(RuntimeException e)
+    {
+        LOG.warn("malformed request", "user", this.username, "error", e);
+        try
+        {
+            badRequest("MALFORMED REQUEST");
+        }
+        catch(IOException x)
+        {
+            this.stop();
+        }
+    }
+
+    /**
+     * Queues the tile that user wants to change with the sequencer.  A tile dropped because the user already has
+     * too many waiting still counts as a placement, so the user keeps cooling down.
      *
      * @param tile The PlaceTile that is being requested to change.
+     *
+     * @return false if the tile is not on the board
      */
     private boolean tileChangeRequest(PlaceTile tile)
     {
-        return this.networkServer.tileChangeRequest(this.username, tile);
+        if(!this.networkServer.isValid(tile))
+            return false;
+        if(!this.scheduler.submit(this.placements, tile))
+            this.networkServer.getMetrics().placementRejected();
+        return true;
     }
 
 
     /**
-     * Closes the connections so we can shut down.
+     * Closes the connections so we can shut down.  Only the first call does anything, so the admission slot is
+     * given back exactly once.
      */
     private void close()
     {
+        synchronized(this)
+        {
+            if(this.closed)
+                return;
+            this.closed = true;
+        }
+        if(this.admission != null)
+            this.admission.release();
+        if(this.cost != null)
+            this.networkServer.getMetrics().getAccounting().close(this.cost);
         try
         {
             if(this.username != null)
-                this.networkServer.logout(this.username);
-            this.in.close();
-            this.out.close();
+                this.networkServer.logout(this.username, this.connection);
+            if(this.placements != null)
+                this.scheduler.unregister(this.placements);
+            if(this.replicaName != null)
+                this.networkServer.dropReplica(this.replicaName, this.connection);
+            if(this.queued != null)
+                this.queued.close();
+            if(this.player != null)
+                this.player.close();
         }
         catch(IOException e)
         {
-            System.err.println(e);
+            LOG.warn("could not close socket", "error", e);
         }
     }
 }
\ No newline at end of file
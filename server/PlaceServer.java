@@ -1,12 +1,62 @@
 package place.server;
 
 import place.PlaceException;
+import place.PlaceLog;
+
+import place.network.PlaceRequest;
 
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class PlaceServer implements Closeable {
+    /**
+     * Where diagnostics go.
+     */
+    private final static PlaceLog LOG = PlaceLog.get(PlaceServer.class);
+    /**
+     * The most connections that may be open at once (-Dplace.maxConnections).
+     */
+    private final static int MAX_CONNECTIONS = Integer.getInteger("place.maxConnections", 1000);
+    /**
+     * Length of the operating system's listen queue (-Dplace.backlog).
+     */
+    private final static int BACKLOG = Integer.getInteger("place.backlog", 128);
+    /**
+     * Threads that set up streams for new connections (-Dplace.handshakeThreads).
+     */
+    private final static int HANDSHAKE_THREADS = Integer.getInteger("place.handshakeThreads", 8);
+    /**
+     * Accepted connections that may wait for a handshake thread (-Dplace.handshakeQueue).
+     */
+    private final static int HANDSHAKE_QUEUE = Integer.getInteger("place.handshakeQueue", 256);
+    /**
+     * Milliseconds between accept queue reports.
+     */
+    private final static int REPORT_INTERVAL = 10000;
+    /**
+     * How many of the most expensive clients are logged with each report, when connections are accounted for.
+     */
+    private final static int TOP_CLIENTS = 5;
+    /**
+     * Milliseconds to back off when accept itself fails, e.g. when out of file descriptors.
+     */
+    private final static int ACCEPT_BACKOFF = 100;
+    /**
+     * Milliseconds a rejected socket is held half-closed so the client can read why it was turned away.
+     */
+    private final static int REJECT_LINGER = 1000;
+    /**
+     * File to record every incoming tile change to, or null not to record (-Dplace.trace).
+     */
+    private final static String TRACE = System.getProperty("place.trace");
     /**
      * The {@link ServerSocket} used to wait for incoming client connections.
      */
@@ -19,6 +69,30 @@ public class PlaceServer implements Closeable {
      * The connection to the client through a NetworkServer.
      */
     private NetworkServer networkServer;
+    /**
+     * The timer wheel which pings and reaps idle connections.
+     */
+    private IdleReaper reaper;
+    /**
+     * The sequencer which serves clients' tile changes fairly, or null on a replica.
+     */
+    private PlacementScheduler scheduler;
+    /**
+     * Records incoming tile changes for replay, or null when not recording.
+     */
+    private TraceRecorder trace;
+    /**
+     * Limits and counts connections between accept and login.
+     */
+    private AdmissionControl admission;
+    /**
+     * The threads that set up streams for new connections, off the accept thread.
+     */
+    private ThreadPoolExecutor handshakes;
+    /**
+     * Closes rejected sockets once the client has had time to read the rejection.
+     */
+    private ScheduledExecutorService closer;
 
     /**
      * To get the status of the program.
@@ -38,27 +112,84 @@ public class PlaceServer implements Closeable {
    */
   public PlaceServer(int DIM, int port) {
     try {
-        this.server = new ServerSocket(port);
         this.networkServer = new NetworkServer(DIM);
-        System.out.println("Now the user can login...");
+        this.scheduler = new PlacementScheduler(this.networkServer);
+        this.scheduler.start();
+        this.networkServer.getMetrics().watch(this.scheduler);
+        new CooldownGovernor(this.networkServer, this.scheduler).start();
+        if (TRACE != null) {
+            this.trace = new TraceRecorder(TRACE);
+            this.trace.start();
+            LOG.info("recording tile changes", "file", TRACE);
+        }
+        this.listen(port);
+        LOG.info("users can log in", "port", port, "dim", DIM);
     }
     catch (IOException e){
-      System.out.print(e);
+      LOG.error("could not start server", "error", e);
+      PlaceLog.flush();
+      System.exit(0);
+    }
+    this.go = true;
+  }
+
+  /**
+   * Creates a new read-only {@link PlaceServer} that mirrors a primary
+   * server and listens for spectators on the specified port.
+   *
+   * @param port The port on which the server should listen for incoming
+   *             connections.
+   * @param primaryHost The host the primary server is running on.
+   * @param primaryPort The port the primary server is listening on.
+   */
+  public PlaceServer(int port, String primaryHost, int primaryPort) {
+    try {
+        this.networkServer = new NetworkServer();
+        new ReplicaLink(primaryHost, primaryPort, "replica-" + port, this.networkServer).start();
+        this.listen(port);
+        LOG.info("spectators can log in", "port", port, "primary", primaryHost + ":" + primaryPort);
+    }
+    catch (IOException | PlaceException e){
+      LOG.error("could not start replica", "error", e);
+      PlaceLog.flush();
       System.exit(0);
     }
     this.go = true;
   }
 
+  /**
+   * Opens the server socket and starts the threads that serve connections.
+   *
+   * @param port The port on which the server should listen for incoming
+   *             connections.
+   *
+   * @throws IOException if the port cannot be listened on
+   */
+  private void listen(int port) throws IOException {
+      this.server = new ServerSocket(port, BACKLOG);
+      this.reaper = new IdleReaper();
+      this.reaper.start();
+      this.admission = new AdmissionControl(MAX_CONNECTIONS);
+      this.handshakes = new ThreadPoolExecutor(HANDSHAKE_THREADS, HANDSHAKE_THREADS,
+              0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(HANDSHAKE_QUEUE));
+      this.closer = Executors.newSingleThreadScheduledExecutor();
+      this.networkServer.getMetrics().register(port);
+
+      Thread reporter = new Thread(this::report);
+      reporter.setDaemon(true);
+      reporter.start();
+  }
+
   /**
    * Closes the client {@link Socket}.
    */
   @Override
   public void close() {
       try {
-          System.out.println("Shutting down server");
+          LOG.info("shutting down");
           this.server.close();
       } catch (IOException e) {
-          System.err.println(e);
+          LOG.warn("could not close server socket", "error", e);
       }
   }
 
@@ -69,11 +200,124 @@ public class PlaceServer implements Closeable {
    */
   public void run() throws PlaceException {
       while(this.go()){
+          Socket player;
+          try{
+              player = server.accept();
+          }
+          catch(IOException e){
+              LOG.warn("accept failed", "error", e);
+              backOff();
+              continue;
+          }
+
+          if(!this.admission.admit()){
+              reject(player);
+              continue;
+          }
+          try{
+              this.admission.queued();
+              this.handshakes.execute(() -> handshake(player));
+          }
+          catch(RejectedExecutionException e){
+              this.admission.dequeued();
+              this.admission.release();
+              this.admission.rejected();
+              reject(player);
+          }
+      }
+      this.handshakes.shutdown();
+      this.closer.shutdown();
+  }
+
+  /**
+   * Sets up the streams of an admitted connection and starts its thread.  This runs on a handshake thread, so a
+   * slow or silent client can only hold up that thread until the handshake times out.
+   *
+   * @param player the new connection
+   */
+  private void handshake(Socket player) {
+      this.admission.dequeued();
+      try{
+          new PlaceClientThread(player, this.networkServer, this.scheduler, this.trace, this.reaper,
+                  this.admission).start();
+      }
+      catch(IOException e){
+          if(e instanceof SocketTimeoutException)
+              this.admission.handshakeTimedOut();
+          else
+              this.admission.handshakeFailed();
+          this.admission.release();
+          try{
+              player.close();
+          }
+          catch(IOException closeError){
+              LOG.warn("could not close failed connection", "error", closeError);
+          }
+      }
+  }
+
+  /**
+   * Turns a connection away because the server is full.  The rejection is small enough to fit in the socket's send
+   * buffer, so it is written straight from the accept thread.  Closing the socket while the client's login is still
+   * unread would reset the connection and lose the rejection, so only the output is shut now and the socket is
+   * closed a moment later.
+   *
+   * @param player the connection to turn away
+   */
+  private void reject(Socket player) {
+      try{
+          ObjectOutputStream out = new ObjectOutputStream(player.getOutputStream());
+          out.writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.ERROR, "Server is full, try again later"));
+          out.flush();
+          player.shutdownOutput();
+      }
+      catch(IOException e){
+          // the client is gone anyway
+      }
+      this.closer.schedule(() -> {
           try{
-              new PlaceClientThread(server.accept(), this.networkServer).start();
+              player.close();
           }
           catch(IOException e){
-              System.err.print(e);
+              LOG.warn("could not close rejected connection", "error", e);
+          }
+      }, REJECT_LINGER, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Pauses the accept loop briefly so a failing accept does not spin.
+   */
+  private void backOff() {
+      try{
+          Thread.sleep(ACCEPT_BACKOFF);
+      }
+      catch(InterruptedException e){
+          LOG.warn("accept backoff interrupted", "error", e);
+      }
+  }
+
+  /**
+   * Prints the accept queue metrics every few seconds while connections are coming and going, and the most expensive
+   * clients if connections are accounted for.
+   */
+  private void report() {
+      String last = "";
+      while(this.go()){
+          try{
+              Thread.sleep(REPORT_INTERVAL);
+          }
+          catch(InterruptedException e){
+              LOG.warn("report interrupted", "error", e);
+          }
+          String now = this.admission.toString();
+          if(!now.equals(last))
+              LOG.info("admission", "counts", now);
+          last = now;
+          ConnectionAccounting accounting = this.networkServer.getMetrics().getAccounting();
+          if(accounting != null){
+              String[] top = accounting.top(TOP_CLIENTS);
+              for(int rank = 0; rank < top.length; ++rank)
+                  LOG.info("expensive client", "rank", rank + 1, "cost", top[rank]);
           }
       }
   }
@@ -82,25 +326,28 @@ public class PlaceServer implements Closeable {
    * Starts a new {@link PlaceServer}.
    *
    * @param args Used to specify the port on which the server should listen
-   *             for incoming client connections.
+   *             for incoming client connections, followed by either the
+   *             board dimension or the primary server to replicate.
    */
   public static void main(String[] args) {
-      if(args.length != 2)
+      if(args.length != 2 && args.length != 3)
       {
           System.err.println("Usage: java PlaceServer port DIM");
+          System.err.println("       java PlaceServer port primaryHost primaryPort");
           return;
       }
 
-      int dim = Integer.parseInt(args[1]);
       int port = Integer.parseInt(args[0]);
 
-      try ( PlaceServer server = new PlaceServer(dim, port) )
+      try ( PlaceServer server = args.length == 2
+              ? new PlaceServer(Integer.parseInt(args[1]), port)
+              : new PlaceServer(port, args[1], Integer.parseInt(args[2])) )
       {
           server.run();
       }
       catch (PlaceException e)
       {
-          System.err.println(e);
+          LOG.error("server stopped", "error", e);
       }
   }
 }
@@ -0,0 +1,119 @@
+package place.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the stages a tile change goes through on the server, so a recording shows where a
+ * slow placement spent its time.  Every event is off until a recording turns it on, with a settings file that
+ * enables the place.* events or through JDK Mission Control; while off, the JIT removes them and they cost nothing.
+ *
+ * An event is used by making one, calling begin before the stage and, once the stage is done, filling in the tile
+ * and calling commit if shouldCommit says it is wanted.
+ */
+public final class PlacementEvents
+{
+    /**
+     * Nothing to construct; the events are nested classes.
+     */
+    private PlacementEvents()
+    {
+    }
+
+    /**
+     * A stage of a tile change, with the tile it was for.
+     */
+    @Category({"Place", "Placement"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static abstract class TileEvent extends Event
+    {
+        /**
+         * The row of the tile, or -1 if the stage had no tile
+         */
+        @Label("Row")
+        public int row = -1;
+        /**
+         * The column of the tile, or -1 if the stage had no tile
+         */
+        @Label("Column")
+        public int col = -1;
+    }
+
+    /**
+     * Reading one request off a client's socket, from its first byte arriving to the object being built.
+     */
+    @Name("place.Deserialize")
+    @Label("Deserialize Request")
+    @Description("Reading a request from a client, not counting the wait for it to arrive")
+    public static class Deserialize extends TileEvent
+    {
+        /**
+         * The type of request read
+         */
+        @Label("Request Type")
+        public String type;
+    }
+
+    /**
+     * Checking whether a tile change came during its user's cooldown.
+     */
+    @Name("place.CooldownCheck")
+    @Label("Cooldown Check")
+    public static class CooldownCheck extends TileEvent
+    {
+        /**
+         * True if the tile change was dropped
+         */
+        @Label("Cooling Down")
+        public boolean coolingDown;
+    }
+
+    /**
+     * Checking that a tile is on the board.
+     */
+    @Name("place.Validate")
+    @Label("Validate Tile")
+    public static class Validate extends TileEvent
+    {
+        /**
+         * True if the tile is on the board
+         */
+        @Label("Valid")
+        public boolean valid;
+    }
+
+    /**
+     * Putting a tile on the board.
+     */
+    @Name("place.Apply")
+    @Label("Apply Tile")
+    public static class Apply extends TileEvent
+    {
+        /**
+         * The sequence number of the change
+         */
+        @Label("Sequence")
+        public long sequence;
+    }
+
+    /**
+     * Sending a changed tile to one user.
+     */
+    @Name("place.Write")
+    @Label("Write Tile")
+    @Description("Sending a TILE_CHANGED to one user")
+    public static class Write extends TileEvent
+    {
+        /**
+         * The user sent to
+         */
+        @Label("User")
+        public String user;
+    }
+}
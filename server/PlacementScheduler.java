@@ -0,0 +1,363 @@
+package place.server;
+
+import place.PlaceLog;
+import place.PlaceTile;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The PlacementScheduler is the sequencer for tile changes.  Reader threads only queue a client's tile changes; a
+ * single sequencer thread serves the clients that have tiles waiting round-robin, one tile each per turn, so a
+ * client on a fast link cannot starve the others by winning the race for the NetworkServer.
+ *
+ * It also keeps, per client, how long tiles waited to be sequenced so an even spread can be checked at saturation.
+ * Waits are measured on the NetworkServer's clock, and the sequencer's work is one {@link #serveNext()} per tile, so a
+ * simulation can run the same scheduling on a virtual clock without the thread.
+ */
+public class PlacementScheduler
+{
+    /**
+     * Where diagnostics go
+     */
+    private final static PlaceLog LOG = PlaceLog.get(PlacementScheduler.class);
+    /**
+     * Tile changes a single client may have waiting; more are dropped
+     */
+    private final static int CLIENT_LIMIT = 4;
+    /**
+     * Milliseconds between wait time reports
+     */
+    private final static int REPORT_INTERVAL = 10000;
+
+    /**
+     * One client's waiting tile changes and how long they have waited.
+     */
+    public static class ClientQueue
+    {
+        /**
+         * The client's username
+         */
+        private final String username;
+        /**
+         * Tiles waiting to be sequenced
+         */
+        private final Queue<PlaceTile> tiles;
+        /**
+         * The clock's nanoseconds each waiting tile was queued at, in the same order as tiles
+         */
+        private final Queue<Long> queuedAt;
+        /**
+         * True while the client is in the sequencer's ready queue
+         */
+        private boolean ready;
+        /**
+         * Tiles sequenced for this client
+         */
+        private long served;
+        /**
+         * Total nanoseconds this client's tiles waited
+         */
+        private long totalWait;
+        /**
+         * Longest nanoseconds one of this client's tiles waited
+         */
+        private long maxWait;
+
+        /**
+         * Creates an empty queue for a client.
+         *
+         * @param username the client's username
+         */
+        private ClientQueue(String username)
+        {
+            this.username = username;
+            this.tiles = new ArrayDeque<>(CLIENT_LIMIT);
+            this.queuedAt = new ArrayDeque<>(CLIENT_LIMIT);
+        }
+
+        /**
+         * Gets the number of tiles sequenced for this client.
+         *
+         * @return tiles served
+         */
+        public synchronized long getServed() { return this.served; }
+
+        /**
+         * Gets the average time this client's tiles waited.
+         *
+         * @return mean wait in milliseconds
+         */
+        public synchronized double getMeanWaitMillis()
+        {
+            return this.served == 0 ? 0 : this.totalWait / (this.served * 1e6);
+        }
+
+        /**
+         * Gets the longest time one of this client's tiles waited.
+         *
+         * @return max wait in milliseconds
+         */
+        public synchronized double getMaxWaitMillis() { return this.maxWait / 1e6; }
+    }
+
+    /**
+     * The NetworkServer tile changes are sequenced into
+     */
+    private NetworkServer networkServer;
+    /**
+     * Where the time comes from
+     */
+    private Clock clock;
+    /**
+     * Clients with tiles waiting, in the order they will be served
+     */
+    private BlockingQueue<ClientQueue> ready;
+    /**
+     * Every logged in client's queue, by username
+     */
+    private Map<String, ClientQueue> clients;
+    /**
+     * Tile changes waiting to be sequenced, across all clients
+     */
+    private AtomicInteger backlog;
+    /**
+     * The largest backlog seen since the governor last looked
+     */
+    private AtomicInteger peakBacklog;
+
+    /**
+     * Constructs a scheduler for a NetworkServer.
+     *
+     * @param networkServer the server tile changes are sequenced into
+     */
+    public PlacementScheduler(NetworkServer networkServer)
+    {
+        this.networkServer = networkServer;
+        this.clock = networkServer.getClock();
+        this.ready = new LinkedBlockingQueue<>();
+        this.clients = new ConcurrentHashMap<>();
+        this.backlog = new AtomicInteger();
+        this.peakBacklog = new AtomicInteger();
+    }
+
+    /**
+     * Starts the sequencer thread and the wait time reporter.
+     */
+    public void start()
+    {
+        Thread sequencer = new Thread(this::run);
+        sequencer.setDaemon(true);
+        sequencer.start();
+        Thread reporter = new Thread(this::report);
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    /**
+     * Creates the queue a newly logged in client submits its tiles to.
+     *
+     * @param username the client's username
+     *
+     * @return the client's queue
+     */
+    public ClientQueue register(String username)
+    {
+        ClientQueue queue = new ClientQueue(username);
+        this.clients.put(username, queue);
+        return queue;
+    }
+
+    /**
+     * Forgets a client that has logged out.  Tiles it already queued are still sequenced.
+     *
+     * @param queue the client's queue
+     */
+    public void unregister(ClientQueue queue)
+    {
+        this.clients.remove(queue.username, queue);
+    }
+
+    /**
+     * Queues a tile change for a client.
+     *
+     * @param queue the client's queue
+     * @param tile the tile change
+     *
+     * @return false if the client already has too many tiles waiting and this one was dropped
+     */
+    public boolean submit(ClientQueue queue, PlaceTile tile)
+    {
+        boolean wake;
+        synchronized(queue)
+        {
+            if(queue.tiles.size() >= CLIENT_LIMIT)
+                return false;
+            queue.tiles.add(tile);
+            queue.queuedAt.add(this.clock.nanos());
+            wake = !queue.ready;
+            queue.ready = true;
+        }
+        int waiting = this.backlog.incrementAndGet();
+        this.peakBacklog.accumulateAndGet(waiting, Math::max);
+        if(wake)
+            this.ready.add(queue);
+        return true;
+    }
+
+    /**
+     * Gets the number of tile changes waiting to be sequenced now.
+     *
+     * @return the backlog
+     */
+    public int getBacklog()
+    {
+        return this.backlog.get();
+    }
+
+    /**
+     * Gets the most tile changes any one logged in client has waiting to be sequenced.  This is at most the limit per
+     * client; how far behind a client is in receiving is its connection's send backlog.
+     *
+     * @return the largest client backlog
+     */
+    public int getLargestClientBacklog()
+    {
+        int largest = 0;
+        for(ClientQueue queue : this.clients.values())
+        {
+            synchronized(queue)
+            {
+                largest = Math.max(largest, queue.tiles.size());
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Gets the largest number of tile changes waiting to be sequenced since the last call, and starts over.
+     *
+     * @return the peak backlog
+     */
+    public int takePeakBacklog()
+    {
+        return this.peakBacklog.getAndSet(this.backlog.get());
+    }
+
+    /**
+     * Runs the sequencer, serving each client as it comes to the head of the line.
+     */
+    private void run()
+    {
+        while(true)
+        {
+            try
+            {
+                serve(this.ready.take());
+            }
+            catch(InterruptedException e)
+            {
+                LOG.warn("sequencer interrupted", "error", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Serves the client at the head of the line, if any client has tiles waiting, without waiting for one.
+     *
+     * @return false if no client had a tile waiting
+     */
+    boolean serveNext()
+    {
+        ClientQueue queue = this.ready.poll();
+        if(queue == null)
+            return false;
+        serve(queue);
+        return true;
+    }
+
+    /**
+     * Serves the ready clients round-robin: one tile from the client at the head, then the client goes to the back
+     * of the line if it has more waiting.  A tile that fails to be placed is logged and dropped, so it cannot stop
+     * the sequencer.
+     *
+     * @param queue the client at the head of the line
+     */
+    private void serve(ClientQueue queue)
+    {
+        PlaceTile tile;
+        boolean more;
+        synchronized(queue)
+        {
+            tile = queue.tiles.poll();
+            long wait = this.clock.nanos() - queue.queuedAt.poll();
+            queue.served++;
+            queue.totalWait += wait;
+            queue.maxWait = Math.max(queue.maxWait, wait);
+            more = !queue.tiles.isEmpty();
+            queue.ready = more;
+        }
+        this.backlog.decrementAndGet();
+        if(more)
+            this.ready.add(queue);
+
+        try
+        {
+            this.networkServer.tileChangeRequest(queue.username, tile);
+        }
+        catch(RuntimeException e)
+        {
+            LOG.error("dropped tile change", "user", queue.username, "tile", tile, "error", e);
+        }
+    }
+
+    /**
+     * Prints how evenly wait time is spread across clients every few seconds while tiles are being placed.
+     */
+    private void report()
+    {
+        long lastServed = 0;
+        while(true)
+        {
+            try
+            {
+                Thread.sleep(REPORT_INTERVAL);
+            }
+            catch(InterruptedException e)
+            {
+                LOG.warn("report interrupted", "error", e);
+                return;
+            }
+
+            long served = 0;
+            double best = Double.MAX_VALUE;
+            double worst = 0;
+            double slowest = 0;
+            int active = 0;
+            for(ClientQueue queue : this.clients.values())
+            {
+                long count = queue.getServed();
+                if(count == 0)
+                    continue;
+                served += count;
+                active++;
+                double mean = queue.getMeanWaitMillis();
+                best = Math.min(best, mean);
+                worst = Math.max(worst, mean);
+                slowest = Math.max(slowest, queue.getMaxWaitMillis());
+            }
+            if(served != lastServed)
+            {
+                LOG.info("placement wait", "clients", active, "millis",
+                        String.format("mean %.2f-%.2f max %.2f", best, worst, slowest), "backlog", this.backlog.get());
+            }
+            lastServed = served;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package place.server;
+
+import place.PlaceLog;
+import place.PlaceTile;
+import place.network.PlaceRequest;
+import place.network.PlaceRequest.RequestType;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A Connection with a send queue and a writer thread of its own.  Whoever writes to it, the sequencer broadcasting a
+ * tile or the reaper sending a PING, only adds the request to the queue, so the NetworkServer's lock is never held
+ * while a socket blocks.  The writer sends requests in the order they were queued and flushes whenever it has caught
+ * up, so a burst of changes goes out together.  A board is flushed as soon as it is written, and the time it took to
+ * go out is recorded as a snapshot time.
+ *
+ * Reads are not queued: they go straight to the wrapped connection, on the reader's thread.
+ *
+ * A client that stops reading cannot hold anyone else up.  Once it has more than place.sendLimit requests waiting,
+ * further writes fail the way a broken socket's would and the connection is hung up on, which also frees a writer
+ * stuck on the socket.
+ */
+public class QueuedConnection implements Connection
+{
+    /**
+     * Where diagnostics go
+     */
+    private final static PlaceLog LOG = PlaceLog.get(QueuedConnection.class);
+    /**
+     * Requests that may wait to be sent to one client before it is hung up on (-Dplace.sendLimit)
+     */
+    private final static int SEND_LIMIT = Integer.getInteger("place.sendLimit", 1024);
+    /**
+     * Milliseconds close waits for the requests already queued to be sent
+     */
+    private final static int CLOSE_WAIT = 1000;
+    /**
+     * Queued after the last request, to stop the writer
+     */
+    private final static PlaceRequest<?> END = new PlaceRequest<>(RequestType.ERROR, "end of connection");
+
+    /**
+     * The connection the writer sends through
+     */
+    private Connection connection;
+    /**
+     * Where the time to send a board is recorded
+     */
+    private ServerMetrics metrics;
+    /**
+     * Requests waiting to be sent
+     */
+    private BlockingQueue<PlaceRequest<?>> queue;
+    /**
+     * Called once if the client falls too far behind or the connection breaks, to hang up on it
+     */
+    private Runnable hangUp;
+    /**
+     * Set once hangUp has been called
+     */
+    private AtomicBoolean hungUp;
+    /**
+     * The thread sending the queued requests
+     */
+    private Thread writer;
+    /**
+     * The user or replica on the other end, for the events recorded as tiles are sent
+     */
+    private volatile String name;
+    /**
+     * Set once the connection is closed, so later writes fail
+     */
+    private volatile boolean closed;
+
+    /**
+     * Queues the writes to a connection.
+     *
+     * @param connection the connection the writer sends through
+     * @param metrics where the time to send a board is recorded
+     * @param hangUp called once if the client falls too far behind or the connection breaks
+     */
+    public QueuedConnection(Connection connection, ServerMetrics metrics, Runnable hangUp)
+    {
+        this.connection = connection;
+        this.metrics = metrics;
+        this.queue = new LinkedBlockingQueue<>(SEND_LIMIT);
+        this.hangUp = hangUp;
+        this.hungUp = new AtomicBoolean();
+        this.writer = new Thread(this::run);
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    public void start()
+    {
+        this.writer.start();
+    }
+
+    /**
+     * Names the connection after the user or replica on the other end.
+     *
+     * @param name the username or replica name
+     */
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Gets how many requests are waiting to be sent.
+     *
+     * @return the backlog
+     */
+    @Override
+    public int getBacklog()
+    {
+        return this.queue.size();
+    }
+
+    /**
+     * Queues a request to be sent.
+     *
+     * @param request the request
+     *
+     * @throws IOException if the connection is closed or the client has too many requests waiting
+     */
+    @Override
+    public void write(PlaceRequest<?> request) throws IOException
+    {
+        if(this.closed)
+            throw new IOException("Connection closed");
+        if(!this.queue.offer(request))
+        {
+            this.hangUp();
+            throw new IOException("Client fell " + SEND_LIMIT + " requests behind");
+        }
+    }
+
+    /**
+     * Does nothing but check the connection is open; the writer flushes whenever it has caught up.
+     *
+     * @throws IOException if the connection is closed
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if(this.closed)
+            throw new IOException("Connection closed");
+    }
+
+    /**
+     * Reads the next request from the wrapped connection.
+     *
+     * @return the request
+     *
+     * @throws IOException if the connection is broken
+     * @throws ClassNotFoundException if the request is of an unknown class
+     */
+    @Override
+    public PlaceRequest<?> read() throws IOException, ClassNotFoundException
+    {
+        return this.connection.read();
+    }
+
+    /**
+     * Waits for the next request to start arriving on the wrapped connection.
+     *
+     * @throws IOException if the connection is broken or times out
+     */
+    @Override
+    public void awaitRequest() throws IOException
+    {
+        this.connection.awaitRequest();
+    }
+
+    /**
+     * Stops taking requests, and waits a little for those already queued to be sent.  A writer still stuck after
+     * that is freed when the socket is closed.
+     */
+    public void close()
+    {
+        this.closed = true;
+        if(!this.queue.offer(END))
+        {
+            this.queue.clear();
+            this.queue.offer(END);
+        }
+        if(this.writer.isAlive() && this.writer != Thread.currentThread())
+        {
+            try
+            {
+                this.writer.join(CLOSE_WAIT);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Sends queued requests until the connection is closed or breaks.
+     */
+    private void run()
+    {
+        try
+        {
+            while(true)
+            {
+                PlaceRequest<?> request = this.queue.take();
+                if(request == END)
+                {
+                    this.connection.flush();
+                    return;
+                }
+                this.send(request);
+                if(this.queue.isEmpty())
+                    this.connection.flush();
+            }
+        }
+        catch(InterruptedException e)
+        {
+            LOG.warn("writer interrupted", "user", this.name, "error", e);
+        }
+        catch(IOException e)
+        {
+            if(!this.closed)
+                LOG.debug("write failed", "user", this.name, "error", e);
+            this.hangUp();
+        }
+        catch(RuntimeException e)
+        {
+            LOG.error("could not send request", "user", this.name, "error", e);
+            this.hangUp();
+        }
+    }
+
+    /**
+     * Writes one request, recording a changed tile's trip to the client, or how long a board took to send.
+     *
+     * @param request the request
+     *
+     * @throws IOException if the connection is broken
+     */
+    private void send(PlaceRequest<?> request) throws IOException
+    {
+        if(request.getType() == RequestType.BOARD)
+        {
+            long start = System.nanoTime();
+            this.connection.write(request);
+            this.connection.flush();
+            this.metrics.snapshotTook(System.nanoTime() - start);
+            return;
+        }
+        if(request.getType() != RequestType.TILE_CHANGED)
+        {
+            this.connection.write(request);
+            return;
+        }
+        PlacementEvents.Write written = new PlacementEvents.Write();
+        written.begin();
+        this.connection.write(request);
+        if(written.shouldCommit())
+        {
+            PlaceTile tile = (PlaceTile) request.getData();
+            written.row = tile.getRow();
+            written.col = tile.getCol();
+            written.user = this.name;
+            written.commit();
+        }
+    }
+
+    /**
+     * Hangs up on the client, once.
+     */
+    private void hangUp()
+    {
+        if(this.hungUp.compareAndSet(false, true))
+            this.hangUp.run();
+    }
+}
@@ -0,0 +1,498 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceChange;
+import place.PlaceException;
+import place.PlaceLog;
+import place.network.PlaceExchange;
+import place.network.PlaceRequest;
+import place.network.PlaceRequest.RequestType;
+import place.network.ReplicaPong;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ReplicaLink is the replica-sided connection to a primary server.  It subscribes to the primary's change log,
+ * installs the primary's snapshot, then applies every shipped change to the replica's NetworkServer in order.
+ *
+ * Changes are read on one thread and applied on another so the replica can report how far behind the primary it is,
+ * both in sequence numbers and in milliseconds.  The primary answers each heartbeat with the sequence number of its
+ * latest change, and the changes behind are counted from that, so changes still queued on the primary or in flight
+ * count too.  The milliseconds come from the replica's own monotonic clock: half
+ * the round trip of a heartbeat PING, which waits behind the changes the primary is still sending, plus the time the
+ * last change waited here to be applied.  The two hosts' clocks never have to agree.
+ *
+ * If the primary goes quiet for longer than a few heartbeats, the connection breaks, or a change goes missing, the
+ * link reconnects with growing waits between attempts and installs a fresh snapshot, which is sent on to every
+ * spectator so their boards catch up too.
+ */
+public class ReplicaLink
+{
+    /**
+     * Where diagnostics go
+     */
+    private final static PlaceLog LOG = PlaceLog.get(ReplicaLink.class);
+    /**
+     * Milliseconds between lag reports
+     */
+    private final static int REPORT_INTERVAL = 5000;
+    /**
+     * Milliseconds between heartbeats sent to the primary
+     */
+    private final static int HEARTBEAT_INTERVAL = 1000;
+    /**
+     * Milliseconds without hearing from the primary before the link is taken to be lost
+     */
+    private final static int SILENCE_LIMIT = 5 * HEARTBEAT_INTERVAL;
+    /**
+     * Milliseconds waited before the first attempt to reconnect
+     */
+    private final static int MIN_RETRY = 500;
+    /**
+     * The longest wait between attempts to reconnect, in milliseconds
+     */
+    private final static int MAX_RETRY = 30000;
+
+    /**
+     * A change and when it arrived.
+     */
+    private static class Received
+    {
+        /**
+         * The change
+         */
+        final PlaceChange change;
+        /**
+         * The nanoTime it arrived at
+         */
+        final long at;
+        /**
+         * The subscription it arrived on
+         */
+        final long subscription;
+
+        /**
+         * Remembers a change as it arrives.
+         *
+         * @param change the change
+         * @param subscription the subscription it arrived on
+         */
+        Received(PlaceChange change, long subscription)
+        {
+            this.change = change;
+            this.at = System.nanoTime();
+            this.subscription = subscription;
+        }
+    }
+
+    /**
+     * The host the primary is running on
+     */
+    private String hostname;
+    /**
+     * The port the primary is listening on
+     */
+    private int port;
+    /**
+     * The name this replica subscribes under
+     */
+    private String name;
+    /**
+     * The socket connected to the primary
+     */
+    private volatile Socket primary;
+    /**
+     * The ObjectInputStream from the primary
+     */
+    private ObjectInputStream in;
+    /**
+     * The ObjectOutputStream to the primary, written by the receiver and the heartbeat
+     */
+    private ObjectOutputStream out;
+    /**
+     * Held while writing to the primary
+     */
+    private final Object sending = new Object();
+    /**
+     * Requests written since the stream to the primary was last reset
+     */
+    private int written;
+    /**
+     * The replica's NetworkServer that changes are applied to
+     */
+    private NetworkServer networkServer;
+    /**
+     * Changes that have been received but not applied yet
+     */
+    private BlockingQueue<Received> pending;
+    /**
+     * Counts subscriptions, so changes left over from a lost one are not applied over a newer snapshot
+     */
+    private volatile long subscription;
+    /**
+     * The sequence number of the last change received from the primary
+     */
+    private volatile long lastReceived;
+    /**
+     * The sequence number of the primary's latest change, as of its last answer to a heartbeat
+     */
+    private volatile long primarySequence;
+    /**
+     * Held while a change is checked and applied, and while a new subscription is installed, so a change from a
+     * lost subscription cannot be applied over the new snapshot
+     */
+    private final Object applying = new Object();
+    /**
+     * The sequence number of the last change applied to the replica's board
+     */
+    private volatile long lastApplied;
+    /**
+     * Milliseconds between the primary sending the last applied change and the replica applying it
+     */
+    private volatile long lagMillis;
+    /**
+     * Nanoseconds the last heartbeat took to come back from the primary
+     */
+    private volatile long roundTrip;
+    /**
+     * Indicates whether or not the link should keep running or not
+     */
+    private boolean go;
+
+    /**
+     * Getter that is used by the link threads to tell if they should keep going.
+     *
+     * @return A boolean. True if this.go is set to true; false otherwise.
+     */
+    private synchronized boolean go()
+    {
+        return this.go;
+    }
+
+    /**
+     * Setter that is used to stop the link in the event of need to stop.
+     */
+    private synchronized void stop()
+    {
+        this.go = false;
+    }
+
+    // ===============================================
+
+    /**
+     * Connects to a primary, subscribes to its change log and installs its snapshot into the NetworkServer.
+     *
+     * @param hostname the host the primary is running on
+     * @param port the port the primary is listening on
+     * @param name the name this replica subscribes under
+     * @param networkServer the replica's NetworkServer
+     *
+     * @throws PlaceException if the primary cannot be reached or refuses the subscription
+     */
+    public ReplicaLink(String hostname, int port, String name, NetworkServer networkServer) throws PlaceException
+    {
+        this.hostname = hostname;
+        this.port = port;
+        this.name = name;
+        this.networkServer = networkServer;
+        this.pending = new LinkedBlockingQueue<>();
+        this.subscribe();
+        this.go = true;
+    }
+
+    /**
+     * Opens a connection to the primary, subscribes to its change log and installs its snapshot, which replaces the
+     * replica's board and is sent to the spectators.
+     *
+     * @throws PlaceException if the primary cannot be reached or refuses the subscription
+     */
+    private void subscribe() throws PlaceException
+    {
+        try
+        {
+            this.primary = new Socket(this.hostname, this.port);
+            this.primary.setSoTimeout(SILENCE_LIMIT);
+            ObjectOutputStream out = new ObjectOutputStream(this.primary.getOutputStream());
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(this.primary.getInputStream());
+
+            out.writeUnshared(new PlaceRequest<>(RequestType.REPLICATE, this.name));
+            out.flush();
+
+            PlaceRequest<?> request = (PlaceRequest<?>) in.readUnshared();
+            if(request.getType() != RequestType.REPLICATE)
+            {
+                this.close();
+                throw new PlaceException("Primary refused replication: " + request.getData());
+            }
+            long sequence = (Long) request.getData();
+
+            request = (PlaceRequest<?>) in.readUnshared();
+            if(request.getType() != RequestType.BOARD)
+            {
+                this.close();
+                throw new PlaceException("No snapshot received from primary.");
+            }
+            synchronized(this.sending)
+            {
+                this.out = out;
+                this.in = in;
+                this.written = 0;
+            }
+            synchronized(this.applying)
+            {
+                this.subscription++;
+                this.pending.clear();
+                this.networkServer.installSnapshot((PlaceBoard) request.getData(), sequence);
+                this.lastReceived = sequence;
+                this.primarySequence = sequence;
+                this.lastApplied = sequence;
+                this.lagMillis = 0;
+            }
+            LOG.info("replicating", "primary", this.hostname + ":" + this.port, "sequence", sequence);
+        }
+        catch(IOException | ClassNotFoundException | ClassCastException e)
+        {
+            this.close();
+            throw new PlaceException(e);
+        }
+    }
+
+    /**
+     * Starts the threads that receive, apply and report on changes from the primary.
+     */
+    public void start()
+    {
+        new Thread(this::run).start();
+        new Thread(this::applyChanges).start();
+        Thread heartbeat = new Thread(this::heartbeat);
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+    }
+
+    /**
+     * Gets how many of the primary's changes the replica has not applied yet, counting from the newest the replica
+     * knows of: the primary's sequence at its last heartbeat answer, or a change received since.
+     *
+     * @return the lag in sequence numbers
+     */
+    public long getLagSequence()
+    {
+        return Math.max(this.primarySequence, this.lastReceived) - this.lastApplied;
+    }
+
+    /**
+     * Gets how long after the primary sent it the last change was applied here.
+     *
+     * @return the lag in milliseconds
+     */
+    public long getLagMillis()
+    {
+        return this.lagMillis;
+    }
+
+    /**
+     * Receives changes until the link is lost, then reconnects, for as long as the link runs.
+     */
+    private void run()
+    {
+        while(this.go())
+        {
+            this.receive();
+            this.close();
+            if(this.go())
+                this.reconnect();
+        }
+    }
+
+    /**
+     * Subscribes again until it works, waiting twice as long after each failed attempt.
+     */
+    private void reconnect()
+    {
+        int wait = MIN_RETRY;
+        while(this.go())
+        {
+            try
+            {
+                Thread.sleep(wait);
+            }
+            catch(InterruptedException e)
+            {
+                LOG.warn("reconnect interrupted", "error", e);
+                return;
+            }
+            try
+            {
+                this.subscribe();
+                return;
+            }
+            catch(PlaceException e)
+            {
+                LOG.warn("could not reconnect to primary", "primary", this.hostname + ":" + this.port, "retryMillis",
+                        wait, "error", e);
+                wait = Math.min(MAX_RETRY, wait * 2);
+            }
+        }
+    }
+
+    /**
+     * Reads changes shipped by the primary and queues them to be applied, until the connection breaks or the
+     * primary goes quiet.
+     */
+    private void receive()
+    {
+        long subscription = this.subscription;
+        while(this.go())
+        {
+            try
+            {
+                PlaceRequest<?> request = (PlaceRequest<?>) this.in.readUnshared();
+                switch(request.getType())
+                {
+                    case REPLICA_CHANGE:
+                        PlaceChange change = (PlaceChange) request.getData();
+                        this.lastReceived = change.getSequence();
+                        this.pending.add(new Received(change, subscription));
+                        break;
+                    case PING:
+                        this.send(new PlaceRequest<>(RequestType.PONG, (Long) request.getData()));
+                        break;
+                    case PONG:
+                        ReplicaPong pong = (ReplicaPong) request.getData();
+                        this.roundTrip = System.nanoTime() - pong.getTime();
+                        this.primarySequence = pong.getSequence();
+                        break;
+                    case ERROR:
+                        LOG.error("primary sent error", "message", request.getData());
+                        return;
+                    default:
+                        LOG.error("unexpected request from primary", "type", request.getType());
+                        return;
+                }
+            }
+            catch(ClassNotFoundException e)
+            {
+                LOG.warn("unknown class from primary", "error", e);
+            }
+            catch(IOException | ClassCastException e)
+            {
+                if(this.go())
+                    LOG.warn("lost primary, reconnecting", "error", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies queued changes to the replica's board in sequence order.  A change left over from a lost subscription
+     * is dropped, checked under the same lock a new subscription is installed under, so it is never mistaken for a
+     * gap in the new one.  A missing change breaks the connection, so the link starts over from a new snapshot.
+     */
+    private void applyChanges()
+    {
+        while(this.go() || !this.pending.isEmpty())
+        {
+            try
+            {
+                Received received = this.pending.poll(REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+                if(received == null)
+                    continue;
+                synchronized(this.applying)
+                {
+                    if(received.subscription != this.subscription)
+                        continue;
+                    PlaceChange change = received.change;
+                    if(!this.networkServer.replicaChange(change))
+                    {
+                        LOG.error("replication gap", "expected", this.lastApplied + 1, "got", change.getSequence());
+                        this.close();
+                        continue;
+                    }
+                    this.lastApplied = change.getSequence();
+                    this.lagMillis = (System.nanoTime() - received.at + this.roundTrip / 2) / 1000000;
+                }
+            }
+            catch(InterruptedException e)
+            {
+                LOG.warn("applier interrupted", "error", e);
+            }
+        }
+    }
+
+    /**
+     * Sends the primary a PING every heartbeat interval, so the round trip can be measured and a quiet primary
+     * noticed, and reports the replica's lag every few seconds.
+     */
+    private void heartbeat()
+    {
+        long lastReport = System.nanoTime();
+        while(this.go())
+        {
+            try
+            {
+                Thread.sleep(HEARTBEAT_INTERVAL);
+            }
+            catch(InterruptedException e)
+            {
+                LOG.warn("heartbeat interrupted", "error", e);
+            }
+            this.send(new PlaceRequest<>(RequestType.PING, System.nanoTime()));
+            if(System.nanoTime() - lastReport >= TimeUnit.MILLISECONDS.toNanos(REPORT_INTERVAL))
+            {
+                LOG.info("replica lag", "sequence", this.lastApplied, "changes", getLagSequence(), "millis",
+                        getLagMillis());
+                lastReport = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Sends a request to the primary.  A failure is left for the receiver to notice and reconnect.
+     *
+     * @param request the request
+     */
+    private void send(PlaceRequest<?> request)
+    {
+        synchronized(this.sending)
+        {
+            try
+            {
+                this.out.writeUnshared(request);
+                if(++this.written == PlaceExchange.RESET_INTERVAL)
+                {
+                    this.out.reset();
+                    this.written = 0;
+                }
+                this.out.flush();
+            }
+            catch(IOException e)
+            {
+                LOG.debug("could not send to primary", "type", request.getType(), "error", e);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection to the primary.
+     */
+    private void close()
+    {
+        try
+        {
+            Socket primary = this.primary;
+            if(primary != null)
+                primary.close();
+        }
+        catch(IOException e)
+        {
+            LOG.warn("could not close primary connection", "error", e);
+        }
+    }
+}
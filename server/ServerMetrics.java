@@ -0,0 +1,418 @@
+package place.server;
+
+import place.PlaceLog;
+import place.network.LatencyHistogram;
+import place.network.LatencyReport;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what the server does, cheaply enough to leave on: every count on the tile change path is a striped
+ * LongAdder and every timing goes into a lock-free histogram, so threads recording at once do not contend.  A daemon
+ * thread turns the counts into per-second rates once a second.  The numbers are published over JMX by
+ * {@link #register}.
+ */
+public class ServerMetrics implements ServerMetricsMBean
+{
+    /**
+     * Where diagnostics go
+     */
+    private final static PlaceLog LOG = PlaceLog.get(ServerMetrics.class);
+    /**
+     * Milliseconds between rate samples
+     */
+    private final static int SAMPLE_INTERVAL = 1000;
+
+    /**
+     * The server whose users and cooldown are reported
+     */
+    private NetworkServer networkServer;
+    /**
+     * The sequencer whose backlog is reported, or null on a replica
+     */
+    private volatile PlacementScheduler scheduler;
+    /**
+     * Tile changes applied to the board
+     */
+    private LongAdder accepted = new LongAdder();
+    /**
+     * Tile changes dropped because the user had too many waiting
+     */
+    private LongAdder rejected = new LongAdder();
+    /**
+     * Tile changes off the board
+     */
+    private LongAdder invalid = new LongAdder();
+    /**
+     * Tile changes dropped during the user's cooldown
+     */
+    private LongAdder cooldownRejections = new LongAdder();
+    /**
+     * Users logged in
+     */
+    private LongAdder logins = new LongAdder();
+    /**
+     * Time to queue each tile change for every user
+     */
+    private LatencyHistogram broadcast = new LatencyHistogram();
+    /**
+     * Time to send the board to each user or replica, measured by the connection's writer as it goes out
+     */
+    private LatencyHistogram snapshot = new LatencyHistogram();
+    /**
+     * The median round trip from each client latency report
+     */
+    private LatencyHistogram clientP50 = new LatencyHistogram();
+    /**
+     * The 99th percentile round trip from each client latency report
+     */
+    private LatencyHistogram clientP99 = new LatencyHistogram();
+    /**
+     * The longest round trip from each client latency report
+     */
+    private LatencyHistogram clientMax = new LatencyHistogram();
+    /**
+     * What each connection costs, or null if connections are not accounted for
+     */
+    private ConnectionAccounting accounting = ConnectionAccounting.ENABLED ? new ConnectionAccounting() : null;
+    /**
+     * The totals at the last sample, in the order accepted, rejected, invalid, cooldown rejections
+     */
+    private long[] lastTotals = new long[4];
+    /**
+     * The change in each total over the last second, in the same order
+     */
+    private volatile long[] rates = new long[4];
+
+    /**
+     * Creates the metrics for a server.
+     *
+     * @param networkServer the server whose users and cooldown are reported
+     */
+    public ServerMetrics(NetworkServer networkServer)
+    {
+        this.networkServer = networkServer;
+    }
+
+    /**
+     * Reports the backlog of a sequencer too.
+     *
+     * @param scheduler the sequencer feeding the server
+     */
+    public void watch(PlacementScheduler scheduler)
+    {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Publishes the metrics over JMX and starts sampling rates.
+     *
+     * @param port the port the server listens on, which tells servers in one JVM apart
+     */
+    public void register(int port)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("place:type=Server,port=" + port));
+        }
+        catch(JMException e)
+        {
+            LOG.warn("metrics not published", "error", e);
+        }
+        Thread sampler = new Thread(this::sample);
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Gets what each connection costs.
+     *
+     * @return the accounting, or null unless the server was started with -Dplace.accounting=true
+     */
+    public ConnectionAccounting getAccounting()
+    {
+        return this.accounting;
+    }
+
+    /**
+     * Counts a tile change applied to the board.
+     */
+    public void placementAccepted()
+    {
+        this.accepted.increment();
+    }
+
+    /**
+     * Counts a tile change dropped because the user had too many waiting.
+     */
+    public void placementRejected()
+    {
+        this.rejected.increment();
+    }
+
+    /**
+     * Counts a tile change off the board.
+     */
+    public void placementInvalid()
+    {
+        this.invalid.increment();
+    }
+
+    /**
+     * Counts a tile change dropped during the user's cooldown.
+     */
+    public void cooldownRejected()
+    {
+        this.cooldownRejections.increment();
+    }
+
+    /**
+     * Counts a user logging in.
+     */
+    public void loggedIn()
+    {
+        this.logins.increment();
+    }
+
+    /**
+     * Records how long a broadcast took.
+     *
+     * @param nanos the time in nanoseconds
+     */
+    public void broadcastTook(long nanos)
+    {
+        this.broadcast.record(nanos);
+    }
+
+    /**
+     * Records how long sending the board to a user or replica took, writing and flushing it to the socket.
+     *
+     * @param nanos the time in nanoseconds
+     */
+    public void snapshotTook(long nanos)
+    {
+        this.snapshot.record(nanos);
+    }
+
+    /**
+     * Takes in a client's report of how long its tile changes took to come back.  Percentiles from different clients
+     * cannot be merged exactly, so each report's percentiles are kept as samples of their own.
+     *
+     * @param report the report
+     */
+    public void clientLatency(LatencyReport report)
+    {
+        this.clientP50.record(report.getP50());
+        this.clientP99.record(report.getP99());
+        this.clientMax.record(report.getMax());
+    }
+
+    /**
+     * Works out the per-second rates once every interval.
+     */
+    private void sample()
+    {
+        while(true)
+        {
+            try
+            {
+                Thread.sleep(SAMPLE_INTERVAL);
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+            long[] totals = {this.accepted.sum(), this.rejected.sum(), this.invalid.sum(),
+                    this.cooldownRejections.sum()};
+            long[] rates = new long[totals.length];
+            for(int i = 0; i < totals.length; ++i)
+                rates[i] = totals[i] - this.lastTotals[i];
+            this.lastTotals = totals;
+            this.rates = rates;
+        }
+    }
+
+    @Override
+    public int getConnectedUsers()
+    {
+        return this.networkServer.getUserCount();
+    }
+
+    @Override
+    public int getCooldown()
+    {
+        return this.networkServer.getCooldown();
+    }
+
+    @Override
+    public long getPlacementsAccepted()
+    {
+        return this.accepted.sum();
+    }
+
+    @Override
+    public long getPlacementsRejected()
+    {
+        return this.rejected.sum();
+    }
+
+    @Override
+    public long getPlacementsInvalid()
+    {
+        return this.invalid.sum();
+    }
+
+    @Override
+    public long getCooldownRejections()
+    {
+        return this.cooldownRejections.sum();
+    }
+
+    @Override
+    public long getAcceptedPerSecond()
+    {
+        return this.rates[0];
+    }
+
+    @Override
+    public long getRejectedPerSecond()
+    {
+        return this.rates[1];
+    }
+
+    @Override
+    public long getInvalidPerSecond()
+    {
+        return this.rates[2];
+    }
+
+    @Override
+    public long getCooldownRejectionsPerSecond()
+    {
+        return this.rates[3];
+    }
+
+    @Override
+    public int getPlacementBacklog()
+    {
+        PlacementScheduler scheduler = this.scheduler;
+        return scheduler == null ? 0 : scheduler.getBacklog();
+    }
+
+    @Override
+    public int getLargestClientPlacementBacklog()
+    {
+        PlacementScheduler scheduler = this.scheduler;
+        return scheduler == null ? 0 : scheduler.getLargestClientBacklog();
+    }
+
+    @Override
+    public int getLargestClientSendBacklog()
+    {
+        return this.networkServer.getLargestSendBacklog();
+    }
+
+    @Override
+    public long getBroadcastCount()
+    {
+        return this.broadcast.getCount();
+    }
+
+    @Override
+    public double getBroadcastMeanMillis()
+    {
+        return this.broadcast.getMean() / 1e6;
+    }
+
+    @Override
+    public double getBroadcastP50Millis()
+    {
+        return this.broadcast.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getBroadcastP99Millis()
+    {
+        return this.broadcast.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getBroadcastMaxMillis()
+    {
+        return this.broadcast.getMax() / 1e6;
+    }
+
+    @Override
+    public long getLogins()
+    {
+        return this.logins.sum();
+    }
+
+    @Override
+    public double getSnapshotMeanMillis()
+    {
+        return this.snapshot.getMean() / 1e6;
+    }
+
+    @Override
+    public double getSnapshotP99Millis()
+    {
+        return this.snapshot.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getSnapshotMaxMillis()
+    {
+        return this.snapshot.getMax() / 1e6;
+    }
+
+    @Override
+    public long getClientLatencyReports()
+    {
+        return this.clientP50.getCount();
+    }
+
+    @Override
+    public double getClientMedianP50Millis()
+    {
+        return this.clientP50.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getClientMedianP99Millis()
+    {
+        return this.clientP99.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getClientWorstP99Millis()
+    {
+        return this.clientP99.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getClientMaxMillis()
+    {
+        return this.clientMax.getMax() / 1e6;
+    }
+
+    @Override
+    public String[] mostExpensiveClients(int count)
+    {
+        return this.accounting == null ? new String[0] : this.accounting.top(count);
+    }
+
+    @Override
+    public void resetHistograms()
+    {
+        this.broadcast.reset();
+        this.snapshot.reset();
+        this.clientP50.reset();
+        this.clientP99.reset();
+        this.clientMax.reset();
+    }
+}
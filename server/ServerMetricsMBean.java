@@ -0,0 +1,161 @@
+package place.server;
+
+/**
+ * The server's numbers as seen through JMX, under the name place:type=Server,port=&lt;port&gt;.  Totals count since the
+ * server started; rates are over the last whole second; times are in milliseconds since the histograms were last
+ * reset.
+ */
+public interface ServerMetricsMBean
+{
+    /**
+     * @return users logged in now
+     */
+    int getConnectedUsers();
+
+    /**
+     * @return the cooldown users are being asked for, in milliseconds
+     */
+    int getCooldown();
+
+    /**
+     * @return tile changes applied to the board
+     */
+    long getPlacementsAccepted();
+
+    /**
+     * @return tile changes dropped because the user already had too many waiting
+     */
+    long getPlacementsRejected();
+
+    /**
+     * @return tile changes off the board
+     */
+    long getPlacementsInvalid();
+
+    /**
+     * @return tile changes dropped for arriving during the user's cooldown
+     */
+    long getCooldownRejections();
+
+    /**
+     * @return tile changes applied in the last second
+     */
+    long getAcceptedPerSecond();
+
+    /**
+     * @return tile changes dropped for a full queue in the last second
+     */
+    long getRejectedPerSecond();
+
+    /**
+     * @return tile changes off the board in the last second
+     */
+    long getInvalidPerSecond();
+
+    /**
+     * @return tile changes dropped for the cooldown in the last second
+     */
+    long getCooldownRejectionsPerSecond();
+
+    /**
+     * @return tile changes waiting to be sequenced, across all clients
+     */
+    int getPlacementBacklog();
+
+    /**
+     * @return the most tile changes any one client has waiting to be sequenced, at most the per-client limit
+     */
+    int getLargestClientPlacementBacklog();
+
+    /**
+     * @return the most requests, such as tile changes broadcast to it, waiting to be sent to any one client or
+     * replica; one growing toward place.sendLimit is not keeping up
+     */
+    int getLargestClientSendBacklog();
+
+    /**
+     * @return broadcasts timed
+     */
+    long getBroadcastCount();
+
+    /**
+     * @return mean time to queue a tile change for every user
+     */
+    double getBroadcastMeanMillis();
+
+    /**
+     * @return median time to queue a tile change for every user
+     */
+    double getBroadcastP50Millis();
+
+    /**
+     * @return 99th percentile time to queue a tile change for every user
+     */
+    double getBroadcastP99Millis();
+
+    /**
+     * @return longest time to queue a tile change for every user
+     */
+    double getBroadcastMaxMillis();
+
+    /**
+     * @return users logged in since the server started
+     */
+    long getLogins();
+
+    /**
+     * @return mean time to send the board to a user or replica
+     */
+    double getSnapshotMeanMillis();
+
+    /**
+     * @return 99th percentile time to send the board to a user or replica
+     */
+    double getSnapshotP99Millis();
+
+    /**
+     * @return longest time to send the board to a user or replica
+     */
+    double getSnapshotMaxMillis();
+
+    /**
+     * @return latency reports received from clients
+     */
+    long getClientLatencyReports();
+
+    /**
+     * @return the median, across client reports, of each client's median time from sending a tile change to seeing
+     * it come back
+     */
+    double getClientMedianP50Millis();
+
+    /**
+     * @return the median, across client reports, of each client's 99th percentile round trip
+     */
+    double getClientMedianP99Millis();
+
+    /**
+     * @return the 99th percentile, across client reports, of each client's 99th percentile round trip
+     */
+    double getClientWorstP99Millis();
+
+    /**
+     * @return the longest round trip any client reported
+     */
+    double getClientMaxMillis();
+
+    /**
+     * Lists the connections that have cost the server the most CPU time reading their requests and writing to them,
+     * with the memory that allocated.  Empty unless the server was started with -Dplace.accounting=true.
+     *
+     * @param count how many to list
+     *
+     * @return one line per connection, most expensive first
+     */
+    String[] mostExpensiveClients(int count);
+
+    /**
+     * Starts the broadcast, snapshot and client latency histograms over.
+     */
+    void resetHistograms();
+}
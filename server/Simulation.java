@@ -0,0 +1,386 @@
+package place.server;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.LatencyHistogram;
+import place.network.PlaceRequest;
+import place.network.PlaceRequest.RequestType;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Runs a NetworkServer with many simulated clients in one JVM, on a virtual clock, with no sockets or threads.  Every
+ * client is joined by a {@link LoopbackConnection} to a real {@link PlaceClientThread}, which reads the client's LOGIN
+ * and CHANGE_TILE requests, checks its cooldown and queues its tiles with a real {@link PlacementScheduler}, exactly
+ * as it would for a socket.  Only the threads are left out: the simulation steps the client thread for each request it
+ * delivers, and steps the sequencer once per tile after a fixed service time.  Each request delivered to a client
+ * moves the clock on by a cost per recipient, so the server's own broadcast timings see the cost of a broadcast, and
+ * the real {@link CooldownGovernor} adjusts the cooldown from them every virtual second.
+ *
+ * Because time only moves when the simulation moves it and every random choice comes from one seeded Random, the same
+ * arguments always give the same run, however fast the machine is.
+ *
+ * Usage: java place.server.Simulation clients seconds [seed [DIM]]
+ */
+public class Simulation
+{
+    /**
+     * Virtual nanoseconds the sequencer spends on every tile (-Dplace.simServiceNanos)
+     */
+    private final static long SERVICE_NANOS = Long.getLong("place.simServiceNanos", 20000);
+    /**
+     * Virtual nanoseconds each request delivered to a client costs (-Dplace.simRecipientNanos)
+     */
+    private final static long RECIPIENT_NANOS = Long.getLong("place.simRecipientNanos", 200);
+    /**
+     * The most extra time, in milliseconds, a client waits past its cooldown, like a human hesitating
+     */
+    private final static int JITTER = 200;
+    /**
+     * Virtual milliseconds between cooldown adjustments and reports
+     */
+    private final static int INTERVAL = 1000;
+    /**
+     * The wall clock time the virtual clock starts at, so runs stamp tiles identically
+     */
+    private final static long EPOCH = 1_500_000_000_000L;
+
+    /**
+     * A clock that only moves when the simulation moves it.
+     */
+    private static class VirtualClock implements Clock
+    {
+        /**
+         * Virtual nanoseconds since the simulation started
+         */
+        private long now;
+
+        @Override
+        public long millis()
+        {
+            return EPOCH + this.now / 1_000_000;
+        }
+
+        @Override
+        public long nanos()
+        {
+            return this.now;
+        }
+    }
+
+    /**
+     * Something due to happen at a virtual time.
+     */
+    private static class Event implements Comparable<Event>
+    {
+        /**
+         * When it happens, in virtual nanoseconds
+         */
+        final long time;
+        /**
+         * Breaks ties between events at the same time, in the order they were scheduled
+         */
+        final long order;
+        /**
+         * The client placing a tile, or null for the sequencer or governor
+         */
+        final SimClient client;
+        /**
+         * True for a cooldown adjustment, false for the sequencer serving a tile
+         */
+        final boolean govern;
+
+        /**
+         * Makes an event.
+         *
+         * @param time when it happens
+         * @param order its place among events at the same time
+         * @param client the client placing a tile, or null
+         * @param govern true for a cooldown adjustment
+         */
+        Event(long time, long order, SimClient client, boolean govern)
+        {
+            this.time = time;
+            this.order = order;
+            this.client = client;
+            this.govern = govern;
+        }
+
+        @Override
+        public int compareTo(Event other)
+        {
+            return this.time != other.time ? Long.compare(this.time, other.time) : Long.compare(this.order,
+                    other.order);
+        }
+    }
+
+    /**
+     * A simulated user, reacting to what the server sends the way a real client does.
+     */
+    private class SimClient
+    {
+        /**
+         * The username
+         */
+        final String name;
+        /**
+         * The connection between the client and the server
+         */
+        final LoopbackConnection connection;
+        /**
+         * The server's side of the connection
+         */
+        final PlaceClientThread thread;
+        /**
+         * The cooldown the server last sent, in milliseconds
+         */
+        int cooldown = CooldownGovernor.BASE_COOLDOWN;
+        /**
+         * The id of the last tile placed
+         */
+        long lastId;
+        /**
+         * The virtual time each tile the server queued was placed, in nanoseconds, by id
+         */
+        final Map<Long, Long> placedAt = new HashMap<>();
+
+        /**
+         * Makes a client with a connection to the server.
+         *
+         * @param name the username
+         */
+        SimClient(String name)
+        {
+            this.name = name;
+            this.connection = new LoopbackConnection(this::receive);
+            this.thread = new PlaceClientThread(this.connection, Simulation.this.server, Simulation.this.scheduler);
+        }
+
+        /**
+         * Sends a request to the server and has the server's side of the connection handle it.
+         *
+         * @param request the request
+         *
+         * @return false if the server stopped the connection over it
+         */
+        boolean send(PlaceRequest<?> request)
+        {
+            this.connection.deliver(request);
+            return this.thread.step();
+        }
+
+        /**
+         * Takes a request from the server, which costs the server a recipient's time.
+         *
+         * @param request the request
+         */
+        void receive(PlaceRequest<?> request)
+        {
+            ++Simulation.this.delivered;
+            Simulation.this.clock.now += RECIPIENT_NANOS;
+            if(request.getType() == RequestType.COOLDOWN)
+                this.cooldown = (Integer) request.getData();
+            // the tile carries this very name object, so identity is enough and spares a string compare per user
+            else if(request.getType() == RequestType.TILE_CHANGED
+                    && ((PlaceTile) request.getData()).getOwner() == this.name)
+            {
+                Long placed = this.placedAt.remove(((PlaceTile) request.getData()).getId());
+                if(placed != null)
+                    Simulation.this.latency.record(Simulation.this.clock.now - placed);
+            }
+        }
+    }
+
+    /**
+     * The virtual clock
+     */
+    private VirtualClock clock = new VirtualClock();
+    /**
+     * The server under test
+     */
+    private NetworkServer server;
+    /**
+     * The server's sequencer, stepped by the simulation instead of its own thread
+     */
+    private PlacementScheduler scheduler;
+    /**
+     * The server's cooldown governor, stepped by the simulation instead of its own thread
+     */
+    private CooldownGovernor governor;
+    /**
+     * Every random choice in the run
+     */
+    private Random random;
+    /**
+     * Events waiting to happen, soonest first
+     */
+    private PriorityQueue<Event> events = new PriorityQueue<>();
+    /**
+     * How many events have been scheduled, to order events at the same time
+     */
+    private long scheduled;
+    /**
+     * Set while the sequencer has a tile in service
+     */
+    private boolean serving;
+    /**
+     * Time from placing a tile to seeing it broadcast, in virtual nanoseconds
+     */
+    private LatencyHistogram latency = new LatencyHistogram();
+    /**
+     * Requests delivered to clients
+     */
+    private long delivered;
+
+    /**
+     * Sets up a server and logs the clients in.
+     *
+     * @param clients how many clients
+     * @param dim the dimension of the board
+     * @param seed the seed for every random choice
+     */
+    public Simulation(int clients, int dim, long seed)
+    {
+        this.random = new Random(seed);
+        this.server = new NetworkServer(dim, this.clock);
+        this.server.setQuiet(true);
+        this.scheduler = new PlacementScheduler(this.server);
+        this.governor = new CooldownGovernor(this.server, this.scheduler);
+        for(int i = 0; i < clients; ++i)
+        {
+            SimClient client = new SimClient("sim" + i);
+            if(client.send(new PlaceRequest<>(RequestType.LOGIN, client.name)))
+                schedule(this.random.nextInt(CooldownGovernor.BASE_COOLDOWN + 1) * 1_000_000L, client, false);
+        }
+        schedule(INTERVAL * 1_000_000L, null, true);
+    }
+
+    /**
+     * Runs the simulation, printing a line every virtual second and a summary at the end.
+     *
+     * @param seconds virtual seconds to run for
+     */
+    public void run(int seconds)
+    {
+        long end = seconds * 1_000_000_000L;
+        long wallStart = System.nanoTime();
+        ServerMetrics metrics = this.server.getMetrics();
+        long lastAccepted = 0, lastRejected = 0;
+        while(!this.events.isEmpty() && this.events.peek().time <= end)
+        {
+            Event event = this.events.poll();
+            // events due while a broadcast was moving the clock still happen at their own time, as reader threads
+            // would run alongside the sequencer
+            this.clock.now = event.time;
+            if(event.client != null)
+                place(event.client);
+            else if(event.govern)
+            {
+                govern();
+                System.out.printf("%5ds  cooldown %5d ms  accepted %7d  rejected %7d  backlog %6d%n",
+                        event.time / 1_000_000_000L, this.server.getCooldown(),
+                        metrics.getPlacementsAccepted() - lastAccepted,
+                        metrics.getCooldownRejections() - lastRejected, this.scheduler.getBacklog());
+                lastAccepted = metrics.getPlacementsAccepted();
+                lastRejected = metrics.getCooldownRejections();
+            }
+            else
+                serve();
+        }
+        System.out.println("Simulated " + seconds + " s with " + this.server.getUserCount() + " clients in "
+                + String.format("%.1f", (System.nanoTime() - wallStart) / 1e9) + " s of real time");
+        System.out.println("  accepted " + metrics.getPlacementsAccepted() + ", rejected "
+                + metrics.getCooldownRejections() + ", dropped " + metrics.getPlacementsRejected()
+                + ", still queued " + this.scheduler.getBacklog() + ", requests delivered " + this.delivered);
+        System.out.println("  latency  " + this.latency);
+        System.out.println("  board sequence " + this.server.getSequence() + ", checksum "
+                + Integer.toHexString(this.server.getBoardChecksum()));
+    }
+
+    /**
+     * A client places a tile, which its server thread queues with the sequencer if the client has cooled down, then
+     * plans its next one.
+     *
+     * @param client the client
+     */
+    private void place(SimClient client)
+    {
+        int dim = this.server.getDIM();
+        PlaceTile tile = new PlaceTile(this.random.nextInt(dim), this.random.nextInt(dim), client.name,
+                PlaceColor.values()[this.random.nextInt(PlaceColor.TOTAL_COLORS)], this.clock.millis());
+        tile.setId(++client.lastId);
+        int backlog = this.scheduler.getBacklog();
+        long now = this.clock.now;
+        client.send(new PlaceRequest<>(RequestType.CHANGE_TILE, tile));
+        if(this.scheduler.getBacklog() > backlog)
+        {
+            client.placedAt.put(tile.getId(), now);
+            if(!this.serving)
+                startServing();
+        }
+        long wait = client.cooldown + this.random.nextInt(JITTER + 1);
+        schedule(now + wait * 1_000_000L, client, false);
+    }
+
+    /**
+     * Starts the sequencer on the next waiting tile.
+     */
+    private void startServing()
+    {
+        this.serving = true;
+        schedule(this.clock.now + SERVICE_NANOS, null, false);
+    }
+
+    /**
+     * The sequencer finishes a tile: the server applies and broadcasts it, moving the clock on by each recipient.
+     */
+    private void serve()
+    {
+        this.scheduler.serveNext();
+        this.serving = false;
+        if(this.scheduler.getBacklog() > 0)
+            startServing();
+    }
+
+    /**
+     * Has the governor adjust the cooldown from the load since the last adjustment, then plans the next.
+     */
+    private void govern()
+    {
+        long now = this.clock.now;
+        this.governor.govern();
+        schedule(now + INTERVAL * 1_000_000L, null, true);
+    }
+
+    /**
+     * Schedules an event.
+     *
+     * @param time when it happens
+     * @param client the client placing a tile, or null
+     * @param govern true for a cooldown adjustment
+     */
+    private void schedule(long time, SimClient client, boolean govern)
+    {
+        this.events.add(new Event(time, this.scheduled++, client, govern));
+    }
+
+    /**
+     * Runs a simulation.
+     *
+     * @param args clients seconds [seed [DIM]]
+     */
+    public static void main(String[] args)
+    {
+        if(args.length < 2 || args.length > 4)
+        {
+            System.out.println("Usage: java Simulation clients seconds [seed [DIM]]");
+            System.exit(1);
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        int dim = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+        new Simulation(Integer.parseInt(args[0]), dim, seed).run(Integer.parseInt(args[1]));
+    }
+}
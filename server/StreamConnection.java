@@ -0,0 +1,108 @@
+package place.server;
+
+import place.network.PlaceExchange;
+import place.network.PlaceRequest;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+
+/**
+ * A Connection that exchanges requests over a socket's object streams, the way real clients are served.
+ */
+public class StreamConnection implements Connection
+{
+    /**
+     * The stream to the client
+     */
+    private ObjectOutputStream out;
+    /**
+     * The client's input, buffered so a request's arrival can be waited for without reading it
+     */
+    private BufferedInputStream input;
+    /**
+     * The stream from the client
+     */
+    private ObjectInputStream in;
+    /**
+     * Requests written since the stream was last reset
+     */
+    private int written;
+
+    /**
+     * Sets up the object streams on a socket.  The output stream's header is sent first, so the two ends cannot
+     * wait on each other's.
+     *
+     * @param socket the client's socket
+     *
+     * @throws IOException if the streams cannot be set up
+     */
+    public StreamConnection(Socket socket) throws IOException
+    {
+        this.out = new ObjectOutputStream(socket.getOutputStream());
+        this.out.flush();
+        this.input = new BufferedInputStream(socket.getInputStream());
+        this.in = new ObjectInputStream(this.input);
+    }
+
+    /**
+     * Writes a request to the stream, unshared so every request is sent in full, and resets the stream every
+     * {@link PlaceExchange#RESET_INTERVAL} requests.
+     *
+     * @param request the request
+     *
+     * @throws IOException if the stream is broken
+     */
+    @Override
+    public void write(PlaceRequest<?> request) throws IOException
+    {
+        this.out.writeUnshared(request);
+        if(++this.written == PlaceExchange.RESET_INTERVAL)
+        {
+            this.out.reset();
+            this.written = 0;
+        }
+    }
+
+    /**
+     * Flushes the stream.
+     *
+     * @throws IOException if the stream is broken
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        this.out.flush();
+    }
+
+    /**
+     * Reads the next request from the stream.
+     *
+     * @return the request
+     *
+     * @throws IOException if the stream is broken or the socket times out
+     * @throws ClassNotFoundException if the request is of an unknown class
+     */
+    @Override
+    public PlaceRequest<?> read() throws IOException, ClassNotFoundException
+    {
+        return (PlaceRequest<?>) this.in.readUnshared();
+    }
+
+    /**
+     * Blocks until the next request starts to arrive, without reading any of it.
+     *
+     * @throws IOException if the socket times out or fails
+     */
+    @Override
+    public void awaitRequest() throws IOException
+    {
+        if(this.input.available() > 0)
+            return;
+        this.input.mark(1);
+        this.input.read();
+        this.input.reset();
+    }
+}
@@ -0,0 +1,219 @@
+package place.server;
+
+import place.PlaceLog;
+import place.PlaceTile;
+import place.network.PlaceTrace;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The TraceRecorder writes every CHANGE_TILE the server receives, with its arrival time and username, to a
+ * {@link PlaceTrace} file that can be replayed against another server.  Client threads only put the request on a
+ * queue; one writer thread does the file work, so recording never makes a client wait.  If the writer falls so far
+ * behind that the queue fills, requests are left out of the trace and counted rather than slowing the server down.
+ */
+public class TraceRecorder
+{
+    /**
+     * Where diagnostics go
+     */
+    private final static PlaceLog LOG = PlaceLog.get(TraceRecorder.class);
+    /**
+     * Requests that may wait for the writer
+     */
+    private final static int QUEUE = 1 << 16;
+    /**
+     * The most requests written between flushes
+     */
+    private final static int BATCH = 1024;
+
+    /**
+     * A request waiting to be written
+     */
+    private static class Arrival
+    {
+        /**
+         * When it arrived, from System.nanoTime
+         */
+        final long nanos;
+        /**
+         * Who sent it
+         */
+        final String username;
+        /**
+         * The tile asked for
+         */
+        final PlaceTile tile;
+
+        /**
+         * Remembers a request.
+         *
+         * @param nanos when it arrived
+         * @param username who sent it
+         * @param tile the tile asked for
+         */
+        Arrival(long nanos, String username, PlaceTile tile)
+        {
+            this.nanos = nanos;
+            this.username = username;
+            this.tile = tile;
+        }
+    }
+
+    /**
+     * The trace file
+     */
+    private PlaceTrace.Writer trace;
+    /**
+     * Requests waiting for the writer
+     */
+    private BlockingQueue<Arrival> queue;
+    /**
+     * When recording started, from System.nanoTime
+     */
+    private long start;
+    /**
+     * Requests written to the trace
+     */
+    private AtomicLong recorded;
+    /**
+     * Requests left out because the queue was full or they could not be encoded
+     */
+    private AtomicLong dropped;
+
+    /**
+     * Creates a recorder writing to a new trace file.
+     *
+     * @param file the trace file, replaced if it exists
+     *
+     * @throws IOException if the file cannot be created
+     */
+    public TraceRecorder(String file) throws IOException
+    {
+        this.trace = new PlaceTrace.Writer(file);
+        this.queue = new ArrayBlockingQueue<>(QUEUE);
+        this.start = System.nanoTime();
+        this.recorded = new AtomicLong();
+        this.dropped = new AtomicLong();
+    }
+
+    /**
+     * Starts the writer thread, and makes sure the trace is finished when the server shuts down.
+     */
+    public void start()
+    {
+        Thread writer = new Thread(this::run);
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::finish));
+    }
+
+    /**
+     * Records a CHANGE_TILE as it arrives.  Never blocks.
+     *
+     * @param username the user who sent it
+     * @param tile the tile asked for
+     */
+    public void record(String username, PlaceTile tile)
+    {
+        if(!this.queue.offer(new Arrival(System.nanoTime(), username, tile)))
+            this.dropped.incrementAndGet();
+    }
+
+    /**
+     * Writes queued requests to the file, flushing whenever the queue runs dry.
+     */
+    private void run()
+    {
+        List<Arrival> batch = new ArrayList<>(BATCH);
+        try
+        {
+            while(true)
+            {
+                Arrival first = this.queue.poll(1, TimeUnit.SECONDS);
+                if(first == null)
+                    continue;
+                batch.add(first);
+                this.queue.drainTo(batch, BATCH - 1);
+                synchronized(this)
+                {
+                    for(Arrival arrival : batch)
+                        writeOrSkip(arrival);
+                    if(this.queue.isEmpty())
+                        this.trace.flush();
+                }
+                batch.clear();
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch(IOException e)
+        {
+            LOG.error("trace recording stopped", "error", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes one request to the file, or logs and counts it as dropped if it cannot be encoded, so one bad request
+     * does not stop the recording.  The caller must hold the lock.
+     *
+     * @param arrival the request
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private void writeOrSkip(Arrival arrival) throws IOException
+    {
+        try
+        {
+            write(arrival);
+        }
+        catch(RuntimeException e)
+        {
+            this.dropped.incrementAndGet();
+            LOG.warn("could not record tile change", "user", arrival.username, "error", e);
+        }
+    }
+
+    /**
+     * Writes one request to the file.  The caller must hold the lock.
+     *
+     * @param arrival the request
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private void write(Arrival arrival) throws IOException
+    {
+        PlaceTile tile = arrival.tile;
+        this.trace.write((arrival.nanos - this.start) / 1000, arrival.username, tile.getRow(), tile.getCol(),
+                tile.getColor());
+        this.recorded.incrementAndGet();
+    }
+
+    /**
+     * Writes whatever is still queued and closes the file.
+     */
+    private synchronized void finish()
+    {
+        try
+        {
+            Arrival arrival;
+            while((arrival = this.queue.poll()) != null)
+                writeOrSkip(arrival);
+            this.trace.close();
+            LOG.info("trace finished", "recorded", this.recorded.get(), "dropped", this.dropped.get());
+        }
+        catch(IOException e)
+        {
+            LOG.error("trace could not be finished", "error", e.getMessage());
+        }
+        PlaceLog.flush();
+    }
+}